@@ -2,8 +2,10 @@ package com.payflex;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.openfeign.EnableFeignClients;
+import org.springframework.scheduling.annotation.EnableScheduling;
 @SpringBootApplication
 @EnableFeignClients
+@EnableScheduling
 public class Application {
   public static void main(String[] args){ SpringApplication.run(Application.class,args);}
 }
@@ -0,0 +1,30 @@
+package com.payflex.config;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+
+/**
+ * Pools R2DBC armados a mano para las configuraciones que reemplazan al ConnectionFactory de
+ * Spring Boot (réplicas de lectura, shards).
+ */
+final class ConnectionPools {
+
+    private ConnectionPools() {
+    }
+
+    static ConnectionFactory create(String url, String username, String password, int maxSize) {
+        ConnectionFactoryOptions.Builder options = ConnectionFactoryOptions.parse(url).mutate();
+        if (!username.isBlank()) {
+            options.option(ConnectionFactoryOptions.USER, username);
+        }
+        if (!password.isBlank()) {
+            options.option(ConnectionFactoryOptions.PASSWORD, password);
+        }
+        return new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(options.build()))
+                .maxSize(maxSize)
+                .build());
+    }
+}
@@ -1,5 +1,6 @@
 package com.payflex.config;
 
+import com.payflex.money.MoneyConverters;
 import io.r2dbc.spi.ConnectionFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -7,6 +8,8 @@ import org.springframework.data.r2dbc.config.AbstractR2dbcConfiguration;
 import org.springframework.r2dbc.connection.R2dbcTransactionManager;
 import org.springframework.transaction.ReactiveTransactionManager;
 
+import java.util.List;
+
 @Configuration
 public class DatabaseConfig extends AbstractR2dbcConfiguration {
 
@@ -21,6 +24,12 @@ public class DatabaseConfig extends AbstractR2dbcConfiguration {
     return connectionFactory;
   }
 
+  // CurrencyUnit en entidades (columnas currency)
+  @Override
+  protected List<Object> getCustomConverters() {
+    return MoneyConverters.all();
+  }
+
   @Bean
   public ReactiveTransactionManager transactionManager(ConnectionFactory connectionFactory) {
     return new R2dbcTransactionManager(connectionFactory);
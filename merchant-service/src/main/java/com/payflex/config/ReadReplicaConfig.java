@@ -0,0 +1,50 @@
+package com.payflex.config;
+
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Activa el ruteo a réplicas de lectura cuando database.read-replicas.urls tiene al menos una URL
+ * r2dbc:postgresql://host:port/db. El primario se arma con spring.r2dbc.* (reemplaza al pool que
+ * crearía Spring Boot); las réplicas usan las mismas credenciales salvo que se indiquen otras.
+ * Con sharding (database.shards.urls) no se activa: cada shard es su propio primario.
+ */
+@Configuration
+@ConditionalOnExpression("'${database.read-replicas.urls:}' != '' and '${database.shards.urls:}' == ''")
+public class ReadReplicaConfig {
+
+    @Bean
+    @Primary
+    public ReadReplicaConnectionFactory routingConnectionFactory(
+            @Value("${spring.r2dbc.url}") String primaryUrl,
+            @Value("${spring.r2dbc.username:}") String username,
+            @Value("${spring.r2dbc.password:}") String password,
+            @Value("${spring.r2dbc.pool.max-size:10}") int primaryPoolSize,
+            @Value("${database.read-replicas.urls}") List<String> replicaUrls,
+            @Value("${database.read-replicas.username:${spring.r2dbc.username:}}") String replicaUsername,
+            @Value("${database.read-replicas.password:${spring.r2dbc.password:}}") String replicaPassword,
+            @Value("${database.read-replicas.pool.max-size:10}") int replicaPoolSize,
+            @Value("${database.read-replicas.max-lag-ms:5000}") long maxLagMs,
+            @Value("${database.read-replicas.health-check-timeout-ms:2000}") long healthCheckTimeoutMs,
+            @Value("${database.read-replicas.health-check-interval-ms:5000}") long healthCheckIntervalMs) {
+
+        ConnectionFactory primary = ConnectionPools.create(primaryUrl, username, password, primaryPoolSize);
+
+        Map<String, ConnectionFactory> replicas = new LinkedHashMap<>();
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            replicas.put("replica-" + i, ConnectionPools.create(replicaUrls.get(i).trim(), replicaUsername, replicaPassword, replicaPoolSize));
+        }
+
+        return new ReadReplicaConnectionFactory(primary, replicas, maxLagMs, Duration.ofMillis(healthCheckTimeoutMs),
+                Duration.ofMillis(healthCheckIntervalMs));
+    }
+}
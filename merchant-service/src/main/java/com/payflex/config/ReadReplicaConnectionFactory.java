@@ -0,0 +1,157 @@
+package com.payflex.config;
+
+import io.r2dbc.spi.Closeable;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.r2dbc.connection.lookup.AbstractRoutingConnectionFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ConnectionFactory que envía al primario todo lo que no esté marcado con ReadReplicaRouting.readOnly,
+ * y las lecturas marcadas a una réplica sana en round-robin.
+ *
+ * Un chequeo periódico mide el atraso de cada réplica; las que no responden o superan max-lag-ms quedan
+ * fuera hasta el siguiente chequeo, y si no queda ninguna las lecturas vuelven al primario.
+ *
+ * El chequeo corre en su propio hilo (replica-health-check), sin bloquear, y no depende del scheduler
+ * compartido de @Scheduled. Aun así, una réplica cuyo último chequeo exitoso es más viejo que
+ * max-lag-ms más un intervalo sale de rotación: si los chequeos se atrasan no se sigue leyendo de ella.
+ */
+@Slf4j
+public class ReadReplicaConnectionFactory extends AbstractRoutingConnectionFactory implements DisposableBean {
+
+    // 0 si la réplica está al día (o si en realidad es un primario); si no, ms desde la última transacción aplicada
+    private static final String LAG_QUERY = """
+        SELECT CAST(CASE
+                   WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+                   ELSE COALESCE(EXTRACT(EPOCH FROM (clock_timestamp() - pg_last_xact_replay_timestamp())) * 1000, 0)
+               END AS BIGINT) AS lag_ms
+        """;
+
+    private final ConnectionFactory primary;
+    private final List<Replica> replicas;
+    private final long maxLagMs;
+    private final Duration healthCheckTimeout;
+    private final Duration healthCheckInterval;
+    private final long staleAfterNanos;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Scheduler healthCheckScheduler = Schedulers.newSingle("replica-health-check", true);
+    private Disposable healthChecks;
+
+    public ReadReplicaConnectionFactory(ConnectionFactory primary, Map<String, ConnectionFactory> replicas,
+                                        long maxLagMs, Duration healthCheckTimeout, Duration healthCheckInterval) {
+        this.primary = primary;
+        this.replicas = replicas.entrySet().stream().map(e -> new Replica(e.getKey(), e.getValue())).toList();
+        this.maxLagMs = maxLagMs;
+        this.healthCheckTimeout = healthCheckTimeout;
+        this.healthCheckInterval = healthCheckInterval;
+        this.staleAfterNanos = healthCheckInterval.plusMillis(maxLagMs).toNanos();
+
+        setDefaultTargetConnectionFactory(primary);
+        setTargetConnectionFactories(new HashMap<>(replicas));
+    }
+
+    @Override
+    protected Mono<Object> determineCurrentLookupKey() {
+        return Mono.deferContextual(ctx -> {
+            if (!ctx.getOrDefault(ReadReplicaRouting.READ_ONLY_KEY, Boolean.FALSE)) {
+                return Mono.empty(); // primario
+            }
+            return Mono.justOrEmpty(pickReplica());
+        });
+    }
+
+    private String pickReplica() {
+        int size = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        long now = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.healthy && now - replica.lastHealthyAtNanos <= staleAfterNanos) {
+                return replica.name;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        super.afterPropertiesSet();
+        // Si un chequeo tarda más que el intervalo, los ticks intermedios se descartan
+        healthChecks = Flux.interval(Duration.ZERO, healthCheckInterval, healthCheckScheduler)
+                .onBackpressureDrop()
+                .concatMap(tick -> checkReplicas())
+                .subscribe();
+    }
+
+    public Mono<Void> checkReplicas() {
+        return Flux.fromIterable(replicas)
+                .flatMap(this::check)
+                .then();
+    }
+
+    private Mono<Void> check(Replica replica) {
+        return Mono.usingWhen(Mono.from(replica.connectionFactory.create()),
+                        connection -> Mono.from(connection.createStatement(LAG_QUERY).execute())
+                                .flatMap(result -> Mono.from(result.map((row, metadata) -> row.get("lag_ms", Long.class)))),
+                        Connection::close)
+                .timeout(healthCheckTimeout)
+                .doOnNext(lag -> update(replica, lag <= maxLagMs, lag))
+                .onErrorResume(err -> {
+                    update(replica, false, null);
+                    log.debug("[REPLICA] {} health check failed msg={}", replica.name, err.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private void update(Replica replica, boolean healthy, Long lagMs) {
+        if (replica.healthy != healthy) {
+            log.warn("[REPLICA] {} is now {} (lagMs={}, maxLagMs={})", replica.name, healthy ? "in rotation" : "out of rotation", lagMs, maxLagMs);
+        }
+        if (healthy) {
+            replica.lastHealthyAtNanos = System.nanoTime();
+        }
+        replica.healthy = healthy;
+        replica.lagMs = lagMs;
+    }
+
+    @Override
+    public void destroy() {
+        if (healthChecks != null) {
+            healthChecks.dispose();
+        }
+        healthCheckScheduler.dispose();
+        Flux.concat(Flux.just(primary), Flux.fromIterable(replicas).map(r -> r.connectionFactory))
+                .filter(Closeable.class::isInstance)
+                .concatMap(cf -> Mono.from(((Closeable) cf).close()).onErrorResume(err -> Mono.empty()))
+                .then()
+                .block(Duration.ofSeconds(10));
+    }
+
+    private static final class Replica {
+        private final String name;
+        private final ConnectionFactory connectionFactory;
+        // Fuera de rotación hasta el primer chequeo exitoso
+        private volatile boolean healthy;
+        private volatile Long lagMs;
+        private volatile long lastHealthyAtNanos;
+
+        private Replica(String name, ConnectionFactory connectionFactory) {
+            this.name = name;
+            this.connectionFactory = connectionFactory;
+        }
+    }
+}
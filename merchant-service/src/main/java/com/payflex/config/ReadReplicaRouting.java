@@ -0,0 +1,26 @@
+package com.payflex.config;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Marca una consulta como apta para réplica de lectura (ver ReadReplicaConnectionFactory).
+ * Solo para lecturas que toleran unos segundos de atraso (listados, analytics, exportaciones); lo
+ * que se lee justo después de escribir debe quedarse en el primario. Sin réplicas configuradas no
+ * tiene efecto.
+ */
+public final class ReadReplicaRouting {
+
+    static final String READ_ONLY_KEY = "payflex.db.read-only";
+
+    private ReadReplicaRouting() {
+    }
+
+    public static <T> Mono<T> readOnly(Mono<T> source) {
+        return source.contextWrite(ctx -> ctx.put(READ_ONLY_KEY, Boolean.TRUE));
+    }
+
+    public static <T> Flux<T> readOnly(Flux<T> source) {
+        return source.contextWrite(ctx -> ctx.put(READ_ONLY_KEY, Boolean.TRUE));
+    }
+}
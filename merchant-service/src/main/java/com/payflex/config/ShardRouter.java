@@ -0,0 +1,239 @@
+package com.payflex.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * Ruteo de consultas por merchant entre shards (ver ShardingConfig).
+ *
+ * El shard de cada merchant se guarda en el directorio merchant_shards del shard 0; los merchants sin
+ * fila (creados antes de activar el sharding) viven en el shard 0. Los merchants nuevos se ubican por
+ * hash del merchantId entre los shards de database.shards.placement (todos por defecto), y mover uno
+ * de shard es copiar sus filas y actualizar el directorio (ShardMigrationService).
+ *
+ * Las consultas se marcan con onMerchant/onShard; las globales (por email, por id de intent o refund,
+ * listados de todos los merchants) se resuelven con scatter/findOwned sobre todos los shards.
+ * Mientras un merchant se mueve sus filas están en los dos shards (hasta cleanupMerchant): las búsquedas
+ * por id solo aceptan la fila del shard que el directorio indica para su merchant.
+ * Con un solo shard todos los métodos devuelven la consulta tal cual.
+ */
+@Slf4j
+@Component
+public class ShardRouter {
+
+    public static final String SHARD_KEY = "payflex.db.shard";
+    public static final int DEFAULT_SHARD = 0;
+
+    private final DatabaseClient databaseClient;
+    private final int shardCount;
+    private final List<Integer> placementShards;
+    private final long directoryCacheTtlMs;
+    private final Map<String, DirectoryEntry> directory = new ConcurrentHashMap<>();
+
+    public ShardRouter(DatabaseClient databaseClient,
+                       @Value("${database.shards.urls:}") List<String> shardUrls,
+                       @Value("${database.shards.placement:}") List<Integer> placement,
+                       @Value("${database.shards.directory-cache-ttl-ms:30000}") long directoryCacheTtlMs) {
+        this.databaseClient = databaseClient;
+        this.shardCount = 1 + (int) shardUrls.stream().filter(url -> !url.isBlank()).count();
+        this.placementShards = placement.isEmpty() ? shards() : List.copyOf(placement);
+        this.directoryCacheTtlMs = directoryCacheTtlMs;
+
+        for (int shard : placementShards) {
+            if (shard < 0 || shard >= shardCount) {
+                throw new IllegalArgumentException("database.shards.placement has unknown shard " + shard);
+            }
+        }
+    }
+
+    public int shardCount() {
+        return shardCount;
+    }
+
+    public boolean isSharded() {
+        return shardCount > 1;
+    }
+
+    public List<Integer> shards() {
+        return IntStream.range(0, shardCount).boxed().toList();
+    }
+
+    /**
+     * Shard donde viven los datos del merchant según el directorio (con caché local de directory-cache-ttl-ms).
+     */
+    public Mono<Integer> shardOf(String merchantId) {
+        if (!isSharded() || merchantId == null) {
+            return Mono.just(DEFAULT_SHARD);
+        }
+        DirectoryEntry cached = directory.get(merchantId);
+        if (cached != null && cached.expiresAt() > System.currentTimeMillis()) {
+            return Mono.just(cached.shard());
+        }
+
+        // Las ausencias no se cachean: el merchant puede estar creándose en otra instancia
+        return onShard(DEFAULT_SHARD, databaseClient.sql("SELECT shard FROM merchant_shards WHERE merchant_id = :merchantId")
+                        .bind("merchantId", merchantId)
+                        .map(row -> row.get("shard", Integer.class))
+                        .one())
+                .doOnNext(shard -> cache(merchantId, shard))
+                .defaultIfEmpty(DEFAULT_SHARD);
+    }
+
+    /**
+     * Ubica un merchant nuevo: registra en el directorio el shard que le toca por hash, o devuelve el
+     * que ya tenía si otra instancia lo registró antes.
+     */
+    public Mono<Integer> assignShard(String merchantId) {
+        if (!isSharded()) {
+            return Mono.just(DEFAULT_SHARD);
+        }
+        int placement = placementShards.get((int) (hash(merchantId) % placementShards.size()));
+
+        return onShard(DEFAULT_SHARD, databaseClient.sql("""
+                        INSERT INTO merchant_shards (merchant_id, shard, updated_at)
+                        VALUES (:merchantId, :shard, :updatedAt)
+                        ON CONFLICT (merchant_id) DO UPDATE SET merchant_id = EXCLUDED.merchant_id
+                        RETURNING shard
+                        """)
+                        .bind("merchantId", merchantId)
+                        .bind("shard", placement)
+                        .bind("updatedAt", LocalDateTime.now())
+                        .map(row -> row.get("shard", Integer.class))
+                        .one())
+                .doOnNext(shard -> cache(merchantId, shard));
+    }
+
+    /**
+     * Apunta el merchant a otro shard en el directorio. Las demás instancias lo ven al vencer su caché.
+     */
+    public Mono<Void> moveMerchant(String merchantId, int shard) {
+        requireShard(shard);
+        return onShard(DEFAULT_SHARD, databaseClient.sql("""
+                        INSERT INTO merchant_shards (merchant_id, shard, updated_at)
+                        VALUES (:merchantId, :shard, :updatedAt)
+                        ON CONFLICT (merchant_id) DO UPDATE SET shard = EXCLUDED.shard, updated_at = EXCLUDED.updated_at
+                        """)
+                        .bind("merchantId", merchantId)
+                        .bind("shard", shard)
+                        .bind("updatedAt", LocalDateTime.now())
+                        .fetch()
+                        .rowsUpdated())
+                .doOnSuccess(rows -> {
+                    directory.remove(merchantId);
+                    log.info("[SHARDS] merchantId={} now routed to shard {}", merchantId, shard);
+                })
+                .then();
+    }
+
+    public void evict(String merchantId) {
+        directory.remove(merchantId);
+    }
+
+    public void requireShard(int shard) {
+        if (shard < 0 || shard >= shardCount) {
+            throw new IllegalArgumentException("Unknown shard " + shard + ", configured shards: 0.." + (shardCount - 1));
+        }
+    }
+
+    public <T> Mono<T> onShard(int shard, Mono<T> source) {
+        return source.contextWrite(ctx -> ctx.put(SHARD_KEY, shard));
+    }
+
+    public <T> Flux<T> onShard(int shard, Flux<T> source) {
+        return source.contextWrite(ctx -> ctx.put(SHARD_KEY, shard));
+    }
+
+    public <T> Mono<T> onMerchant(String merchantId, Mono<T> source) {
+        if (!isSharded()) {
+            return source;
+        }
+        return shardOf(merchantId).flatMap(shard -> onShard(shard, source));
+    }
+
+    public <T> Flux<T> onMerchant(String merchantId, Flux<T> source) {
+        if (!isSharded()) {
+            return source;
+        }
+        return shardOf(merchantId).flatMapMany(shard -> onShard(shard, source));
+    }
+
+    /**
+     * Ejecuta la consulta en todos los shards en paralelo y mezcla los resultados (sin orden global).
+     */
+    public <T> Flux<T> scatter(IntFunction<Flux<T>> perShard) {
+        if (!isSharded()) {
+            return perShard.apply(DEFAULT_SHARD);
+        }
+        return Flux.merge(Flux.fromIterable(shards())
+                .map(shard -> onShard(shard, Flux.defer(() -> perShard.apply(shard)))));
+    }
+
+    /**
+     * Resultado de una búsqueda por clave única global, tomado del shard dueño de su merchant: la copia
+     * que queda en el shard de origen después de mover un merchant se descarta.
+     */
+    public <T> Mono<T> findOwned(IntFunction<Mono<T>> perShard, Function<T, String> merchantOf) {
+        if (!isSharded()) {
+            return perShard.apply(DEFAULT_SHARD);
+        }
+        return scatterOwned(shard -> perShard.apply(shard).flux(), merchantOf).next();
+    }
+
+    /**
+     * Como scatter, pero cada fila solo se acepta del shard dueño de su merchant (sin duplicados de un
+     * merchant a medio mover). Consulta el directorio por merchant: para búsquedas por id, no listados completos.
+     */
+    public <T> Flux<T> scatterOwned(IntFunction<Flux<T>> perShard, Function<T, String> merchantOf) {
+        if (!isSharded()) {
+            return perShard.apply(DEFAULT_SHARD);
+        }
+        return scatter(shard -> perShard.apply(shard)
+                .filterWhen(row -> shardOf(merchantOf.apply(row)).map(owner -> owner == shard)));
+    }
+
+    /**
+     * Shard dueño de una fila buscada por id: merchantOfRow devuelve el merchant de la fila en ese shard
+     * (vacío si no está). El shard 0 si no está en ninguno.
+     */
+    public Mono<Integer> locate(IntFunction<Mono<String>> merchantOfRow) {
+        if (!isSharded()) {
+            return Mono.just(DEFAULT_SHARD);
+        }
+        return scatterOwned(shard -> merchantOfRow.apply(shard).map(merchantId -> new Located(shard, merchantId)).flux(),
+                        Located::merchantId)
+                .next()
+                .map(Located::shard)
+                .defaultIfEmpty(DEFAULT_SHARD);
+    }
+
+    private void cache(String merchantId, int shard) {
+        directory.put(merchantId, new DirectoryEntry(shard, System.currentTimeMillis() + directoryCacheTtlMs));
+    }
+
+    // Hash estable entre versiones de la JVM (String.hashCode no está pensado para persistir ubicaciones)
+    private static long hash(String merchantId) {
+        CRC32 crc = new CRC32();
+        crc.update(merchantId.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    private record DirectoryEntry(int shard, long expiresAt) {
+    }
+
+    private record Located(int shard, String merchantId) {
+    }
+}
@@ -0,0 +1,60 @@
+package com.payflex.config;
+
+import io.r2dbc.spi.Closeable;
+import io.r2dbc.spi.ConnectionFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.r2dbc.connection.lookup.AbstractRoutingConnectionFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ConnectionFactory que elige el shard según el índice que ShardRouter deja en el contexto de Reactor.
+ * Sin índice (jobs, código que no rutea) se usa el shard 0, la base de spring.r2dbc.url.
+ */
+public class ShardedConnectionFactory extends AbstractRoutingConnectionFactory implements DisposableBean {
+
+    private final List<ConnectionFactory> shards;
+
+    public ShardedConnectionFactory(List<ConnectionFactory> shards) {
+        this.shards = List.copyOf(shards);
+
+        Map<Object, Object> targets = new HashMap<>();
+        for (int i = 0; i < shards.size(); i++) {
+            targets.put(i, shards.get(i));
+        }
+        setDefaultTargetConnectionFactory(shards.get(ShardRouter.DEFAULT_SHARD));
+        setTargetConnectionFactories(targets);
+        // Un índice fuera de rango es un error de ruteo, no un motivo para escribir en el shard 0
+        setLenientFallback(false);
+    }
+
+    /**
+     * Pool de un shard concreto, para operaciones que necesitan dos shards a la vez (migración de merchants).
+     */
+    public ConnectionFactory shard(int shard) {
+        return shards.get(shard);
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    @Override
+    protected Mono<Object> determineCurrentLookupKey() {
+        return Mono.deferContextual(ctx -> Mono.justOrEmpty(ctx.getOrEmpty(ShardRouter.SHARD_KEY)));
+    }
+
+    @Override
+    public void destroy() {
+        Flux.fromIterable(shards)
+                .filter(Closeable.class::isInstance)
+                .concatMap(cf -> Mono.from(((Closeable) cf).close()).onErrorResume(err -> Mono.empty()))
+                .then()
+                .block(Duration.ofSeconds(10));
+    }
+}
@@ -0,0 +1,72 @@
+package com.payflex.config;
+
+import io.r2dbc.spi.ConnectionFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.flywaydb.core.Flyway;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Activa el sharding por merchant cuando database.shards.urls tiene al menos una URL r2dbc:postgresql://.
+ * El shard 0 es la base de spring.r2dbc.* (donde ya viven los merchants existentes y el directorio
+ * merchant_shards); los shards 1..N son las URLs configuradas, en orden, con las mismas credenciales
+ * salvo que se indiquen otras. El orden no debe cambiar una vez que hay merchants asignados.
+ *
+ * Flyway de Spring Boot solo migra el shard 0; si se indican database.shards.jdbc-urls (una por shard,
+ * en el mismo orden) las migraciones se aplican también a cada shard al arrancar.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(prefix = "database.shards", name = "urls")
+public class ShardingConfig {
+
+    @Bean
+    @Primary
+    public ShardedConnectionFactory shardedConnectionFactory(
+            @Value("${spring.r2dbc.url}") String primaryUrl,
+            @Value("${spring.r2dbc.username:}") String username,
+            @Value("${spring.r2dbc.password:}") String password,
+            @Value("${spring.r2dbc.pool.max-size:10}") int primaryPoolSize,
+            @Value("${database.shards.urls}") List<String> shardUrls,
+            @Value("${database.shards.username:${spring.r2dbc.username:}}") String shardUsername,
+            @Value("${database.shards.password:${spring.r2dbc.password:}}") String shardPassword,
+            @Value("${database.shards.pool.max-size:10}") int shardPoolSize,
+            @Value("${database.shards.jdbc-urls:}") List<String> shardJdbcUrls,
+            @Value("${spring.flyway.locations:classpath:db/migration}") String flywayLocations) {
+
+        List<String> urls = shardUrls.stream().map(String::trim).filter(url -> !url.isEmpty()).toList();
+        if (!shardJdbcUrls.isEmpty()) {
+            if (shardJdbcUrls.size() != urls.size()) {
+                throw new IllegalArgumentException("database.shards.jdbc-urls must have one URL per shard in database.shards.urls");
+            }
+            migrateShards(shardJdbcUrls, shardUsername, shardPassword, flywayLocations);
+        }
+
+        List<ConnectionFactory> shards = new ArrayList<>();
+        shards.add(ConnectionPools.create(primaryUrl, username, password, primaryPoolSize));
+        for (String url : urls) {
+            shards.add(ConnectionPools.create(url, shardUsername, shardPassword, shardPoolSize));
+        }
+        log.info("[SHARDS] merchant sharding enabled with {} shard(s)", shards.size());
+
+        return new ShardedConnectionFactory(shards);
+    }
+
+    private static void migrateShards(List<String> jdbcUrls, String username, String password, String locations) {
+        for (int i = 0; i < jdbcUrls.size(); i++) {
+            Flyway.configure()
+                    .dataSource(jdbcUrls.get(i).trim(), username, password)
+                    .locations(locations.split(","))
+                    .baselineOnMigrate(true)
+                    .load()
+                    .migrate();
+            log.info("[SHARDS] schema migrated for shard {}", i + 1);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.payflex.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BalanceTransactionPageResponse {
+    private List<BalanceTransactionResponse> transactions; // del más reciente al más antiguo
+    private String nextCursor;                              // null en la última página
+    private boolean hasMore;
+}
@@ -0,0 +1,24 @@
+package com.payflex.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BalanceTransactionResponse {
+    private String id;              // id del payment intent o del retiro
+    private String type;            // credit | debit
+    private String sourceType;      // payment_intent | withdrawal
+    private BigDecimal amount;      // siempre positivo; el signo lo da type
+    private String currency;
+    private String description;
+    private LocalDateTime createdAt;
+    private BigDecimal balanceAfter; // saldo en currency después de este movimiento
+}
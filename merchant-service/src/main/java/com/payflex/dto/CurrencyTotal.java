@@ -0,0 +1,18 @@
+package com.payflex.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+// Suma de montos de una moneda (las sumas que mezclan monedas no tienen sentido)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CurrencyTotal {
+    private String currency;
+    private BigDecimal total;
+}
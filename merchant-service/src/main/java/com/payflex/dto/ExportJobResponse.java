@@ -0,0 +1,26 @@
+package com.payflex.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExportJobResponse {
+    private String exportId;
+    private String merchantId;
+    private String format;
+    private String status; // running, completed, failed
+    private Long rows;
+    private String downloadUrl; // solo cuando status = completed
+    private String error;
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private LocalDateTime createdAt;
+    private LocalDateTime completedAt;
+}
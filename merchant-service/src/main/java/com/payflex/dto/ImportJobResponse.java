@@ -0,0 +1,27 @@
+package com.payflex.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImportJobResponse {
+    private String importId;
+    private String status; // queued, copying, merging, completed, failed
+    private Long totalBytes;
+    private Long bytesCopied;
+    private Double progressPercentage;
+    private Long stagedRows;
+    private Long insertedRows; // nuevos en payment_intents
+    private Long skippedRows;  // ids ya existentes o repetidos en el archivo
+    private Long creditedRows; // créditos de saldo registrados en el ledger
+    private String error;
+    private LocalDateTime createdAt;
+    private LocalDateTime completedAt;
+}
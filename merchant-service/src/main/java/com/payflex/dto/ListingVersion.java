@@ -0,0 +1,18 @@
+package com.payflex.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// Versión de un listado (cantidad de filas y última modificación), para calcular su ETag sin leer las filas
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ListingVersion {
+    private Long rowCount;
+    private LocalDateTime lastUpdatedAt;
+}
@@ -0,0 +1,24 @@
+package com.payflex.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// Cambio de un payment intent tal como lo publica el trigger de V11 (feed en vivo por SSE)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PaymentIntentChangeEvent {
+    private String id;
+    private String merchantId;
+    private String status;
+    private BigDecimal amount;
+    private String currency;
+    private BigDecimal refundedAmount;
+    private LocalDateTime updatedAt;
+}
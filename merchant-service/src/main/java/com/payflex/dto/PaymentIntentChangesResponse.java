@@ -0,0 +1,18 @@
+package com.payflex.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PaymentIntentChangesResponse {
+    private List<PaymentIntentResponse> changes; // ordenados por updatedAt, id
+    private String nextCursor;                   // se envía como since en la siguiente consulta
+    private boolean hasMore;                     // hay más cambios ya disponibles: pedir de nuevo sin esperar
+}
@@ -1,5 +1,6 @@
 package com.payflex.dto;
 
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -24,9 +25,14 @@ public class PaymentIntentResponse {
     private String confirmationMethod;
     private String description;
     private String statementDescriptor;
-    private String metadata;
+    // Columnas json tal como vienen de la base, escritas como string JSON (ver RawJson)
+    @JsonSerialize(using = RawJson.AsStringSerializer.class)
+    private RawJson metadata;
     private String clientSecret;
-    private String lastPaymentError;
+    @JsonSerialize(using = RawJson.AsStringSerializer.class)
+    private RawJson lastPaymentError;
+    private BigDecimal refundedAmount;
+    private Integer refundCount;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
 }
@@ -0,0 +1,18 @@
+package com.payflex.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PaymentIntentSearchResponse {
+    private List<PaymentIntentResponse> results; // más relevantes primero; a igual relevancia, más recientes primero
+    private String nextCursor;                   // se envía como cursor para la página siguiente
+    private boolean hasMore;
+}
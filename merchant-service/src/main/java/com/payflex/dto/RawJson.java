@@ -0,0 +1,172 @@
+package com.payflex.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.json.UTF8JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import io.r2dbc.postgresql.codec.Json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Columna json de Postgres que pasa a la respuesta sin reinterpretarse: los bytes UTF-8 del codec Json de
+ * r2dbc se copian directo al buffer del generador de Jackson, sin armar un String ni un Map intermedio.
+ *
+ * Se escribe como valor JSON (objeto, arreglo, ...). Con AsStringSerializer se escribe como string JSON,
+ * que es el contrato de metadata y lastPaymentError en PaymentIntentResponse.
+ */
+@JsonSerialize(using = RawJson.Serializer.class)
+public final class RawJson {
+
+    private final byte[] utf8;
+
+    private RawJson(byte[] utf8) {
+        this.utf8 = utf8;
+    }
+
+    /**
+     * null si la columna es null. Json.asArray() solo se puede leer una vez cuando viene del codec:
+     * se llama acá y se guardan los bytes.
+     */
+    public static RawJson of(Json json) {
+        return json != null ? new RawJson(json.asArray()) : null;
+    }
+
+    public static RawJson of(String json) {
+        return json != null ? new RawJson(json.getBytes(StandardCharsets.UTF_8)) : null;
+    }
+
+    // Para logs y generadores que no escriben UTF-8 (crea el String)
+    @Override
+    public String toString() {
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    public static final class Serializer extends StdSerializer<RawJson> {
+
+        public Serializer() {
+            super(RawJson.class);
+        }
+
+        @Override
+        public void serialize(RawJson value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            if (gen instanceof UTF8JsonGenerator) {
+                gen.writeRawValue(new Utf8Bytes(value.utf8));
+            } else {
+                gen.writeRawValue(value.toString());
+            }
+        }
+    }
+
+    public static final class AsStringSerializer extends StdSerializer<RawJson> {
+
+        public AsStringSerializer() {
+            super(RawJson.class);
+        }
+
+        @Override
+        public void serialize(RawJson value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            if (gen instanceof UTF8JsonGenerator) {
+                // Escapa comillas y controles sobre los bytes, sin decodificar a String
+                gen.writeUTF8String(value.utf8, 0, value.utf8.length);
+            } else {
+                gen.writeString(value.toString());
+            }
+        }
+    }
+
+    // Vista sin comillas de los bytes para writeRawValue; UTF8JsonGenerator solo usa appendUnquotedUTF8/asUnquotedUTF8
+    private record Utf8Bytes(byte[] utf8) implements SerializableString {
+
+        @Override
+        public int appendUnquotedUTF8(byte[] buffer, int offset) {
+            if (utf8.length > buffer.length - offset) {
+                return -1;
+            }
+            System.arraycopy(utf8, 0, buffer, offset, utf8.length);
+            return utf8.length;
+        }
+
+        @Override
+        public byte[] asUnquotedUTF8() {
+            return utf8;
+        }
+
+        @Override
+        public int writeUnquotedUTF8(OutputStream out) throws IOException {
+            out.write(utf8);
+            return utf8.length;
+        }
+
+        @Override
+        public int putUnquotedUTF8(ByteBuffer buffer) {
+            if (utf8.length > buffer.remaining()) {
+                return -1;
+            }
+            buffer.put(utf8);
+            return utf8.length;
+        }
+
+        @Override
+        public String getValue() {
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int charLength() {
+            return getValue().length();
+        }
+
+        @Override
+        public int appendUnquoted(char[] buffer, int offset) {
+            String value = getValue();
+            if (value.length() > buffer.length - offset) {
+                return -1;
+            }
+            value.getChars(0, value.length(), buffer, offset);
+            return value.length();
+        }
+
+        // Las variantes entre comillas (con escape JSON) no las usa el serializador, que escribe el valor crudo;
+        // se delegan a SerializedString para que cualquier otro uso reciba un resultado correcto
+        @Override
+        public char[] asQuotedChars() {
+            return quoted().asQuotedChars();
+        }
+
+        @Override
+        public byte[] asQuotedUTF8() {
+            return quoted().asQuotedUTF8();
+        }
+
+        @Override
+        public int appendQuotedUTF8(byte[] buffer, int offset) {
+            return quoted().appendQuotedUTF8(buffer, offset);
+        }
+
+        @Override
+        public int appendQuoted(char[] buffer, int offset) {
+            return quoted().appendQuoted(buffer, offset);
+        }
+
+        @Override
+        public int writeQuotedUTF8(OutputStream out) throws IOException {
+            return quoted().writeQuotedUTF8(out);
+        }
+
+        @Override
+        public int putQuotedUTF8(ByteBuffer buffer) {
+            return quoted().putQuotedUTF8(buffer);
+        }
+
+        private SerializedString quoted() {
+            return new SerializedString(getValue());
+        }
+    }
+}
@@ -8,7 +8,6 @@ import lombok.NoArgsConstructor;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
-import java.util.Map;
 
 @Data
 @Builder
@@ -23,7 +22,7 @@ public class RefundResponse {
     private String currency;
     private String status;
     private String reason;
-    private Map<String, Object> metadata;
+    private RawJson metadata;
 
     @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
     private LocalDateTime createdAt;
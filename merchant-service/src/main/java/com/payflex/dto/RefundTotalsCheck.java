@@ -0,0 +1,19 @@
+package com.payflex.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// Un intent revisado por payflex_recompute_refund_totals; (intentCreatedAt, paymentIntentId) es el keyset del lote siguiente
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RefundTotalsCheck {
+    private String paymentIntentId;
+    private LocalDateTime intentCreatedAt;
+    private boolean corrected;
+}
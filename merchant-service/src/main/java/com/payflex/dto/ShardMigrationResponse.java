@@ -0,0 +1,21 @@
+package com.payflex.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ShardMigrationResponse {
+    private String merchantId;
+    private Integer sourceShard;
+    private Integer targetShard;
+    private String status; // planned, copied, cleaned
+    private Map<String, Long> rows; // filas por tabla (en el origen para planned/copied, borradas para cleaned)
+    private Long ledgerBalanceMinor;
+}
@@ -0,0 +1,20 @@
+package com.payflex.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TimeSeriesBucketResponse {
+    private LocalDateTime bucketStart;
+    private Long transactionCount;
+    private BigDecimal grossVolume; // suma de payment intents succeeded del bucket
+    private BigDecimal outflows;    // suma de retiros succeeded del bucket
+}
@@ -0,0 +1,41 @@
+package com.payflex.dto;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Tamaño de bucket soportado por el endpoint de series de tiempo.
+ * El valor de {@link #getUnit()} se pasa tal cual a date_trunc de PostgreSQL.
+ */
+public enum TimeSeriesGranularity {
+    HOUR("hour", Duration.ofHours(1)),
+    DAY("day", Duration.ofDays(1)),
+    WEEK("week", Duration.ofDays(7));
+
+    private final String unit;
+    private final Duration bucketDuration;
+
+    TimeSeriesGranularity(String unit, Duration bucketDuration) {
+        this.unit = unit;
+        this.bucketDuration = bucketDuration;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public Duration getBucketDuration() {
+        return bucketDuration;
+    }
+
+    public static TimeSeriesGranularity from(String value) {
+        if (value == null || value.isBlank()) {
+            return DAY;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported granularity: " + value + " (expected hour, day or week)");
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.payflex.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TimeSeriesResponse {
+    private String merchantId;
+    private String granularity;
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private List<TimeSeriesBucketResponse> buckets;
+}
@@ -21,5 +21,7 @@ public class UpdatePaymentIntentRequest {
     private String statementDescriptor;
     private String metadata;
     private String lastPaymentError;
+    // Opcional: solo actualizar si el estado actual es este (compare-and-set)
+    private String expectedStatus;
 }
 
@@ -0,0 +1,52 @@
+package com.payflex.id;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ids ordenados por tiempo (UUIDv7, RFC 9562) para payment intents, retiros y merchants.
+ *
+ * Los 48 bits altos son el instante en ms y los 12 siguientes un contador que hace crecientes los ids de
+ * esta JVM aunque se generen en el mismo ms (si se agota, se toma el ms siguiente; si el reloj retrocede,
+ * se sigue desde el último). Los 62 bits restantes son aleatorios y distinguen nodos. Como se insertan
+ * en orden, las PK caen al final del índice B-tree en vez de en páginas al azar.
+ *
+ * Sin locks ni SecureRandom: un CAS y ThreadLocalRandom. Estos ids no son secretos; client secrets y API
+ * keys siguen usando UUID.randomUUID(). La misma clase existe en payment-orchestrator (com.payflex.utils).
+ */
+public final class TimeOrderedIds {
+
+    // (ms << 12) | contador del último id generado
+    private static final AtomicLong LAST = new AtomicLong();
+
+    private TimeOrderedIds() {
+    }
+
+    public static UUID uuid() {
+        long now = System.currentTimeMillis() << 12;
+        long next = LAST.updateAndGet(prev -> Math.max(prev + 1, now));
+
+        long msb = ((next >>> 12) << 16) | 0x7000L | (next & 0xFFFL);
+        long lsb = (ThreadLocalRandom.current().nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+
+    // Mismo formato de siempre: pi_ + UUID con guiones
+    public static String paymentIntentId() {
+        return "pi_" + uuid();
+    }
+
+    public static String withdrawalId() {
+        return "wd_" + hex(uuid());
+    }
+
+    // Antes 12 hex de un UUID aleatorio; ahora los 32 (los 12 primeros de un v7 serían solo el instante)
+    public static String merchantId() {
+        return "mrc_" + hex(uuid());
+    }
+
+    private static String hex(UUID uuid) {
+        return uuid.toString().replace("-", "");
+    }
+}
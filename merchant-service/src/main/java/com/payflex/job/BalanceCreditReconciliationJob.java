@@ -0,0 +1,73 @@
+package com.payflex.job;
+
+import com.payflex.config.ShardRouter;
+import com.payflex.repository.BalanceTransactionRepository;
+import com.payflex.repository.PaymentIntentRepository;
+import com.payflex.service.BalanceLedgerService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Acredita los payment intents succeeded que no tienen su crédito en el ledger. Cubre los créditos
+ * que quedaron en el buffer de BalanceCreditAggregator si el servicio cayó antes de volcarlos.
+ * Solo mira intents sin cambios en los últimos grace-ms, para no competir con el flush en curso.
+ *
+ * Sin el agregador (balances.credit-coalescing.enabled=false) cada crédito se escribe en el ledger al
+ * confirmarse el pago y no hay buffer que recuperar, así que el job no se registra. Nunca mira intents
+ * creados antes del paso al ledger (V6): esos pagos ya están dentro del saldo de apertura.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(value = "balances.credit-coalescing.enabled", havingValue = "true")
+@RequiredArgsConstructor
+public class BalanceCreditReconciliationJob {
+
+    private final PaymentIntentRepository paymentIntentRepository;
+    private final BalanceTransactionRepository balanceTransactionRepository;
+    private final BalanceLedgerService balanceLedgerService;
+    private final ShardRouter shardRouter;
+
+    @Value("${balances.credit-reconciliation.lookback-days:7}")
+    private int lookbackDays;
+
+    @Value("${balances.credit-reconciliation.grace-ms:60000}")
+    private long graceMs;
+
+    @Scheduled(initialDelayString = "${balances.credit-reconciliation.initial-delay-ms:30000}",
+               fixedDelayString = "${balances.credit-reconciliation.interval-ms:300000}")
+    public void reconcileCredits() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime lookback = now.minusDays(lookbackDays);
+        LocalDateTime until = now.minus(Duration.ofMillis(graceMs));
+
+        // Cada intent se acredita en el ledger de su propio shard; cada shard tiene su propio corte (V6)
+        Long recovered = shardRouter.scatter(shard -> balanceTransactionRepository.ledgerCutover()
+                        .flatMapMany(cutover -> {
+                            LocalDateTime since = cutover.isAfter(lookback) ? cutover : lookback;
+                            return paymentIntentRepository.findSucceededWithoutLedgerCredit(since, until);
+                        })
+                        .concatMap(pi -> balanceLedgerService.credit(pi.getMerchantId(),
+                                        BalanceLedgerService.toMoney(pi.getAmount(), pi.getCurrency()),
+                                        BalanceLedgerService.SOURCE_PAYMENT_INTENT, pi.getId())
+                                .doOnSuccess(v -> log.warn("[CREDIT-RECON] credited missing balance for paymentIntentId={} merchantId={}",
+                                        pi.getId(), pi.getMerchantId()))
+                                .thenReturn(pi.getId())))
+                .count()
+                .timeout(Duration.ofMinutes(10))
+                .doOnError(err -> log.error("[CREDIT-RECON][ERR] reconciliation failed msg={}", err.getMessage(), err))
+                .onErrorResume(err -> Mono.just(0L))
+                .block();
+
+        if (recovered != null && recovered > 0) {
+            log.info("[CREDIT-RECON] recovered {} missing credit(s) since {}", recovered, lookback);
+        }
+    }
+}
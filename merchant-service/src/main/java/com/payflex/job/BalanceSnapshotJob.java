@@ -0,0 +1,46 @@
+package com.payflex.job;
+
+import com.payflex.config.ShardRouter;
+import com.payflex.repository.BalanceTransactionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Registra snapshots de saldo para los merchants con muchos movimientos desde el último, de modo
+ * que el cálculo snapshot + delta del ledger se mantenga acotado.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BalanceSnapshotJob {
+
+    private final BalanceTransactionRepository balanceTransactionRepository;
+    private final ShardRouter shardRouter;
+
+    @Value("${balances.snapshot.min-entries:100}")
+    private int minEntries;
+
+    @Scheduled(initialDelayString = "${balances.snapshot.initial-delay-ms:60000}",
+               fixedDelayString = "${balances.snapshot.interval-ms:300000}")
+    public void takeSnapshots() {
+        // Cada shard tiene su propio ledger
+        Long taken = shardRouter.scatter(shard -> balanceTransactionRepository.findMerchantIdsNeedingSnapshot(minEntries)
+                        .concatMap(merchantId -> balanceTransactionRepository.takeSnapshot(merchantId, minEntries)
+                                .doOnNext(balance -> log.debug("[SNAPSHOT] merchantId={} availableMinor={}", merchantId, balance))))
+                .count()
+                .timeout(Duration.ofMinutes(5))
+                .doOnError(err -> log.error("[SNAPSHOT][ERR] balance snapshots failed msg={}", err.getMessage(), err))
+                .onErrorResume(err -> Mono.just(0L))
+                .block();
+
+        if (taken != null && taken > 0) {
+            log.info("[SNAPSHOT] took {} balance snapshot(s)", taken);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.payflex.job;
+
+import com.payflex.service.TransactionExportService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+
+/**
+ * Borra las exportaciones asíncronas (y sus archivos) terminadas hace más de exports.retention-hours,
+ * y los archivos de exports.directory sin modificar en ese plazo aunque esta instancia no los conozca.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ExportCleanupJob {
+
+    private final TransactionExportService transactionExportService;
+
+    @Value("${exports.retention-hours:24}")
+    private long retentionHours;
+
+    @Scheduled(initialDelayString = "${exports.cleanup.initial-delay-ms:600000}",
+               fixedDelayString = "${exports.cleanup.interval-ms:600000}")
+    public void purgeExpiredExports() {
+        LocalDateTime cutoff = LocalDateTime.now().minusHours(retentionHours);
+        int purged = transactionExportService.purgeExportsOlderThan(cutoff);
+        int files = transactionExportService.purgeFilesOlderThan(cutoff);
+        if (purged > 0 || files > 0) {
+            log.info("[EXPORT-CLEANUP] purged {} expired export(s) and {} stale file(s)", purged, files);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.payflex.job;
+
+import com.payflex.config.ShardRouter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Mantiene las particiones mensuales de payment_intents y refunds (ver V3 en db/migration):
+ * crea con anticipación las particiones de los próximos meses y, si hay retención configurada,
+ * desacopla las particiones antiguas moviéndolas al esquema archive.
+ * <p>
+ * El DDL puede esperar locks largos: la corrida se suscribe y no bloquea el thread compartido de
+ * @Scheduled (los demás jobs siguen corriendo). Si la anterior sigue en curso, la nueva se saltea.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PartitionMaintenanceJob {
+
+    private static final List<String> PARTITIONED_TABLES = List.of("payment_intents", "refunds");
+
+    private final DatabaseClient databaseClient;
+    private final ShardRouter shardRouter;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Value("${partitions.maintenance.months-ahead:3}")
+    private int monthsAhead;
+
+    // 0 = no archivar nunca
+    @Value("${partitions.maintenance.retention-months:0}")
+    private int retentionMonths;
+
+    @Scheduled(initialDelayString = "${partitions.maintenance.initial-delay-ms:60000}",
+               fixedDelayString = "${partitions.maintenance.interval-ms:21600000}")
+    public void maintainPartitions() {
+        if (!running.compareAndSet(false, true)) {
+            log.warn("[PARTITIONS] previous maintenance still running, skipping");
+            return;
+        }
+        LocalDate today = LocalDate.now();
+
+        // Las particiones son por base: se mantienen en cada shard
+        shardRouter.scatter(shard -> Flux.fromIterable(PARTITIONED_TABLES)
+                        .concatMap(table -> createFuturePartitions(table, today)
+                                .then(archiveOldPartitions(table, today))))
+                .then()
+                .timeout(Duration.ofMinutes(5))
+                .doOnError(err -> log.error("[PARTITIONS][ERR] maintenance failed msg={}", err.getMessage(), err))
+                .onErrorResume(err -> Mono.empty())
+                .doFinally(signal -> running.set(false))
+                .subscribe();
+    }
+
+    private Mono<Void> createFuturePartitions(String table, LocalDate today) {
+        return databaseClient.sql("SELECT payflex_create_monthly_partitions(:parent, :fromDate, :toDate) AS created")
+                .bind("parent", table)
+                .bind("fromDate", today.withDayOfMonth(1))
+                .bind("toDate", today.plusMonths(monthsAhead))
+                .map(row -> row.get("created", Integer.class))
+                .one()
+                .doOnNext(created -> {
+                    if (created > 0) {
+                        log.info("[PARTITIONS] table={} created {} partition(s) up to {}", table, created, today.plusMonths(monthsAhead));
+                    }
+                })
+                .then();
+    }
+
+    private Mono<Void> archiveOldPartitions(String table, LocalDate today) {
+        if (retentionMonths <= 0) {
+            return Mono.empty();
+        }
+        LocalDate before = today.withDayOfMonth(1).minusMonths(retentionMonths);
+
+        return databaseClient.sql("SELECT payflex_archive_monthly_partitions(:parent, :beforeDate) AS archived")
+                .bind("parent", table)
+                .bind("beforeDate", before)
+                .map(row -> row.get("archived", Integer.class))
+                .one()
+                .doOnNext(archived -> {
+                    if (archived > 0) {
+                        log.info("[PARTITIONS] table={} archived {} partition(s) older than {}", table, archived, before);
+                    }
+                })
+                .then();
+    }
+}
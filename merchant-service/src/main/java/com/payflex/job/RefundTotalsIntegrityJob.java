@@ -0,0 +1,69 @@
+package com.payflex.job;
+
+import com.payflex.config.ShardRouter;
+import com.payflex.dto.RefundTotalsCheck;
+import com.payflex.repository.PaymentIntentRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Verifica que payment_intents.refunded_amount / refund_count coincidan con la suma de retiros
+ * succeeded y corrige los que no. En operación normal no debería encontrar diferencias.
+ *
+ * Se recorre por lotes de batch-size intents, cada uno en su propia transacción, para no retener los
+ * locks de todo el período mientras dura la revisión.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RefundTotalsIntegrityJob {
+
+    private final PaymentIntentRepository paymentIntentRepository;
+    private final ShardRouter shardRouter;
+
+    @Value("${refunds.integrity.lookback-days:30}")
+    private int lookbackDays;
+
+    // Intents bloqueados a la vez como máximo (lo que puede esperar un retiro concurrente)
+    @Value("${refunds.integrity.batch-size:200}")
+    private int batchSize;
+
+    @Scheduled(initialDelayString = "${refunds.integrity.initial-delay-ms:120000}",
+               fixedDelayString = "${refunds.integrity.interval-ms:3600000}")
+    public void recomputeRefundTotals() {
+        LocalDateTime since = LocalDateTime.now().minusDays(lookbackDays);
+
+        Long corrected = shardRouter.scatter(shard -> recomputeFrom(since, since, ""))
+                .filter(RefundTotalsCheck::isCorrected)
+                .doOnNext(check -> log.warn("[REFUND-TOTALS] corrected refunded_amount for paymentIntentId={}", check.getPaymentIntentId()))
+                .count()
+                .timeout(Duration.ofMinutes(10))
+                .doOnError(err -> log.error("[REFUND-TOTALS][ERR] recompute failed msg={}", err.getMessage(), err))
+                .onErrorResume(err -> Mono.just(0L))
+                .block();
+
+        log.info("[REFUND-TOTALS] checked payment intents since {} corrected={}", since, corrected);
+    }
+
+    // Un lote por llamada (una transacción cada uno); el siguiente arranca después del último revisado
+    private Flux<RefundTotalsCheck> recomputeFrom(LocalDateTime since, LocalDateTime afterCreatedAt, String afterId) {
+        return paymentIntentRepository.recomputeRefundTotals(since, afterCreatedAt, afterId, batchSize)
+                .collectList()
+                .flatMapMany(batch -> {
+                    if (batch.size() < batchSize) {
+                        return Flux.fromIterable(batch);
+                    }
+                    RefundTotalsCheck last = batch.get(batch.size() - 1);
+                    return Flux.fromIterable(batch)
+                            .concatWith(Flux.defer(() -> recomputeFrom(since, last.getIntentCreatedAt(), last.getPaymentIntentId())));
+                });
+    }
+}
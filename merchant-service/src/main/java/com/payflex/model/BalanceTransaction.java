@@ -0,0 +1,45 @@
+package com.payflex.model;
+
+import com.payflex.money.CurrencyUnit;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Column;
+import org.springframework.data.relational.core.mapping.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table("balance_transactions")
+public class BalanceTransaction {
+
+    @Id
+    @Column("id")
+    private Long id; // BIGSERIAL, orden del ledger
+
+    @Column("merchant_id")
+    private String merchantId;
+
+    @Column("entry_type")
+    private String entryType; // credit, debit
+
+    @Column("amount_minor")
+    private Long amountMinor; // unidad mínima, con signo (débitos negativos)
+
+    @Column("currency")
+    private CurrencyUnit currency;
+
+    @Column("source_type")
+    private String sourceType; // opening, payment_intent, withdrawal, withdrawal_cancel
+
+    @Column("source_id")
+    private String sourceId;
+
+    @Column("created_at")
+    private LocalDateTime createdAt;
+}
@@ -1,6 +1,7 @@
 package com.payflex.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.ReadOnlyProperty;
 import org.springframework.data.annotation.Transient;
 import org.springframework.data.domain.Persistable;
 import org.springframework.data.relational.core.mapping.Column;
@@ -31,6 +32,8 @@ public class MerchantBalance implements Persistable<Integer> {
     @Column("merchant_id")
     private String merchantId;
 
+    // Saldo vigente calculado desde balance_transactions; la columna ya no se escribe
+    @ReadOnlyProperty
     @Column("available_balance")
     private BigDecimal availableBalance;
 
@@ -40,6 +43,11 @@ public class MerchantBalance implements Persistable<Integer> {
     @Column("currency")
     private String currency;
 
+    // Franjas de saldo activas (0 = solo ledger); se cambia con payflex_enable/disable_balance_stripes
+    @ReadOnlyProperty
+    @Column("balance_stripes")
+    private Integer balanceStripes;
+
     @Column("updated_at")
     private LocalDateTime updatedAt;
 
@@ -2,6 +2,7 @@ package com.payflex.model;
 
 import io.r2dbc.postgresql.codec.Json;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.ReadOnlyProperty;
 import org.springframework.data.annotation.Transient;
 import org.springframework.data.domain.Persistable;
 import org.springframework.data.relational.core.mapping.Column;
@@ -69,6 +70,15 @@ public class PaymentIntent implements Persistable<String> {
     @Column("last_payment_error")
     private Json lastPaymentError; // JSON type
 
+    // Mantenidos por payflex_create_withdrawal en la BD; nunca se escriben desde save()
+    @ReadOnlyProperty
+    @Column("refunded_amount")
+    private BigDecimal refundedAmount;
+
+    @ReadOnlyProperty
+    @Column("refund_count")
+    private Integer refundCount;
+
     @Column("created_at")
     private LocalDateTime createdAt;
 
@@ -0,0 +1,67 @@
+package com.payflex.money;
+
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Registro ISO-4217 armado una sola vez al cargar la clase a partir de java.util.Currency.
+ * La búsqueda es O(1) y acepta el código en mayúsculas o minúsculas sin crear Strings.
+ */
+public final class Currencies {
+
+    // Decimales a usar cuando la moneda no está en el registro (mismo criterio que antes: centavos)
+    public static final int DEFAULT_MINOR_DIGITS = 2;
+
+    private static final Map<String, CurrencyUnit> BY_CODE;
+
+    static {
+        Map<String, CurrencyUnit> byCode = new HashMap<>();
+        for (Currency currency : Currency.getAvailableCurrencies()) {
+            // Monedas sin unidad mínima (XAU, XDR, ...) reportan -1: se tratan como sin decimales
+            int digits = Math.max(currency.getDefaultFractionDigits(), 0);
+            CurrencyUnit unit = new CurrencyUnit(currency.getCurrencyCode(), currency.getNumericCode(), digits);
+            byCode.put(unit.code(), unit);
+            byCode.put(unit.code().toLowerCase(Locale.ROOT), unit);
+        }
+        BY_CODE = Map.copyOf(byCode);
+    }
+
+    private Currencies() {
+    }
+
+    /**
+     * Moneda por código ISO-4217; lanza IllegalArgumentException si no existe.
+     */
+    public static CurrencyUnit of(String code) {
+        CurrencyUnit unit = find(code);
+        if (unit == null) {
+            throw new IllegalArgumentException("Unknown currency: " + code);
+        }
+        return unit;
+    }
+
+    /**
+     * Moneda por código ISO-4217, o null si no existe.
+     */
+    public static CurrencyUnit find(String code) {
+        if (code == null) {
+            return null;
+        }
+        CurrencyUnit unit = BY_CODE.get(code);
+        return unit != null ? unit : BY_CODE.get(code.toUpperCase(Locale.ROOT));
+    }
+
+    public static boolean isSupported(String code) {
+        return find(code) != null;
+    }
+
+    /**
+     * Decimales de la unidad mínima de la moneda (0 para CLP/JPY, 2 para USD, 3 para KWD, ...).
+     */
+    public static int minorDigits(String code) {
+        CurrencyUnit unit = find(code);
+        return unit != null ? unit.minorDigits() : DEFAULT_MINOR_DIGITS;
+    }
+}
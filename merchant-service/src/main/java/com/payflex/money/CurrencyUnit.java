@@ -0,0 +1,13 @@
+package com.payflex.money;
+
+/**
+ * Moneda ISO-4217: código alfabético, código numérico y cantidad de decimales de la unidad mínima.
+ * Las instancias se obtienen de {@link Currencies}, que guarda una por código.
+ */
+public record CurrencyUnit(String code, int numericCode, int minorDigits) {
+
+    @Override
+    public String toString() {
+        return code;
+    }
+}
@@ -0,0 +1,53 @@
+package com.payflex.money;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Objects;
+
+/**
+ * Monto en unidad mínima de la moneda (centavos para USD, pesos para CLP) como long.
+ * La conversión a unidades mayores no redondea: solo ajusta la escala.
+ */
+public record Money(long amountMinor, CurrencyUnit currency) {
+
+    public Money {
+        Objects.requireNonNull(currency, "currency");
+    }
+
+    public static Money ofMinor(long amountMinor, CurrencyUnit currency) {
+        return new Money(amountMinor, currency);
+    }
+
+    /**
+     * Desde una columna NUMERIC que ya guarda la unidad mínima (amount en payment_intents/refunds).
+     */
+    public static Money fromMinorDecimal(BigDecimal amountMinor, CurrencyUnit currency) {
+        return new Money(toMinorUnits(amountMinor), currency);
+    }
+
+    /**
+     * Redondea un NUMERIC en unidad mínima a long (null → 0); lanza ArithmeticException si no cabe.
+     */
+    private static long toMinorUnits(BigDecimal amountMinor) {
+        if (amountMinor == null) {
+            return 0L;
+        }
+        return amountMinor.setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    public boolean isPositive() {
+        return amountMinor > 0L;
+    }
+
+    /**
+     * Monto en unidades mayores con la escala de la moneda (1050 USD → 10.50, 1050 CLP → 1050).
+     */
+    public BigDecimal toMajor() {
+        return BigDecimal.valueOf(amountMinor, currency.minorDigits());
+    }
+
+    @Override
+    public String toString() {
+        return toMajor().toPlainString() + " " + currency.code();
+    }
+}
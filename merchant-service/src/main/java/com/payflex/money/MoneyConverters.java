@@ -0,0 +1,36 @@
+package com.payflex.money;
+
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
+
+import java.util.List;
+
+/**
+ * Conversores R2DBC: columnas currency (VARCHAR) ↔ CurrencyUnit.
+ */
+public final class MoneyConverters {
+
+    private MoneyConverters() {
+    }
+
+    public static List<Object> all() {
+        return List.of(new CurrencyUnitReadingConverter(), new CurrencyUnitWritingConverter());
+    }
+
+    @ReadingConverter
+    static final class CurrencyUnitReadingConverter implements Converter<String, CurrencyUnit> {
+        @Override
+        public CurrencyUnit convert(String source) {
+            return Currencies.of(source);
+        }
+    }
+
+    @WritingConverter
+    static final class CurrencyUnitWritingConverter implements Converter<CurrencyUnit, String> {
+        @Override
+        public String convert(CurrencyUnit source) {
+            return source.code();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.payflex.repository;
+
+import com.payflex.model.BalanceTransaction;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface BalanceTransactionRepository extends ReactiveCrudRepository<BalanceTransaction, Long> {
+
+    // Crédito idempotente por (sourceType, sourceId); ver payflex_credit_balance en db/migration
+    @Query("SELECT payflex_credit_balance(:merchantId, :amountMinor, :currency, :sourceType, :sourceId, :createdAt)")
+    Mono<Long> credit(
+            String merchantId,
+            Long amountMinor,
+            String currency,
+            String sourceType,
+            String sourceId,
+            LocalDateTime createdAt
+    );
+
+    // Créditos en lote (un round-trip); devuelve cuántos movimientos nuevos se registraron.
+    // Ver payflex_credit_balance_batch en db/migration
+    @Query("""
+        SELECT payflex_credit_balance_batch(
+            CAST(:merchantIds AS TEXT[]), CAST(:amountsMinor AS BIGINT[]), CAST(:currencies AS TEXT[]),
+            CAST(:sourceTypes AS TEXT[]), CAST(:sourceIds AS TEXT[]), :createdAt)
+        """)
+    Mono<Integer> creditBatch(
+            String[] merchantIds,
+            Long[] amountsMinor,
+            String[] currencies,
+            String[] sourceTypes,
+            String[] sourceIds,
+            LocalDateTime createdAt
+    );
+
+    // Momento en que se migró al ledger (V6, saldo de apertura): los pagos anteriores ya están en ese
+    // saldo y no deben acreditarse de nuevo. Vacío si el shard todavía no tiene V6.
+    @Query("SELECT installed_on FROM flyway_schema_history WHERE version = '6' AND success")
+    Mono<LocalDateTime> ledgerCutover();
+
+    // Suma de franjas si están activas, si no último snapshot + movimientos posteriores; en unidad mínima
+    @Query("SELECT payflex_available_balance(:merchantId)")
+    Mono<Long> availableBalance(String merchantId);
+
+    // Activa :stripes franjas de saldo para el merchant; devuelve el saldo cargado desde el ledger
+    @Query("SELECT payflex_enable_balance_stripes(:merchantId, :stripes)")
+    Mono<Long> enableStripes(String merchantId, int stripes);
+
+    @Query("SELECT payflex_disable_balance_stripes(:merchantId)")
+    Mono<Long> disableStripes(String merchantId);
+
+    // Merchants con al menos :minEntries movimientos desde su último snapshot
+    @Query("""
+        SELECT b.merchant_id
+        FROM merchant_balances b
+        CROSS JOIN LATERAL (
+            SELECT COALESCE(MAX(s.last_entry_id), 0) AS last_entry_id
+            FROM merchant_balance_snapshots s
+            WHERE s.merchant_id = b.merchant_id
+        ) snap
+        WHERE (SELECT COUNT(*) FROM balance_transactions t
+               WHERE t.merchant_id = b.merchant_id AND t.id > snap.last_entry_id) >= :minEntries
+        """)
+    Flux<String> findMerchantIdsNeedingSnapshot(int minEntries);
+
+    @Query("SELECT payflex_take_balance_snapshot(:merchantId, :minEntries)")
+    Mono<Long> takeSnapshot(String merchantId, int minEntries);
+}
@@ -9,13 +9,9 @@ import reactor.core.publisher.Mono;
 @Repository
 public interface MerchantBalanceRepository extends ReactiveCrudRepository<MerchantBalance, Integer> {
 
+    // available_balance se calcula desde el ledger o, si el merchant tiene franjas, sumando las franjas
+    @Query("SELECT id, merchant_id, CAST(payflex_available_balance(merchant_id) AS NUMERIC) AS available_balance, pending_balance, currency, balance_stripes, updated_at FROM merchant_balances WHERE merchant_id = :merchantId")
     Mono<MerchantBalance> findByMerchantId(String merchantId);
 
-    @Query("UPDATE merchant_balances SET available_balance = available_balance + :amount, updated_at = CURRENT_TIMESTAMP WHERE merchant_id = :merchantId")
-    Mono<Void> incrementAvailableBalance(String merchantId, Double amount);
-
-    @Query("UPDATE merchant_balances SET available_balance = available_balance - :amount, updated_at = CURRENT_TIMESTAMP WHERE merchant_id = :merchantId AND available_balance >= :amount")
-    Mono<Integer> decrementAvailableBalance(String merchantId, Double amount);
+    Mono<Boolean> existsByMerchantId(String merchantId);
 }
-
-
@@ -1,17 +1,49 @@
 package com.payflex.repository;
 
 
+import com.payflex.dto.MerchantResponse;
 import com.payflex.model.Merchant;
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.LocalDateTime;
+
 @Repository
 public interface MerchantRepository extends ReactiveCrudRepository<Merchant, String> {
 
+    // Merchant con su saldo en una sola fila (LEFT JOIN: sin fila de balance queda en 0 CLP). El saldo
+    // disponible sale del ledger o de las franjas, igual que en MerchantBalanceRepository.
+    String MERCHANT_RESPONSE_COLUMNS = """
+        SELECT m.id AS merchant_id, m.business_name, m.legal_name, m.tax_id, m.email, m.phone, m.website,
+               m.status, m.onboarding_completed, m.created_at, m.updated_at,
+               CASE WHEN b.merchant_id IS NULL THEN 0
+                    ELSE CAST(payflex_available_balance(m.id) AS NUMERIC) END AS available_balance,
+               COALESCE(b.pending_balance, 0) AS pending_balance,
+               COALESCE(b.currency, 'CLP') AS currency
+        """;
+
+    String MERCHANT_BALANCE_JOIN = " LEFT JOIN merchant_balances b ON b.merchant_id = m.id";
 
     Mono<Merchant> findByEmail(String email);
 
     Flux<Merchant> findByStatus(String status);
+
+    @Query(MERCHANT_RESPONSE_COLUMNS + " FROM merchants m" + MERCHANT_BALANCE_JOIN + " WHERE m.id = :id")
+    Mono<MerchantResponse> findResponseById(String id);
+
+    // Listado completo en una sola consulta leída en streaming
+    @Query(MERCHANT_RESPONSE_COLUMNS + " FROM merchants m" + MERCHANT_BALANCE_JOIN + " ORDER BY m.id")
+    Flux<MerchantResponse> findAllResponses();
+
+    // Página por keyset sobre la PK: merchants con id mayor que :afterId ('' para la primera)
+    @Query(MERCHANT_RESPONSE_COLUMNS + " FROM merchants m" + MERCHANT_BALANCE_JOIN + " WHERE m.id > :afterId ORDER BY m.id LIMIT :limit")
+    Flux<MerchantResponse> findResponsesAfter(String afterId, int limit);
+
+    // Actualiza los datos editables y devuelve el merchant con su saldo en un solo round-trip; vacío si no existe
+    @Query("WITH m AS (UPDATE merchants SET business_name = :businessName, tax_id = :taxId, phone = :phone, updated_at = :updatedAt"
+        + " WHERE id = :id RETURNING *) " + MERCHANT_RESPONSE_COLUMNS + " FROM m" + MERCHANT_BALANCE_JOIN)
+    Mono<MerchantResponse> updateProfile(String id, String businessName, String taxId, String phone, LocalDateTime updatedAt);
 }
@@ -1,6 +1,11 @@
 package com.payflex.repository;
 
 
+import com.payflex.dto.BalanceTransactionResponse;
+import com.payflex.dto.CurrencyTotal;
+import com.payflex.dto.ListingVersion;
+import com.payflex.dto.RefundTotalsCheck;
+import com.payflex.dto.TimeSeriesBucketResponse;
 import com.payflex.model.PaymentIntent;
 import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
@@ -10,15 +15,48 @@ import reactor.core.publisher.Mono;
 
 import java.time.LocalDateTime;
 
+/**
+ * payment_intents está particionada por mes de created_at (V3). Las búsquedas por id toman created_at del
+ * registro payment_intent_ids (V15) para leer una sola partición. Las demás consultas acotan created_at
+ * cuando la pregunta tiene un rango de fechas; las que recorren la historia completa del merchant lo
+ * indican en su comentario: ahí no hay created_at que acotar y las resuelve el índice por merchant de
+ * cada partición.
+ */
 @Repository
-public interface PaymentIntentRepository extends ReactiveCrudRepository<PaymentIntent, String> {
+public interface PaymentIntentRepository extends ReactiveCrudRepository<PaymentIntent, String>, PaymentIntentRepositoryCustom {
 
+    @Override
+    @Query("SELECT * FROM payment_intents WHERE id = :id AND created_at = (SELECT created_at FROM payment_intent_ids WHERE id = :id)")
+    Mono<PaymentIntent> findById(String id);
+
+    @Override
+    @Query("SELECT EXISTS (SELECT 1 FROM payment_intent_ids WHERE id = :id)")
+    Mono<Boolean> existsById(String id);
+
+    // Merchant del intent (vacío si no existe en este shard), para ubicar su shard con ShardRouter.locate
+    @Query("SELECT merchant_id FROM payment_intents WHERE id = :id AND created_at = (SELECT created_at FROM payment_intent_ids WHERE id = :id)")
+    Mono<String> findMerchantIdById(String id);
+
+    // Multi-get en una sola consulta: el registro da el created_at de cada id, así cada fila se busca
+    // por la PK de su partición
+    @Query("""
+        SELECT pi.*
+        FROM payment_intents pi
+        JOIN payment_intent_ids r ON r.id = pi.id AND r.created_at = pi.created_at
+        WHERE r.id = ANY(:ids) AND pi.id = ANY(:ids)
+        """)
+    Flux<PaymentIntent> findByIdIn(String[] ids);
+
+    // Historia completa del merchant (listados sin rango de fechas)
     Flux<PaymentIntent> findByMerchantId(String merchantId);
 
+    // Historia completa del merchant (listados sin rango de fechas)
     Flux<PaymentIntent> findByMerchantIdAndStatus(String merchantId, String status);
 
+    // Historia completa del cliente, por idx_payment_intents_customer
     Flux<PaymentIntent> findByCustomerId(String customerId);
 
+    // Historia completa del merchant (listados sin rango de fechas)
     Flux<PaymentIntent> findByMerchantIdOrderByCreatedAtDesc(String merchantId);
 
     // Nuevas consultas para estadísticas
@@ -29,6 +67,52 @@ public interface PaymentIntentRepository extends ReactiveCrudRepository<PaymentI
         LocalDateTime endDate
     );
 
+    // Delta-sync: cambios posteriores al cursor (updated_at, id) en orden, por idx_payment_intents_merchant_updated.
+    // Sin created_at: un intent de cualquier mes puede cambiar (refunds, capturas)
+    @Query("SELECT * FROM payment_intents WHERE merchant_id = :merchantId AND (updated_at, id) > (:updatedAt, :id) ORDER BY updated_at, id LIMIT :limit")
+    Flux<PaymentIntent> findChangesAfter(String merchantId, LocalDateTime updatedAt, String id, int limit);
+
+    @Query("SELECT * FROM payment_intents WHERE merchant_id = :merchantId ORDER BY updated_at, id LIMIT :limit")
+    Flux<PaymentIntent> findChangesFromStart(String merchantId, int limit);
+
+    // Línea de tiempo de saldo: créditos (pagos succeeded) anteriores al cursor, por idx_payment_intents_merchant_succeeded_timeline.
+    // created_at <= :createdAt repite la cota de la fila para que el planner pode las particiones posteriores
+    @Query("""
+        SELECT id, 'credit' AS type, 'payment_intent' AS source_type, amount, currency, description, created_at
+        FROM payment_intents
+        WHERE merchant_id = :merchantId AND status = 'succeeded'
+          AND created_at <= :createdAt AND (created_at, id) < (:createdAt, :id)
+        ORDER BY created_at DESC, id DESC
+        LIMIT :limit
+        """)
+    Flux<BalanceTransactionResponse> findBalanceCreditsBefore(String merchantId, LocalDateTime createdAt, String id, int limit);
+
+    // Saldo de la línea de tiempo: créditos hasta el movimiento (created_at, id) inclusive, por moneda
+    @Query("""
+        SELECT currency, SUM(amount) AS total
+        FROM payment_intents
+        WHERE merchant_id = :merchantId AND status = 'succeeded'
+          AND created_at <= :createdAt AND (created_at, id) <= (:createdAt, :id)
+        GROUP BY currency
+        """)
+    Flux<CurrencyTotal> sumBalanceCreditsUpTo(String merchantId, LocalDateTime createdAt, String id);
+
+    // Versión del listado de transacciones del dashboard (ETag): cambia con altas y con cualquier update.
+    // La reconciliación de totales de refunds también marca updated_at (V19).
+    // Mismo rango [from, to) que findDashboardTransactions: poda particiones cuando el dashboard pide un período
+    @Query("SELECT COUNT(*) AS row_count, MAX(updated_at) AS last_updated_at FROM payment_intents WHERE merchant_id = :merchantId AND created_at >= :from AND created_at < :to")
+    Mono<ListingVersion> findListingVersion(String merchantId, LocalDateTime from, LocalDateTime to);
+
+    @Query("SELECT COUNT(*) AS row_count, MAX(updated_at) AS last_updated_at FROM payment_intents WHERE merchant_id = :merchantId AND status = :status AND created_at >= :from AND created_at < :to")
+    Mono<ListingVersion> findListingVersionByStatus(String merchantId, String status, LocalDateTime from, LocalDateTime to);
+
+    // Listado de transacciones del dashboard en [from, to), más recientes primero
+    @Query("SELECT * FROM payment_intents WHERE merchant_id = :merchantId AND created_at >= :from AND created_at < :to ORDER BY created_at DESC, id DESC")
+    Flux<PaymentIntent> findDashboardTransactions(String merchantId, LocalDateTime from, LocalDateTime to);
+
+    @Query("SELECT * FROM payment_intents WHERE merchant_id = :merchantId AND status = :status AND created_at >= :from AND created_at < :to ORDER BY created_at DESC, id DESC")
+    Flux<PaymentIntent> findDashboardTransactionsByStatus(String merchantId, String status, LocalDateTime from, LocalDateTime to);
+
     @Query("SELECT COUNT(*) FROM payment_intents WHERE merchant_id = :merchantId AND status = :status AND created_at >= :startDate AND created_at <= :endDate")
     Mono<Long> countByMerchantIdAndStatusAndCreatedAtBetween(
         String merchantId,
@@ -52,4 +136,64 @@ public interface PaymentIntentRepository extends ReactiveCrudRepository<PaymentI
         LocalDateTime startDate,
         LocalDateTime endDate
     );
+
+    // Serie de tiempo para analytics: un registro por bucket (incluye buckets vacíos) con
+    // cantidad y volumen de pagos succeeded y egresos (refunds succeeded). El rango es [startDate, endDate).
+    @Query("""
+        WITH buckets AS (
+            SELECT generate_series(
+                       date_trunc(:unit, CAST(:startDate AS timestamp)),
+                       CAST(:endDate AS timestamp) - INTERVAL '1 microsecond',
+                       CAST('1 ' || :unit AS interval)) AS bucket_start
+        ), payments AS (
+            SELECT date_trunc(:unit, created_at) AS bucket_start, COUNT(*) AS transaction_count, SUM(amount) AS gross_volume
+            FROM payment_intents
+            WHERE merchant_id = :merchantId AND status = 'succeeded' AND created_at >= :startDate AND created_at < :endDate
+            GROUP BY 1
+        ), outflows AS (
+            SELECT date_trunc(:unit, created_at) AS bucket_start, SUM(amount) AS outflows
+            FROM refunds
+            WHERE merchant_id = :merchantId AND status = 'succeeded' AND created_at >= :startDate AND created_at < :endDate
+            GROUP BY 1
+        )
+        SELECT b.bucket_start,
+               COALESCE(p.transaction_count, 0) AS transaction_count,
+               COALESCE(p.gross_volume, 0) AS gross_volume,
+               COALESCE(o.outflows, 0) AS outflows
+        FROM buckets b
+        LEFT JOIN payments p ON p.bucket_start = b.bucket_start
+        LEFT JOIN outflows o ON o.bucket_start = b.bucket_start
+        ORDER BY b.bucket_start
+        """)
+    Flux<TimeSeriesBucketResponse> aggregateTimeSeriesByMerchantId(
+        String merchantId,
+        String unit,
+        LocalDateTime startDate,
+        LocalDateTime endDate
+    );
+
+    // Exportación: intents del merchant en [from, to) en orden estable, leídos en streaming
+    @Query("SELECT * FROM payment_intents WHERE merchant_id = :merchantId AND created_at >= :from AND created_at < :to ORDER BY created_at, id")
+    Flux<PaymentIntent> findForExport(String merchantId, LocalDateTime from, LocalDateTime to);
+
+    // Reconciliación de créditos: intents succeeded (creados desde :since y sin cambios desde :until)
+    // que no tienen su crédito en el ledger, p. ej. porque quedaron en el buffer del agregador al caer el servicio
+    @Query("""
+        SELECT pi.*
+        FROM payment_intents pi
+        WHERE pi.status = 'succeeded'
+          AND pi.created_at >= :since
+          AND pi.updated_at < :until
+          AND NOT EXISTS (
+              SELECT 1 FROM balance_transactions t
+              WHERE t.source_type = 'payment_intent' AND t.source_id = pi.id AND t.entry_type = 'credit')
+        ORDER BY pi.created_at
+        """)
+    Flux<PaymentIntent> findSucceededWithoutLedgerCredit(LocalDateTime since, LocalDateTime until);
+
+    // Job de integridad: recalcula refunded_amount/refund_count desde refunds para un lote de hasta :limit
+    // intents creados desde :since, posteriores a (afterCreatedAt, afterId). Cada llamada es una transacción
+    // propia (los locks duran un lote). Ver payflex_recompute_refund_totals en db/migration (V16).
+    @Query("SELECT * FROM payflex_recompute_refund_totals(:since, :afterCreatedAt, :afterId, :limit)")
+    Flux<RefundTotalsCheck> recomputeRefundTotals(LocalDateTime since, LocalDateTime afterCreatedAt, String afterId, int limit);
 }
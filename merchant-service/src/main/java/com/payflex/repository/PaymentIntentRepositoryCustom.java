@@ -0,0 +1,40 @@
+package com.payflex.repository;
+
+import com.payflex.dto.UpdatePaymentIntentRequest;
+import com.payflex.model.PaymentIntent;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface PaymentIntentRepositoryCustom {
+
+    /**
+     * UPDATE de solo los campos no nulos de la request, en una sentencia con RETURNING *.
+     * Si expectedStatus no es null, solo actualiza cuando el estado actual coincide (compare-and-set).
+     * Vacío si no hay fila que cumpla id (+ estado esperado).
+     */
+    Mono<PaymentIntent> partialUpdate(String id, UpdatePaymentIntentRequest changes, String expectedStatus);
+
+    /**
+     * Intents del merchant cuya metadata contiene, por cada cláusula, al menos uno de sus documentos JSON
+     * (ver MetadataFilter), opcionalmente con el estado dado, los más recientes primero y hasta limit.
+     * Las contenciones las resuelve idx_payment_intents_metadata. Sin created_at: se busca en toda la historia.
+     */
+    Flux<PaymentIntent> findByMetadataContaining(String merchantId, List<List<String>> clauses, String status, int limit);
+
+    /**
+     * Búsqueda de texto del dashboard (ver V14): intents del merchant cuyo id, customer_id, statement_descriptor
+     * o description contienen query (sin distinguir mayúsculas), del más relevante al menos relevante y
+     * posteriores al cursor (rank, createdAt, id) en ese orden. timeout se aplica como statement_timeout
+     * local: llamar dentro de una transacción. Sin created_at: se busca en toda la historia.
+     */
+    Flux<SearchHit> search(String merchantId, String query, double rank, LocalDateTime createdAt, String id,
+                           int limit, Duration timeout);
+
+    // rank: 1 extra si query es exactamente el id o el customer_id, más strict_word_similarity (0 a 1)
+    record SearchHit(PaymentIntent paymentIntent, double rank) {
+    }
+}
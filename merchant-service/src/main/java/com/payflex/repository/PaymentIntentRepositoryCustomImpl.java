@@ -0,0 +1,165 @@
+package com.payflex.repository;
+
+import com.payflex.dto.UpdatePaymentIntentRequest;
+import com.payflex.model.PaymentIntent;
+import io.r2dbc.postgresql.codec.Json;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PaymentIntentRepositoryCustomImpl implements PaymentIntentRepositoryCustom {
+
+    // El filtro usa la misma expresión que idx_payment_intents_search_trgm; el orden se calcula sobre las coincidencias
+    private static final String SEARCH_SQL = """
+        SELECT * FROM (
+            SELECT pi.*,
+                   (CASE WHEN pi.id = :query OR pi.customer_id = :query THEN 1 ELSE 0 END
+                    + strict_word_similarity(:query, payflex_payment_intent_search_text(pi.id, pi.customer_id, pi.statement_descriptor, pi.description)))::float8 AS search_rank
+            FROM payment_intents pi
+            WHERE pi.merchant_id = :merchant_id
+              AND payflex_payment_intent_search_text(pi.id, pi.customer_id, pi.statement_descriptor, pi.description) ILIKE :pattern
+        ) hits
+        WHERE (search_rank, created_at, id) < (:rank, :created_at, :id)
+        ORDER BY search_rank DESC, created_at DESC, id DESC
+        LIMIT :limit
+        """;
+
+    private final R2dbcEntityTemplate template;
+
+    public PaymentIntentRepositoryCustomImpl(R2dbcEntityTemplate template) {
+        this.template = template;
+    }
+
+    @Override
+    public Mono<PaymentIntent> partialUpdate(String id, UpdatePaymentIntentRequest changes, String expectedStatus) {
+        // columna -> valor (null = escribir NULL, p. ej. metadata vacía)
+        Map<String, Object> columns = new LinkedHashMap<>();
+        Map<String, Class<?>> types = new LinkedHashMap<>();
+
+        put(columns, types, "status", changes.getStatus(), String.class);
+        put(columns, types, "customer_id", changes.getCustomerId(), String.class);
+        put(columns, types, "amount", changes.getAmount(), BigDecimal.class);
+        put(columns, types, "currency", changes.getCurrency(), String.class);
+        put(columns, types, "payment_method_id", changes.getPaymentMethodId(), String.class);
+        put(columns, types, "description", changes.getDescription(), String.class);
+        put(columns, types, "statement_descriptor", changes.getStatementDescriptor(), String.class);
+        if (changes.getMetadata() != null) {
+            columns.put("metadata", toJson(changes.getMetadata()));
+            types.put("metadata", Json.class);
+        }
+        if (changes.getLastPaymentError() != null) {
+            columns.put("last_payment_error", toJson(changes.getLastPaymentError()));
+            types.put("last_payment_error", Json.class);
+        }
+
+        StringBuilder sql = new StringBuilder("UPDATE payment_intents SET ");
+        for (String column : columns.keySet()) {
+            sql.append(column).append(" = :").append(column).append(", ");
+        }
+        // created_at del registro de ids: el UPDATE toca una sola partición
+        sql.append("updated_at = :updated_at WHERE id = :id")
+                .append(" AND created_at = (SELECT created_at FROM payment_intent_ids WHERE id = :id)");
+        if (expectedStatus != null) {
+            sql.append(" AND status = :expected_status");
+        }
+        sql.append(" RETURNING *");
+
+        DatabaseClient.GenericExecuteSpec spec = template.getDatabaseClient().sql(sql.toString());
+        for (Map.Entry<String, Object> entry : columns.entrySet()) {
+            spec = entry.getValue() != null
+                    ? spec.bind(entry.getKey(), entry.getValue())
+                    : spec.bindNull(entry.getKey(), types.get(entry.getKey()));
+        }
+        spec = spec.bind("updated_at", LocalDateTime.now()).bind("id", id);
+        if (expectedStatus != null) {
+            spec = spec.bind("expected_status", expectedStatus);
+        }
+
+        return spec.map((row, metadata) -> template.getConverter().read(PaymentIntent.class, row, metadata))
+                .one();
+    }
+
+    @Override
+    public Flux<PaymentIntent> findByMetadataContaining(String merchantId, List<List<String>> clauses, String status, int limit) {
+        // Los documentos van como parámetros; el SQL solo depende de la cantidad de cláusulas y alternativas
+        Map<String, String> documents = new LinkedHashMap<>();
+        StringBuilder sql = new StringBuilder("SELECT * FROM payment_intents WHERE merchant_id = :merchant_id");
+        for (int i = 0; i < clauses.size(); i++) {
+            List<String> alternatives = clauses.get(i);
+            sql.append(" AND (");
+            for (int j = 0; j < alternatives.size(); j++) {
+                String name = "metadata_" + i + "_" + j;
+                sql.append(j > 0 ? " OR " : "").append("metadata @> CAST(:").append(name).append(" AS jsonb)");
+                documents.put(name, alternatives.get(j));
+            }
+            sql.append(")");
+        }
+        if (status != null) {
+            sql.append(" AND status = :status");
+        }
+        sql.append(" ORDER BY created_at DESC, id DESC LIMIT :limit");
+
+        DatabaseClient.GenericExecuteSpec spec = template.getDatabaseClient().sql(sql.toString())
+                .bind("merchant_id", merchantId)
+                .bind("limit", limit);
+        for (Map.Entry<String, String> document : documents.entrySet()) {
+            spec = spec.bind(document.getKey(), document.getValue());
+        }
+        if (status != null) {
+            spec = spec.bind("status", status);
+        }
+
+        return spec.map((row, metadata) -> template.getConverter().read(PaymentIntent.class, row, metadata))
+                .all();
+    }
+
+    @Override
+    public Flux<SearchHit> search(String merchantId, String query, double rank, LocalDateTime createdAt, String id,
+                                  int limit, Duration timeout) {
+        Mono<Void> statementTimeout = template.getDatabaseClient()
+                .sql("SELECT set_config('statement_timeout', :timeout, true)")
+                .bind("timeout", String.valueOf(timeout.toMillis()))
+                .then();
+
+        Flux<SearchHit> hits = template.getDatabaseClient().sql(SEARCH_SQL)
+                .bind("merchant_id", merchantId)
+                .bind("query", query)
+                .bind("pattern", "%" + escapeLike(query) + "%")
+                .bind("rank", rank)
+                .bind("created_at", createdAt)
+                .bind("id", id)
+                .bind("limit", limit)
+                .map((row, metadata) -> new SearchHit(
+                        template.getConverter().read(PaymentIntent.class, row, metadata),
+                        row.get("search_rank", Double.class)))
+                .all();
+
+        return statementTimeout.thenMany(hits);
+    }
+
+    // % y _ del texto buscado son literales (ILIKE usa \ como escape por defecto)
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private static void put(Map<String, Object> columns, Map<String, Class<?>> types, String column, Object value, Class<?> type) {
+        if (value != null) {
+            columns.put(column, value);
+            types.put(column, type);
+        }
+    }
+
+    // Mismo criterio que PaymentIntent.setMetadataFromString: un String vacío deja la columna en NULL
+    private static Json toJson(String value) {
+        return value.trim().isEmpty() ? null : Json.of(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
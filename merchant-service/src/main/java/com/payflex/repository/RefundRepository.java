@@ -1,31 +1,86 @@
 package com.payflex.repository;
 
+import com.payflex.dto.BalanceTransactionResponse;
+import com.payflex.dto.CurrencyTotal;
 import com.payflex.model.Refund;
+import org.springframework.data.r2dbc.repository.Modifying;
 import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
+/**
+ * refunds está particionada por mes de created_at (V3). Igual que en PaymentIntentRepository, las
+ * búsquedas por id pasan por el registro refund_ids (V15) y las consultas sin created_at lo justifican
+ * en su comentario.
+ */
 @Repository
 public interface RefundRepository extends ReactiveCrudRepository<Refund, String> {
 
+    @Override
+    @Query("SELECT * FROM refunds WHERE id = :id AND created_at = (SELECT created_at FROM refund_ids WHERE id = :id)")
+    Mono<Refund> findById(String id);
+
+    @Override
+    @Query("SELECT EXISTS (SELECT 1 FROM refund_ids WHERE id = :id)")
+    Mono<Boolean> existsById(String id);
+
+    // Merchant del retiro (vacío si no existe en este shard), para ubicar su shard con ShardRouter.locate
+    @Query("SELECT merchant_id FROM refunds WHERE id = :id AND created_at = (SELECT created_at FROM refund_ids WHERE id = :id)")
+    Mono<String> findMerchantIdById(String id);
+
+    // Un retiro nunca es anterior a su intent: se descartan las particiones previas a la creación del intent
+    @Query("""
+        SELECT * FROM refunds
+        WHERE payment_intent_id = :paymentIntentId
+          AND created_at >= (SELECT created_at FROM payment_intent_ids WHERE id = :paymentIntentId)
+        ORDER BY created_at
+        """)
     Flux<Refund> findByPaymentIntentId(String paymentIntentId);
 
+    // Los charge_id no traen fecha: historia completa, por idx_refunds_charge (casi todos los retiros tienen NULL)
     Flux<Refund> findByChargeId(String chargeId);
 
+    // Historia completa del merchant (listados sin rango de fechas)
     Flux<Refund> findByMerchantId(String merchantId);
 
+    // Historia completa del merchant (listados sin rango de fechas)
     Flux<Refund> findByMerchantIdAndStatus(String merchantId, String status);
 
+    // Cancela un retiro pendiente; 0 si ya no estaba pending. created_at ubica la partición
+    @Modifying
+    @Query("UPDATE refunds SET status = 'canceled', updated_at = :updatedAt WHERE id = :id AND created_at = :createdAt AND status = 'pending'")
+    Mono<Integer> markCanceled(String id, LocalDateTime createdAt, LocalDateTime updatedAt);
+
+    // Línea de tiempo de saldo: débitos (retiros succeeded) anteriores al cursor, por idx_refunds_merchant_succeeded_timeline.
+    // created_at <= :createdAt repite la cota de la fila para que el planner pode las particiones posteriores
+    @Query("""
+        SELECT id, 'debit' AS type, 'withdrawal' AS source_type, amount, currency, reason AS description, created_at
+        FROM refunds
+        WHERE merchant_id = :merchantId AND status = 'succeeded'
+          AND created_at <= :createdAt AND (created_at, id) < (:createdAt, :id)
+        ORDER BY created_at DESC, id DESC
+        LIMIT :limit
+        """)
+    Flux<BalanceTransactionResponse> findBalanceDebitsBefore(String merchantId, LocalDateTime createdAt, String id, int limit);
+
+    // Saldo de la línea de tiempo: débitos hasta el movimiento (created_at, id) inclusive, por moneda
+    @Query("""
+        SELECT currency, SUM(amount) AS total
+        FROM refunds
+        WHERE merchant_id = :merchantId AND status = 'succeeded'
+          AND created_at <= :createdAt AND (created_at, id) <= (:createdAt, :id)
+        GROUP BY currency
+        """)
+    Flux<CurrencyTotal> sumBalanceDebitsUpTo(String merchantId, LocalDateTime createdAt, String id);
+
     @Query("SELECT SUM(amount) FROM refunds WHERE charge_id = :chargeId AND status = 'succeeded'")
     Mono<Double> sumRefundedAmountByChargeId(String chargeId);
 
-    @Query("SELECT SUM(amount) FROM refunds WHERE payment_intent_id = :paymentIntentId AND status = 'succeeded'")
-    Mono<Double> sumRefundedAmountByPaymentIntentId(String paymentIntentId);
-
     // Suma de refunds por merchant, estado y rango de fechas (para egresos del dashboard)
     @Query("SELECT COALESCE(SUM(amount), 0) FROM refunds WHERE merchant_id = :merchantId AND status = :status AND created_at >= :startDate AND created_at <= :endDate")
     Mono<Long> sumAmountByMerchantIdAndStatusAndCreatedAtBetween(
@@ -34,4 +89,16 @@ public interface RefundRepository extends ReactiveCrudRepository<Refund, String>
             LocalDateTime startDate,
             LocalDateTime endDate
     );
+
+    // Retiro atómico en un solo round trip (valida intent, saldo e inserta el refund succeeded).
+    // Ver payflex_create_withdrawal en db/migration; los rechazos llegan con SQLSTATE PF001.
+    @Query("SELECT * FROM payflex_create_withdrawal(:id, :paymentIntentId, :amount, :reason, CAST(:metadata AS json), :createdAt)")
+    Mono<Refund> createWithdrawal(
+            String id,
+            String paymentIntentId,
+            BigDecimal amount,
+            String reason,
+            String metadata,
+            LocalDateTime createdAt
+    );
 }
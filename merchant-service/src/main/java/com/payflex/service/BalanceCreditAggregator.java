@@ -0,0 +1,304 @@
+package com.payflex.service;
+
+import com.payflex.config.ShardRouter;
+import com.payflex.money.CurrencyUnit;
+import com.payflex.money.Money;
+import com.payflex.repository.BalanceTransactionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Agrupa en memoria los créditos de saldo de payment intents y los vuelca al ledger en lote
+ * (payflex_credit_balance_batch): un round-trip por flush en vez de uno por pago.
+ *
+ * Un crédito aceptado queda en el buffer hasta el próximo flush (cada flush-interval-ms, o antes si
+ * el merchant acumula max-buffered-amount en alguna moneda, en unidades mínimas). Si el servicio cae con créditos en el buffer, los
+ * recupera BalanceCreditReconciliationJob: los créditos son idempotentes por payment intent.
+ * Con sharding cada crédito recuerda el shard en el que se pidió y los lotes se arman por shard.
+ *
+ * El flush corre en un hilo propio (balance-credit-flush) y no en el scheduler compartido de
+ * @Scheduled: bloquea mientras escribe y no debe demorar a los jobs ni quedar detrás de ellos.
+ * Un lote que no llegó a confirmarse (error, timeout o cancelación) vuelve al buffer.
+ */
+@Slf4j
+@Service
+public class BalanceCreditAggregator {
+
+    private final BalanceTransactionRepository balanceTransactionRepository;
+    private final BalanceLedgerService balanceLedgerService;
+    private final ShardRouter shardRouter;
+    private final Map<String, PendingCredits> buffer = new ConcurrentHashMap<>();
+    private final AtomicInteger bufferedEntries = new AtomicInteger();
+    private final Timer flushTimer;
+    private final DistributionSummary flushSize;
+    private final Counter flushFailures;
+
+    private static final Duration FLUSH_TIMEOUT = Duration.ofSeconds(30);
+
+    @Value("${balances.credit-coalescing.enabled:false}")
+    private boolean enabled;
+
+    @Value("${balances.credit-coalescing.max-buffered-amount:10000000}")
+    private long maxBufferedAmount;
+
+    @Value("${balances.credit-coalescing.max-batch-entries:1000}")
+    private int maxBatchEntries;
+
+    @Value("${balances.credit-coalescing.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "balance-credit-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public BalanceCreditAggregator(BalanceTransactionRepository balanceTransactionRepository,
+                                   BalanceLedgerService balanceLedgerService,
+                                   ShardRouter shardRouter,
+                                   MeterRegistry meterRegistry) {
+        this.balanceTransactionRepository = balanceTransactionRepository;
+        this.balanceLedgerService = balanceLedgerService;
+        this.shardRouter = shardRouter;
+        this.flushTimer = Timer.builder("payflex.balance.credit.flush")
+                .description("Latencia de cada lote de créditos enviado al ledger")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.flushSize = DistributionSummary.builder("payflex.balance.credit.flush.entries")
+                .description("Créditos por lote")
+                .register(meterRegistry);
+        this.flushFailures = Counter.builder("payflex.balance.credit.flush.failures")
+                .register(meterRegistry);
+        meterRegistry.gauge("payflex.balance.credit.buffered", bufferedEntries);
+    }
+
+    /**
+     * Registrar un crédito de payment intent. Con el agregador desactivado se escribe directo al ledger;
+     * activado, se completa al quedar en el buffer.
+     */
+    public Mono<Void> credit(String merchantId, Money amount, String paymentIntentId) {
+        if (!enabled) {
+            return balanceLedgerService.credit(merchantId, amount, BalanceLedgerService.SOURCE_PAYMENT_INTENT, paymentIntentId);
+        }
+
+        if (!amount.isPositive()) {
+            return Mono.empty();
+        }
+
+        return Mono.deferContextual(ctx -> {
+            int shard = ctx.getOrDefault(ShardRouter.SHARD_KEY, ShardRouter.DEFAULT_SHARD);
+            PendingCredit credit = new PendingCredit(merchantId, amount, paymentIntentId, shard);
+            PendingCredits pending = buffer.compute(merchantId, (key, current) -> {
+                PendingCredits credits = current != null ? current : new PendingCredits();
+                credits.add(credit);
+                return credits;
+            });
+            bufferedEntries.incrementAndGet();
+
+            if (pending.totalMinor(amount.currency()) >= maxBufferedAmount) {
+                // El merchant acumuló demasiado sin confirmar: volcarlo sin esperar al próximo tick
+                flushMerchant(merchantId)
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .subscribe();
+            }
+            return Mono.empty();
+        });
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            flushExecutor.scheduleWithFixedDelay(this::scheduledFlush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void flush() {
+        if (buffer.isEmpty()) {
+            return;
+        }
+
+        List<PendingCredit> drained = new ArrayList<>();
+        for (String merchantId : buffer.keySet()) {
+            drain(merchantId, drained);
+        }
+
+        // Lotes armados de antemano: si el flush se corta, los que no se confirmaron se devuelven al buffer
+        List<Batch> batches = batches(drained);
+        Flux.fromIterable(batches)
+                .groupBy(Batch::shard)
+                .flatMap(byShard -> byShard.concatMap(batch -> shardRouter.onShard(byShard.key(), writeBatch(batch))))
+                .then()
+                .timeout(FLUSH_TIMEOUT)
+                .doOnCancel(() -> requeueUnsettled(batches))
+                .onErrorResume(err -> {
+                    log.error("[AGGREGATOR][ERR] flush interrupted, requeueing unconfirmed batches msg={}", err.getMessage(), err);
+                    requeueUnsettled(batches);
+                    return Mono.empty();
+                })
+                .block();
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() throws InterruptedException {
+        flushExecutor.shutdown();
+        flushExecutor.awaitTermination(FLUSH_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        log.info("[AGGREGATOR] flushing {} buffered credit(s) before shutdown", bufferedEntries.get());
+        flush();
+    }
+
+    // Una excepción que escape cancelaría las ejecuciones siguientes del executor
+    private void scheduledFlush() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("[AGGREGATOR][ERR] scheduled flush failed msg={}", e.getMessage(), e);
+        }
+    }
+
+    private List<Batch> batches(List<PendingCredit> credits) {
+        Map<Integer, List<PendingCredit>> byShard = new LinkedHashMap<>();
+        for (PendingCredit credit : credits) {
+            byShard.computeIfAbsent(credit.shard(), shard -> new ArrayList<>()).add(credit);
+        }
+        List<Batch> batches = new ArrayList<>();
+        byShard.forEach((shard, shardCredits) -> {
+            for (int from = 0; from < shardCredits.size(); from += maxBatchEntries) {
+                int to = Math.min(from + maxBatchEntries, shardCredits.size());
+                batches.add(new Batch(shard, List.copyOf(shardCredits.subList(from, to))));
+            }
+        });
+        return batches;
+    }
+
+    private void requeueUnsettled(List<Batch> batches) {
+        for (Batch batch : batches) {
+            if (batch.settle()) {
+                batch.credits().forEach(this::requeue);
+            }
+        }
+    }
+
+    private Mono<Void> flushMerchant(String merchantId) {
+        List<PendingCredit> drained = new ArrayList<>();
+        drain(merchantId, drained);
+        // Todos los créditos de un merchant van al mismo shard
+        if (drained.isEmpty()) {
+            return Mono.empty();
+        }
+        Batch batch = new Batch(drained.get(0).shard(), drained);
+        return shardRouter.onShard(batch.shard(), writeBatch(batch))
+                .doOnCancel(() -> requeueUnsettled(List.of(batch)));
+    }
+
+    private void drain(String merchantId, List<PendingCredit> into) {
+        PendingCredits pending = buffer.remove(merchantId);
+        if (pending != null) {
+            into.addAll(pending.credits);
+            bufferedEntries.addAndGet(-pending.credits.size());
+        }
+    }
+
+    private Mono<Void> writeBatch(Batch pending) {
+        List<PendingCredit> batch = pending.credits();
+        int size = batch.size();
+        String[] merchantIds = new String[size];
+        Long[] amountsMinor = new Long[size];
+        String[] currencies = new String[size];
+        String[] sourceTypes = new String[size];
+        String[] sourceIds = new String[size];
+        for (int i = 0; i < size; i++) {
+            PendingCredit credit = batch.get(i);
+            merchantIds[i] = credit.merchantId();
+            amountsMinor[i] = credit.amount().amountMinor();
+            currencies[i] = credit.amount().currency().code();
+            sourceTypes[i] = BalanceLedgerService.SOURCE_PAYMENT_INTENT;
+            sourceIds[i] = credit.paymentIntentId();
+        }
+
+        return Mono.defer(() -> {
+                    Timer.Sample sample = Timer.start();
+                    return balanceTransactionRepository.creditBatch(
+                                    merchantIds, amountsMinor, currencies, sourceTypes, sourceIds, LocalDateTime.now())
+                            .doOnNext(written -> {
+                                pending.settle();
+                                sample.stop(flushTimer);
+                                flushSize.record(size);
+                                log.debug("[AGGREGATOR] flushed {} credit(s), {} new", size, written);
+                            });
+                })
+                .onErrorResume(err -> {
+                    // Se devuelven al buffer para el próximo flush; reintentar es seguro por idempotencia
+                    flushFailures.increment();
+                    log.error("[AGGREGATOR][ERR] flush of {} credit(s) failed, requeueing msg={}", size, err.getMessage(), err);
+                    if (pending.settle()) {
+                        batch.forEach(this::requeue);
+                    }
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private void requeue(PendingCredit credit) {
+        buffer.compute(credit.merchantId(), (key, current) -> {
+            PendingCredits credits = current != null ? current : new PendingCredits();
+            credits.add(credit);
+            return credits;
+        });
+        bufferedEntries.incrementAndGet();
+    }
+
+    private record PendingCredit(String merchantId, Money amount, String paymentIntentId, int shard) {
+    }
+
+    // settle() lo gana una sola vez la confirmación o la devolución al buffer. Si la escritura confirma
+    // después de un timeout, el crédito se reenvía en el próximo flush y el ledger lo descarta (idempotente).
+    private record Batch(int shard, List<PendingCredit> credits, AtomicBoolean settled) {
+        private Batch(int shard, List<PendingCredit> credits) {
+            this(shard, credits, new AtomicBoolean());
+        }
+
+        private boolean settle() {
+            return settled.compareAndSet(false, true);
+        }
+    }
+
+    // Solo se modifica dentro de buffer.compute, que serializa el acceso por merchant; credit() lee el
+    // total fuera de compute, de ahí el mapa concurrente. Los totales van por moneda: sumar unidades
+    // mínimas de monedas distintas no mide nada
+    private static final class PendingCredits {
+        private final List<PendingCredit> credits = new ArrayList<>();
+        private final Map<CurrencyUnit, Long> totalsMinor = new ConcurrentHashMap<>();
+
+        private void add(PendingCredit credit) {
+            credits.add(credit);
+            totalsMinor.merge(credit.amount().currency(), credit.amount().amountMinor(), Long::sum);
+        }
+
+        private long totalMinor(CurrencyUnit currency) {
+            return totalsMinor.getOrDefault(currency, 0L);
+        }
+    }
+}
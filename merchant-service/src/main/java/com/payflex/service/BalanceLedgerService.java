@@ -0,0 +1,70 @@
+package com.payflex.service;
+
+import com.payflex.money.Currencies;
+import com.payflex.money.Money;
+import com.payflex.repository.BalanceTransactionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Acceso al ledger append-only de saldos (balance_transactions).
+ * Los créditos se registran aquí; los débitos por retiro los registra payflex_create_withdrawal.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BalanceLedgerService {
+
+    public static final String SOURCE_PAYMENT_INTENT = "payment_intent";
+    public static final String SOURCE_WITHDRAWAL_CANCEL = "withdrawal_cancel";
+    public static final int MAX_BALANCE_STRIPES = 64;
+
+    private final BalanceTransactionRepository balanceTransactionRepository;
+
+    /**
+     * Registrar un crédito. Es idempotente por (sourceType, sourceId): repetirlo no vuelve a acreditar.
+     */
+    public Mono<Void> credit(String merchantId, Money amount, String sourceType, String sourceId) {
+        if (!amount.isPositive()) {
+            return Mono.empty();
+        }
+
+        return balanceTransactionRepository.credit(merchantId, amount.amountMinor(), amount.currency().code(),
+                        sourceType, sourceId, LocalDateTime.now())
+                .doOnNext(entryId -> log.debug("[LEDGER] credit merchantId={} amount={} source={}:{} entryId={}",
+                        merchantId, amount, sourceType, sourceId, entryId))
+                .then();
+    }
+
+    /**
+     * Monto de un payment intent o retiro (NUMERIC en unidad mínima + código de moneda) como Money.
+     */
+    public static Money toMoney(BigDecimal amountMinor, String currency) {
+        return Money.fromMinorDecimal(amountMinor, Currencies.of(currency));
+    }
+
+    /**
+     * Activar (stripes > 0) o desactivar (stripes = 0) las franjas de saldo de un merchant.
+     * Pensado para merchants con muchos créditos concurrentes; el ledger sigue siendo la fuente de verdad.
+     */
+    public Mono<BigDecimal> configureStripes(String merchantId, int stripes) {
+        if (stripes < 0 || stripes > MAX_BALANCE_STRIPES) {
+            return Mono.error(new IllegalArgumentException(
+                    "Balance stripes must be between 0 and " + MAX_BALANCE_STRIPES + ", got " + stripes));
+        }
+
+        Mono<Long> result = stripes == 0
+                ? balanceTransactionRepository.disableStripes(merchantId)
+                : balanceTransactionRepository.enableStripes(merchantId, stripes);
+
+        return result
+                .doOnNext(balance -> log.info("[LEDGER] stripes merchantId={} stripes={} balance={}",
+                        merchantId, stripes, balance))
+                .map(BigDecimal::valueOf);
+    }
+}
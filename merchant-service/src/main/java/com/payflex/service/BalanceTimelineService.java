@@ -0,0 +1,177 @@
+package com.payflex.service;
+
+import com.payflex.config.ReadReplicaRouting;
+import com.payflex.config.ShardRouter;
+import com.payflex.dto.BalanceTransactionPageResponse;
+import com.payflex.dto.BalanceTransactionResponse;
+import com.payflex.dto.CurrencyTotal;
+import com.payflex.repository.PaymentIntentRepository;
+import com.payflex.repository.RefundRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Línea de tiempo de saldo del merchant: pagos succeeded (créditos) y retiros succeeded (débitos) en un
+ * solo listado, del más reciente al más antiguo, con el saldo después de cada movimiento.
+ *
+ * Cada página lee a lo sumo limit + 1 filas de cada tabla (keyset sobre (created_at, id), que es único
+ * entre ambas porque los ids tienen prefijos distintos) y las mezcla en orden a medida que llegan
+ * (Flux.mergeComparing), sin cargar ninguna de las dos listas completa.
+ *
+ * El saldo va por moneda y sale de los mismos movimientos que se listan: la primera página parte de
+ * la suma de pagos menos retiros hasta su movimiento más reciente y se recorre hacia atrás; el cursor
+ * lleva el saldo de cada moneda con que sigue la página siguiente. No se lee del ledger: los créditos
+ * en el buffer de BalanceCreditAggregator todavía no están ahí, y sus movimientos que no son pagos ni
+ * retiros (saldo de apertura, retiros cancelados) no aparecen en el listado.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BalanceTimelineService {
+
+    // Cursor de la primera página: posterior a cualquier movimiento
+    private static final LocalDateTime START = LocalDateTime.of(9999, 12, 31, 0, 0);
+
+    private static final Comparator<BalanceTransactionResponse> NEWEST_FIRST = Comparator
+            .comparing(BalanceTransactionResponse::getCreatedAt)
+            .thenComparing(BalanceTransactionResponse::getId)
+            .reversed();
+
+    private final PaymentIntentRepository paymentIntentRepository;
+    private final RefundRepository refundRepository;
+    private final ShardRouter shardRouter;
+
+    @Value("${balances.timeline.max-page-size:100}")
+    private int maxPageSize;
+
+    public Mono<BalanceTransactionPageResponse> getBalanceTransactions(String merchantId, String cursor, int limit) {
+        if (limit < 1 || limit > maxPageSize) {
+            return Mono.error(new IllegalArgumentException("limit must be between 1 and " + maxPageSize));
+        }
+        TimelineCursor position;
+        try {
+            position = TimelineCursor.parse(cursor);
+        } catch (IllegalArgumentException e) {
+            return Mono.error(e);
+        }
+
+        LocalDateTime createdAt = position != null ? position.createdAt() : START;
+        String id = position != null ? position.id() : "";
+
+        Flux<BalanceTransactionResponse> timeline = Flux.mergeComparing(NEWEST_FIRST,
+                paymentIntentRepository.findBalanceCreditsBefore(merchantId, createdAt, id, limit + 1),
+                refundRepository.findBalanceDebitsBefore(merchantId, createdAt, id, limit + 1));
+
+        return ReadReplicaRouting.readOnly(shardRouter.onMerchant(merchantId, timeline
+                .take(limit + 1)
+                .collectList()
+                .flatMap(rows -> openingBalances(merchantId, position, rows)
+                        .map(balances -> toPage(rows, limit, balances)))));
+    }
+
+    /**
+     * Saldo por moneda después del movimiento más reciente de la página. En la primera se suma hasta esa
+     * fila (no hasta ahora): un pago que llega entre las dos consultas no desacomoda la página.
+     */
+    private Mono<Map<String, BigDecimal>> openingBalances(String merchantId, TimelineCursor position, List<BalanceTransactionResponse> rows) {
+        if (position != null) {
+            return Mono.just(position.balances());
+        }
+        if (rows.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        BalanceTransactionResponse newest = rows.get(0);
+        return Mono.zip(
+                        totalsByCurrency(paymentIntentRepository.sumBalanceCreditsUpTo(merchantId, newest.getCreatedAt(), newest.getId())),
+                        totalsByCurrency(refundRepository.sumBalanceDebitsUpTo(merchantId, newest.getCreatedAt(), newest.getId())))
+                .map(totals -> {
+                    Map<String, BigDecimal> balances = new TreeMap<>(totals.getT1());
+                    totals.getT2().forEach((currency, debits) -> balances.merge(currency, debits.negate(), BigDecimal::add));
+                    return balances;
+                });
+    }
+
+    private static Mono<Map<String, BigDecimal>> totalsByCurrency(Flux<CurrencyTotal> totals) {
+        return totals.collectMap(CurrencyTotal::getCurrency, total -> total.getTotal() != null ? total.getTotal() : BigDecimal.ZERO);
+    }
+
+    private static BalanceTransactionPageResponse toPage(List<BalanceTransactionResponse> rows, int limit, Map<String, BigDecimal> balances) {
+        boolean hasMore = rows.size() > limit;
+        List<BalanceTransactionResponse> page = new ArrayList<>(hasMore ? rows.subList(0, limit) : rows);
+
+        // Hacia atrás: el saldo antes de un movimiento es el saldo después del siguiente más antiguo,
+        // en la moneda del movimiento
+        Map<String, BigDecimal> running = new TreeMap<>(balances);
+        for (BalanceTransactionResponse tx : page) {
+            BigDecimal balance = running.getOrDefault(tx.getCurrency(), BigDecimal.ZERO);
+            tx.setBalanceAfter(balance);
+            BigDecimal amount = tx.getAmount() != null ? tx.getAmount() : BigDecimal.ZERO;
+            running.put(tx.getCurrency(), "credit".equals(tx.getType()) ? balance.subtract(amount) : balance.add(amount));
+        }
+
+        String nextCursor = null;
+        if (hasMore) {
+            BalanceTransactionResponse last = page.get(page.size() - 1);
+            nextCursor = new TimelineCursor(last.getCreatedAt(), last.getId(), running).encode();
+        }
+        return BalanceTransactionPageResponse.builder()
+                .transactions(page)
+                .nextCursor(nextCursor)
+                .hasMore(hasMore)
+                .build();
+    }
+
+    // Último movimiento entregado y saldo de cada moneda después del siguiente ("USD=1050;EUR=300");
+    // texto opaco (base64url) para el cliente
+    private record TimelineCursor(LocalDateTime createdAt, String id, Map<String, BigDecimal> balances) {
+
+        String encode() {
+            StringBuilder raw = new StringBuilder().append(createdAt).append('|');
+            balances.forEach((currency, balance) -> raw.append(currency).append('=').append(balance.toPlainString()).append(';'));
+            raw.append('|').append(id);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        static TimelineCursor parse(String cursor) {
+            if (cursor == null || cursor.isBlank()) {
+                return null;
+            }
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|", 3);
+                if (parts.length != 3 || parts[2].isEmpty()) {
+                    throw new IllegalArgumentException("Invalid cursor");
+                }
+                Map<String, BigDecimal> balances = new LinkedHashMap<>();
+                for (String entry : parts[1].split(";")) {
+                    if (entry.isEmpty()) {
+                        continue;
+                    }
+                    int separator = entry.indexOf('=');
+                    if (separator <= 0) {
+                        throw new IllegalArgumentException("Invalid cursor");
+                    }
+                    balances.put(entry.substring(0, separator), new BigDecimal(entry.substring(separator + 1)));
+                }
+                return new TimelineCursor(LocalDateTime.parse(parts[0]), parts[2], balances);
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+        }
+    }
+}
@@ -1,15 +1,25 @@
 package com.payflex.service;
 
+import com.payflex.config.ReadReplicaRouting;
+import com.payflex.config.ShardRouter;
 import com.payflex.dto.DashboardStatsResponse;
+import com.payflex.dto.TimeSeriesBucketResponse;
+import com.payflex.dto.TimeSeriesGranularity;
+import com.payflex.dto.TimeSeriesResponse;
+import com.payflex.money.Currencies;
+import com.payflex.money.CurrencyUnit;
+import com.payflex.money.Money;
 import com.payflex.repository.PaymentIntentRepository;
 import com.payflex.repository.RefundRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 
@@ -20,6 +30,15 @@ public class DashboardStatsService {
 
     private final PaymentIntentRepository paymentIntentRepository;
     private final RefundRepository refundRepository; // nuevo repo para egresos
+    private final ShardRouter shardRouter;
+
+    // Límite de buckets para la respuesta JSON (se arma completa en memoria)
+    @Value("${analytics.timeseries.max-buckets:1000}")
+    private long maxBuckets;
+
+    // Límite de buckets para el modo streaming (NDJSON), que no acumula la serie en memoria
+    @Value("${analytics.timeseries.max-stream-buckets:100000}")
+    private long maxStreamBuckets;
 
     public Mono<DashboardStatsResponse> getMerchantDashboardStats(String merchantId) {
         LocalDateTime now = LocalDateTime.now();
@@ -60,7 +79,8 @@ public class DashboardStatsService {
                 .findMostCommonCurrencyByMerchantIdAndStatusAndCreatedAtBetween(merchantId, successStatus, currentPeriodStart, now)
                 .defaultIfEmpty("CLP");
 
-        return Mono.zip(
+        // Analytics toleran atraso de réplica
+        return ReadReplicaRouting.readOnly(shardRouter.onMerchant(merchantId, Mono.zip(
                         currentTransactionCount,
                         previousTransactionCount,
                         currentIncomeAmount,
@@ -110,7 +130,54 @@ public class DashboardStatsService {
                                     .percentageChange(growthChange)
                                     .build())
                             .build();
-                });
+                })));
+    }
+
+    /**
+     * Serie de tiempo completa (respuesta JSON). Rango acotado por analytics.timeseries.max-buckets.
+     */
+    public Mono<TimeSeriesResponse> getMerchantTimeSeries(String merchantId, LocalDateTime from, LocalDateTime to, String granularity) {
+        TimeSeriesGranularity bucket = TimeSeriesGranularity.from(granularity);
+
+        return validateRange(from, to, bucket, maxBuckets)
+                .thenMany(Flux.defer(() -> ReadReplicaRouting.readOnly(shardRouter.onMerchant(merchantId, paymentIntentRepository
+                        .aggregateTimeSeriesByMerchantId(merchantId, bucket.getUnit(), from, to)))))
+                .collectList()
+                .map(buckets -> TimeSeriesResponse.builder()
+                        .merchantId(merchantId)
+                        .granularity(bucket.getUnit())
+                        .from(from)
+                        .to(to)
+                        .buckets(buckets)
+                        .build());
+    }
+
+    /**
+     * Serie de tiempo en streaming: cada bucket se emite a medida que sale del cursor R2DBC,
+     * por lo que rangos grandes no se cargan completos en memoria.
+     */
+    public Flux<TimeSeriesBucketResponse> streamMerchantTimeSeries(String merchantId, LocalDateTime from, LocalDateTime to, String granularity) {
+        TimeSeriesGranularity bucket = TimeSeriesGranularity.from(granularity);
+
+        return validateRange(from, to, bucket, maxStreamBuckets)
+                .thenMany(Flux.defer(() -> ReadReplicaRouting.readOnly(shardRouter.onMerchant(merchantId, paymentIntentRepository
+                        .aggregateTimeSeriesByMerchantId(merchantId, bucket.getUnit(), from, to)))));
+    }
+
+    private Mono<Void> validateRange(LocalDateTime from, LocalDateTime to, TimeSeriesGranularity bucket, long limit) {
+        if (from == null || to == null) {
+            return Mono.error(new IllegalArgumentException("from and to are required"));
+        }
+        if (!from.isBefore(to)) {
+            return Mono.error(new IllegalArgumentException("from must be before to"));
+        }
+
+        long bucketCount = Duration.between(from, to).dividedBy(bucket.getBucketDuration()) + 1;
+        if (bucketCount > limit) {
+            return Mono.error(new IllegalArgumentException(String.format(
+                    "Range too large: %d %s buckets requested, max %d", bucketCount, bucket.getUnit(), limit)));
+        }
+        return Mono.empty();
     }
 
     private Double calculatePercentageChange(Long previousValue, Long currentValue) {
@@ -136,34 +203,18 @@ public class DashboardStatsService {
     }
 
     /**
-     * Formatea el monto según la moneda.
-     * Monedas sin decimales (zero-decimal currencies): JPY, KRW, CLP, etc. no se dividen por 100
-     * Monedas normales: USD, EUR, GBP, etc. se dividen por 100
+     * Convierte un monto en unidad mínima a unidades mayores según los decimales ISO-4217 de la moneda
+     * (CLP/JPY sin decimales, USD/EUR con 2, KWD/BHD con 3). Monedas desconocidas se tratan con 2.
      */
     private BigDecimal formatAmount(Long amountInCents, String currency) {
         if (amountInCents == null) {
             return BigDecimal.ZERO;
         }
 
-        // Monedas que no usan decimales (ya vienen en unidades completas, no en centavos)
-        String[] zeroDecimalCurrencies = {"JPY", "KRW", "CLP", "VND", "ISK", "BIF", "DJF", "GNF",
-                                          "KMF", "XAF", "XOF", "XPF", "RWF", "UGX", "VUV", "PYG"};
-
-        boolean isZeroDecimal = false;
-        for (String curr : zeroDecimalCurrencies) {
-            if (curr.equalsIgnoreCase(currency)) {
-                isZeroDecimal = true;
-                break;
-            }
-        }
-
-        if (isZeroDecimal) {
-            // Para monedas sin decimales, el monto ya está en la unidad correcta
-            return BigDecimal.valueOf(amountInCents);
-        } else {
-            // Para monedas con decimales, dividir por 100 para convertir centavos a unidades
-            return BigDecimal.valueOf(amountInCents)
-                    .divide(BigDecimal.valueOf(100), 2, RoundingMode.HALF_UP);
+        CurrencyUnit unit = Currencies.find(currency);
+        if (unit == null) {
+            return BigDecimal.valueOf(amountInCents, Currencies.DEFAULT_MINOR_DIGITS);
         }
+        return Money.ofMinor(amountInCents, unit).toMajor();
     }
 }
@@ -0,0 +1,143 @@
+package com.payflex.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.payflex.dto.MerchantConfigResponse;
+import com.payflex.dto.MerchantResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Caché local y acotada de perfiles de merchant y de su configuración de pagos, que se leen en casi
+ * todas las páginas autenticadas (/me/merchant, /me/merchant/config, /me/merchant/summary) y cambian poco.
+ *
+ * Las escrituras de MerchantService invalidan la entrada local y, con merchants.cache.redis-invalidation.enabled,
+ * publican el merchantId en Redis para que las demás instancias la invaliden también. Si se pierde un
+ * mensaje (Redis caído), ttl-ms acota cuánto puede durar una entrada desactualizada; al reconectar se
+ * vacía la caché local. El saldo del merchant no se cachea: cambia con cada pago.
+ */
+@Slf4j
+@Component
+public class MerchantCache {
+
+    static final String INVALIDATION_CHANNEL = "payflex:merchant-cache:invalidate";
+
+    private final AsyncCache<String, MerchantResponse> profiles;
+    private final AsyncCache<String, MerchantConfigResponse> configs;
+    private final ObjectProvider<ReactiveStringRedisTemplate> redisTemplate;
+    private final boolean redisInvalidation;
+    private final Counter localInvalidations;
+    private final Counter remoteInvalidations;
+    private Disposable subscription;
+
+    public MerchantCache(@Value("${merchants.cache.max-entries:10000}") long maxEntries,
+                         @Value("${merchants.cache.ttl-ms:60000}") long ttlMs,
+                         @Value("${merchants.cache.redis-invalidation.enabled:false}") boolean redisInvalidation,
+                         ObjectProvider<ReactiveStringRedisTemplate> redisTemplate,
+                         MeterRegistry meterRegistry) {
+        this.profiles = newCache(maxEntries, ttlMs);
+        this.configs = newCache(maxEntries, ttlMs);
+        this.redisTemplate = redisTemplate;
+        this.redisInvalidation = redisInvalidation;
+
+        // cache.gets{result=hit|miss}, cache.evictions, cache.size por caché
+        new CaffeineCacheMetrics<>(profiles.synchronous(), "merchant.profile", List.of()).bindTo(meterRegistry);
+        new CaffeineCacheMetrics<>(configs.synchronous(), "merchant.config", List.of()).bindTo(meterRegistry);
+        this.localInvalidations = Counter.builder("payflex.merchant.cache.invalidations")
+                .tag("source", "local")
+                .register(meterRegistry);
+        this.remoteInvalidations = Counter.builder("payflex.merchant.cache.invalidations")
+                .tag("source", "redis")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Perfil del merchant desde la caché, o cargado con loader (una sola carga concurrente por merchant).
+     * Un loader vacío (merchant inexistente) no se cachea.
+     */
+    public Mono<MerchantResponse> profile(String merchantId, Supplier<Mono<MerchantResponse>> loader) {
+        return load(profiles, merchantId, loader);
+    }
+
+    public Mono<MerchantConfigResponse> config(String merchantId, Supplier<Mono<MerchantConfigResponse>> loader) {
+        return load(configs, merchantId, loader);
+    }
+
+    /**
+     * Invalida el merchant en esta instancia y lo publica a las demás. Un error de Redis no falla la escritura.
+     */
+    public Mono<Void> invalidate(String merchantId) {
+        localInvalidations.increment();
+        invalidateLocal(merchantId);
+        if (!redisInvalidation) {
+            return Mono.empty();
+        }
+        return redisTemplate.getObject().convertAndSend(INVALIDATION_CHANNEL, merchantId)
+                .doOnError(err -> log.warn("[MERCHANT-CACHE] could not publish invalidation merchantId={} msg={}", merchantId, err.getMessage()))
+                .onErrorResume(err -> Mono.empty())
+                .then();
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        if (!redisInvalidation) {
+            return;
+        }
+        subscription = Flux.defer(() -> redisTemplate.getObject().listenToChannel(INVALIDATION_CHANNEL))
+                .doOnNext(message -> {
+                    remoteInvalidations.increment();
+                    invalidateLocal(message.getMessage());
+                })
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(30))
+                        .doBeforeRetry(signal -> {
+                            // Mientras no estuvimos suscritos pudimos perder invalidaciones
+                            log.warn("[MERCHANT-CACHE] invalidation channel lost, clearing local cache msg={}", signal.failure().getMessage());
+                            profiles.synchronous().invalidateAll();
+                            configs.synchronous().invalidateAll();
+                        }))
+                .subscribe();
+        log.info("[MERCHANT-CACHE] listening for invalidations on channel={}", INVALIDATION_CHANNEL);
+    }
+
+    @PreDestroy
+    public void unsubscribe() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+
+    private void invalidateLocal(String merchantId) {
+        profiles.synchronous().invalidate(merchantId);
+        configs.synchronous().invalidate(merchantId);
+    }
+
+    // suppressCancel: si quien pidió primero cancela, la carga sigue para los demás que la esperan
+    private static <T> Mono<T> load(AsyncCache<String, T> cache, String merchantId, Supplier<Mono<T>> loader) {
+        return Mono.fromFuture(() -> cache.get(merchantId, (key, executor) -> loader.get().toFuture()), true);
+    }
+
+    private static <T> AsyncCache<String, T> newCache(long maxEntries, long ttlMs) {
+        return Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(Duration.ofMillis(ttlMs))
+                .recordStats()
+                .buildAsync();
+    }
+}
@@ -1,10 +1,13 @@
 package com.payflex.service;
 
 
+import com.payflex.config.ReadReplicaRouting;
+import com.payflex.config.ShardRouter;
 import com.payflex.dto.CreateMerchantRequest;
 import com.payflex.dto.MerchantConfigResponse;
 import com.payflex.dto.MerchantResponse;
 import com.payflex.dto.MerchantUserResponse;
+import com.payflex.id.TimeOrderedIds;
 import com.payflex.model.Merchant;
 import com.payflex.model.MerchantBalance;
 import com.payflex.model.MerchantPaymentConfig;
@@ -14,14 +17,17 @@ import com.payflex.repository.MerchantRepository;
 import com.payflex.repository.MerchantUserRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.reactive.TransactionalOperator;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Comparator;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Slf4j
 @Service
@@ -32,8 +38,13 @@ public class MerchantService {
     private final MerchantBalanceRepository balanceRepository;
     private final MerchantUserRepository merchantUserRepository;
     private final MerchantPaymentConfigRepository paymentConfigRepository;
+    private final ShardRouter shardRouter;
+    private final TransactionalOperator transactionalOperator;
+    private final MerchantCache merchantCache;
+
+    @Value("${merchants.listing.max-page-size:1000}")
+    private int maxPageSize;
 
-    @Transactional
     public Mono<MerchantResponse> createMerchant(CreateMerchantRequest request) {
         log.info("[MS][CREATE] start userId={} providedMerchantId={} email={} businessName={}", request.getUserId(), request.getMerchantId(), request.getEmail(), request.getBusinessName());
 
@@ -42,11 +53,12 @@ public class MerchantService {
 
         Mono<Merchant> existingMono;
         if (providedMerchantId != null) {
-            existingMono = merchantRepository.findById(providedMerchantId)
+            existingMono = shardRouter.onMerchant(providedMerchantId, merchantRepository.findById(providedMerchantId))
                 .doOnSubscribe(s -> log.debug("[MS][LOOKUP] by merchantId={} ...", providedMerchantId))
                 .doOnNext(m -> log.debug("[MS][LOOKUP] found existing merchantId={} email={}", m.getId(), m.getEmail()));
         } else if (incomingEmail != null) {
-            existingMono = merchantRepository.findByEmail(incomingEmail)
+            // El email no indica el shard: se busca en todos
+            existingMono = shardRouter.findOwned(shard -> merchantRepository.findByEmail(incomingEmail), Merchant::getId)
                 .doOnSubscribe(s -> log.debug("[MS][LOOKUP] by email={} ...", incomingEmail))
                 .doOnNext(m -> log.debug("[MS][LOOKUP] found existing by email merchantId={}", m.getId()));
         } else {
@@ -56,8 +68,8 @@ public class MerchantService {
         return existingMono
             .flatMap(existing -> {
                 log.info("[MS][PATH] existing merchant branch merchantId={} email={}", existing.getId(), existing.getEmail());
-                return ensureMerchantUser(existing.getId(), request)
-                    .then(attachBalance(existing));
+                return shardRouter.onMerchant(existing.getId(), ensureMerchantUser(existing.getId(), request)
+                    .then(attachBalance(existing)));
             })
             .switchIfEmpty(Mono.defer(() -> {
                 // Determinar merchantId primero
@@ -86,7 +98,8 @@ public class MerchantService {
                     .updatedAt(LocalDateTime.now())
                     .build();
 
-                return merchantRepository.save(merchant)
+                // Merchant, balance, config y usuario en una transacción, en el shard que le asigna el directorio
+                Mono<MerchantResponse> create = merchantRepository.save(merchant)
                     .doOnSuccess(m -> log.info("[MS][SAVE] merchant persisted merchantId={} email={}", m.getId(), m.getEmail()))
                     .flatMap(saved -> {
                         request.applyFallbacks(saved.getId(), saved.getBusinessName(), saved.getEmail());
@@ -94,15 +107,19 @@ public class MerchantService {
                             .then(createInitialPaymentConfig(saved.getId()))
                             .then(ensureMerchantUser(saved.getId(), request))
                             .then(attachBalance(saved));
-                    });
+                    })
+                    .as(transactionalOperator::transactional);
+                return shardRouter.assignShard(merchantId)
+                    .flatMap(shard -> shardRouter.onShard(shard, create));
             }))
+            .flatMap(resp -> merchantCache.invalidate(resp.getMerchantId()).thenReturn(resp))
             .doOnError(err -> log.error("[MS][ERROR] createMerchant failed userId={} msg={}", request.getUserId(), err.getMessage(), err))
             .doOnSuccess(resp -> log.info("[MS][SUCCESS] merchantId={} email={} availableBalance={}", resp.getMerchantId(), resp.getEmail(), resp.getAvailableBalance()))
             .doFinally(sig -> log.debug("[MS][DONE] signal={} userId={} merchantIdProvided={} emailProvided={}", sig, request.getUserId(), request.getMerchantId(), request.getEmail()));
     }
 
     private boolean hasText(String v){ return v != null && !v.isBlank(); }
-    private String generateMerchantId(){ return "mrc_" + UUID.randomUUID().toString().replace("-", "").substring(0,12); }
+    private String generateMerchantId(){ return TimeOrderedIds.merchantId(); }
 
     private Mono<Void> ensureMerchantUser(String merchantId, CreateMerchantRequest request) {
         log.debug("[MS][USER-LINK] start merchantId={} userId={} role={}", merchantId, request.getUserId(), request.getRole());
@@ -137,15 +154,7 @@ public class MerchantService {
     }
 
     private Mono<MerchantResponse> attachBalance(Merchant merchant) {
-        return balanceRepository.findByMerchantId(merchant.getId())
-            .defaultIfEmpty(MerchantBalance.builder()
-                .merchantId(merchant.getId())
-                .availableBalance(BigDecimal.ZERO)
-                .pendingBalance(BigDecimal.ZERO)
-                .currency("CLP")
-                .updatedAt(LocalDateTime.now())
-                .build())
-            .map(balance -> mapToResponse(merchant, balance));
+        return merchantRepository.findResponseById(merchant.getId());
     }
 
     private Mono<MerchantBalance> createInitialBalance(String merchantId) {
@@ -188,79 +197,93 @@ public class MerchantService {
     public Mono<MerchantResponse> getMerchantById(String merchantId) {
         log.debug("Getting merchant by ID: {}", merchantId);
 
-        return merchantRepository.findById(merchantId)
-            .switchIfEmpty(Mono.error(new IllegalArgumentException("Merchant not found: " + merchantId)))
-            .flatMap(merchant -> balanceRepository.findByMerchantId(merchantId)
-                .defaultIfEmpty(MerchantBalance.builder()
-                    .merchantId(merchantId)
-                    .availableBalance(BigDecimal.ZERO)
-                    .pendingBalance(BigDecimal.ZERO)
-                    .currency("CLP")
-                    .build())
-                .map(balance -> mapToResponse(merchant, balance))
-            );
+        // El perfil sale de la caché; el saldo no se cachea. Si hubo que cargarlo, la consulta (LEFT JOIN)
+        // ya trae el saldo al día y no se vuelve a leer.
+        return Mono.defer(() -> {
+            AtomicBoolean loaded = new AtomicBoolean();
+            return cachedProfile(merchantId, loaded)
+                .switchIfEmpty(Mono.error(new IllegalArgumentException("Merchant not found: " + merchantId)))
+                .flatMap(profile -> loaded.get() ? Mono.just(profile) : withCurrentBalance(profile));
+        });
+    }
+
+    private Mono<MerchantResponse> cachedProfile(String merchantId, AtomicBoolean loaded) {
+        return merchantCache.profile(merchantId, () -> {
+            loaded.set(true);
+            return shardRouter.onMerchant(merchantId, merchantRepository.findResponseById(merchantId));
+        });
+    }
+
+    private Mono<MerchantResponse> withCurrentBalance(MerchantResponse profile) {
+        return shardRouter.onMerchant(profile.getMerchantId(), balanceRepository.findByMerchantId(profile.getMerchantId()))
+            .map(balance -> profile.toBuilder()
+                .availableBalance(balance.getAvailableBalance())
+                .pendingBalance(balance.getPendingBalance())
+                .currency(balance.getCurrency())
+                .build())
+            .defaultIfEmpty(profile.toBuilder()
+                .availableBalance(BigDecimal.ZERO)
+                .pendingBalance(BigDecimal.ZERO)
+                .currency("CLP")
+                .build());
     }
 
     public Flux<MerchantResponse> getAllMerchants() {
         log.debug("Getting all merchants");
 
-        return merchantRepository.findAll()
-            .flatMap(merchant -> balanceRepository.findByMerchantId(merchant.getId())
-                .defaultIfEmpty(MerchantBalance.builder()
-                    .merchantId(merchant.getId())
-                    .availableBalance(BigDecimal.ZERO)
-                    .pendingBalance(BigDecimal.ZERO)
-                    .currency("CLP")
-                    .build())
-                .map(balance -> mapToResponse(merchant, balance))
-            );
+        // Una sola consulta con el saldo unido, leída en streaming; con sharding, una por shard en
+        // paralelo y los resultados se mezclan sin orden global
+        return ReadReplicaRouting.readOnly(shardRouter.scatter(shard -> merchantRepository.findAllResponses()));
+    }
+
+    /**
+     * Página del listado ordenada por merchantId. La siguiente página se pide con afterId = último merchantId recibido.
+     */
+    public Flux<MerchantResponse> getMerchantsPage(String afterId, int limit) {
+        log.debug("Getting merchants page afterId={} limit={}", afterId, limit);
+
+        if (limit < 1 || limit > maxPageSize) {
+            return Flux.error(new IllegalArgumentException("limit must be between 1 and " + maxPageSize));
+        }
+        String cursor = afterId != null ? afterId : "";
+
+        // Con sharding cada shard aporta hasta limit filas y se queda con las primeras limit en orden global
+        return ReadReplicaRouting.readOnly(shardRouter.scatter(shard -> merchantRepository.findResponsesAfter(cursor, limit))
+            .sort(Comparator.comparing(MerchantResponse::getMerchantId))
+            .take(limit));
     }
 
     public Mono<MerchantResponse> updateMerchant(String merchantId, CreateMerchantRequest request) {
         log.info("Updating merchant: {}", merchantId);
 
-        return merchantRepository.findById(merchantId)
+        // UPDATE ... RETURNING unido al saldo: una sola consulta, sin lectura previa
+        return shardRouter.onMerchant(merchantId, merchantRepository.updateProfile(
+                merchantId, request.getBusinessName(), request.getTaxId(), request.getPhone(), LocalDateTime.now()))
             .switchIfEmpty(Mono.error(new IllegalArgumentException("Merchant not found: " + merchantId)))
-            .flatMap(merchant -> {
-                merchant.setBusinessName(request.getBusinessName());
-                merchant.setTaxId(request.getTaxId());
-                merchant.setPhone(request.getPhone());
-                merchant.setUpdatedAt(LocalDateTime.now());
-
-                return merchantRepository.save(merchant);
-            })
-            .flatMap(merchant -> balanceRepository.findByMerchantId(merchantId)
-                .defaultIfEmpty(MerchantBalance.builder()
-                    .merchantId(merchantId)
-                    .availableBalance(BigDecimal.ZERO)
-                    .pendingBalance(BigDecimal.ZERO)
-                    .currency("CLP")
-                    .build())
-                .map(balance -> mapToResponse(merchant, balance))
-            );
+            .flatMap(resp -> merchantCache.invalidate(merchantId).thenReturn(resp));
     }
 
     public Mono<Void> deactivateMerchant(String merchantId) {
         log.info("Deactivating merchant: {}", merchantId);
 
-        return merchantRepository.findById(merchantId)
+        return shardRouter.onMerchant(merchantId, merchantRepository.findById(merchantId)
             .switchIfEmpty(Mono.error(new IllegalArgumentException("Merchant not found: " + merchantId)))
             .flatMap(merchant -> {
                 merchant.setUpdatedAt(LocalDateTime.now());
                 return merchantRepository.save(merchant);
-            })
-            .then();
+            }))
+            .then(Mono.defer(() -> merchantCache.invalidate(merchantId)));
     }
 
     public Mono<Boolean> validateMerchant(String merchantId) {
         log.debug("Validating merchant: {}", merchantId);
-        return merchantRepository.findById(merchantId)
+        return cachedProfile(merchantId, new AtomicBoolean())
             .map(merchant -> "active".equalsIgnoreCase(merchant.getStatus()))
             .defaultIfEmpty(false);
     }
 
     public Flux<MerchantUserResponse> getMerchantUsers(String merchantId) {
-        return merchantUserRepository.findByMerchantId(merchantId)
+        return shardRouter.onMerchant(merchantId, merchantUserRepository.findByMerchantId(merchantId))
             .map(mu -> MerchantUserResponse.builder()
                 .userId(mu.getUserId())
                 .merchantId(mu.getMerchantId())
@@ -277,7 +300,8 @@ public class MerchantService {
     }
 
     public Mono<MerchantConfigResponse> getMerchantConfig(String merchantId) {
-        return paymentConfigRepository.findByMerchantId(merchantId)
+        // La configuración por defecto también se cachea; createMerchant invalida al crear la real
+        return merchantCache.config(merchantId, () -> shardRouter.onMerchant(merchantId, paymentConfigRepository.findByMerchantId(merchantId))
             .map(cfg -> MerchantConfigResponse.builder()
                 .merchantId(cfg.getMerchantId())
                 .defaultCurrency(cfg.getDefaultCurrency())
@@ -293,25 +317,6 @@ public class MerchantService {
                 .defaultCurrency("CLP")
                 .paymentMethodsEnabled("[\"card\",\"transfer\"]")
                 .autoCapture(true)
-                .build()));
-    }
-
-    private MerchantResponse mapToResponse(Merchant merchant, MerchantBalance balance) {
-        return MerchantResponse.builder()
-            .merchantId(merchant.getId())
-            .businessName(merchant.getBusinessName())
-            .legalName(merchant.getLegalName())
-            .taxId(merchant.getTaxId())
-            .email(merchant.getEmail())
-            .phone(merchant.getPhone())
-            .website(merchant.getWebsite())
-            .status(merchant.getStatus())
-            .onboardingCompleted(merchant.getOnboardingCompleted())
-            .createdAt(merchant.getCreatedAt())
-            .updatedAt(merchant.getUpdatedAt())
-            .availableBalance(balance.getAvailableBalance())
-            .pendingBalance(balance.getPendingBalance())
-            .currency(balance.getCurrency())
-            .build();
+                .build())));
     }
 }
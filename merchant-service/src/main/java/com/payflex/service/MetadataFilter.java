@@ -0,0 +1,104 @@
+package com.payflex.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.DecimalNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Filtro de payment intents por metadata, armado con los parámetros metadata.<clave>=<valor> de la
+ * consulta. Cada parámetro se traduce en una contención JSONB (metadata @> '{"clave":"valor"}') que
+ * resuelve el índice GIN de V13; clave.subclave busca dentro de objetos anidados.
+ *
+ * Solo se aceptan igualdades exactas, que es lo que el índice sabe responder. Las consultas que
+ * terminarían recorriendo la tabla (rangos u operadores como metadata.total[gt], comodines) se
+ * rechazan. Un valor con forma de número o booleano coincide también con ese tipo: "123" o 123.
+ *
+ * clauses: una lista de alternativas por parámetro; la metadata debe contener al menos una de cada lista.
+ */
+public record MetadataFilter(List<List<String>> clauses) {
+
+    static final String PREFIX = "metadata.";
+
+    private static final int MAX_DEPTH = 3;
+    private static final Pattern KEY_SEGMENT = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    // Números JSON sin ceros a la izquierda: "007" solo coincide como string
+    private static final Pattern JSON_NUMBER = Pattern.compile("-?(0|[1-9][0-9]{0,17})(\\.[0-9]{1,18})?");
+
+    public static boolean requested(Map<String, List<String>> params) {
+        return params.keySet().stream().anyMatch(key -> key.startsWith(PREFIX));
+    }
+
+    public static MetadataFilter parse(Map<String, List<String>> params, int maxFilters, int maxValueLength) {
+        List<List<String>> clauses = new ArrayList<>();
+        for (Map.Entry<String, List<String>> param : params.entrySet()) {
+            String key = param.getKey();
+            if (!key.startsWith(PREFIX)) {
+                continue;
+            }
+            if (clauses.size() == maxFilters) {
+                throw new IllegalArgumentException("At most " + maxFilters + " metadata filters are allowed");
+            }
+            String[] path = key.substring(PREFIX.length()).split("\\.", -1);
+            if (path.length > MAX_DEPTH || !allMatch(path)) {
+                throw new IllegalArgumentException("Unsupported metadata filter: " + key
+                        + " (keys use letters, digits, '_' or '-', up to " + MAX_DEPTH + " levels; only exact values are supported)");
+            }
+            if (param.getValue().size() != 1) {
+                throw new IllegalArgumentException("Metadata filter " + key + " must have a single value");
+            }
+            String value = param.getValue().get(0);
+            if (value == null || value.isEmpty() || value.length() > maxValueLength) {
+                throw new IllegalArgumentException("Metadata filter " + key + " must have between 1 and " + maxValueLength + " characters");
+            }
+            // Un comodín nunca coincidiría (la contención compara valores exactos): mejor avisar que devolver vacío
+            if (value.indexOf('*') >= 0 || value.indexOf('%') >= 0) {
+                throw new IllegalArgumentException("Metadata filter " + key + " does not support patterns, only exact values");
+            }
+            clauses.add(alternatives(path, value));
+        }
+        if (clauses.isEmpty()) {
+            throw new IllegalArgumentException("At least one metadata filter is required");
+        }
+        return new MetadataFilter(List.copyOf(clauses));
+    }
+
+    private static boolean allMatch(String[] path) {
+        for (String segment : path) {
+            if (!KEY_SEGMENT.matcher(segment).matches()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> alternatives(String[] path, String value) {
+        List<String> documents = new ArrayList<>(2);
+        documents.add(document(path, TextNode.valueOf(value)));
+        if (JSON_NUMBER.matcher(value).matches()) {
+            documents.add(document(path, DecimalNode.valueOf(new BigDecimal(value))));
+        } else if ("true".equals(value) || "false".equals(value)) {
+            documents.add(document(path, BooleanNode.valueOf(Boolean.parseBoolean(value))));
+        }
+        return List.copyOf(documents);
+    }
+
+    // {"a":{"b":valor}} para metadata.a.b (Jackson escapa claves y valores)
+    private static String document(String[] path, JsonNode leaf) {
+        JsonNode node = leaf;
+        for (int i = path.length - 1; i >= 0; i--) {
+            ObjectNode parent = JsonNodeFactory.instance.objectNode();
+            parent.set(path[i], node);
+            node = parent;
+        }
+        return node.toString();
+    }
+}
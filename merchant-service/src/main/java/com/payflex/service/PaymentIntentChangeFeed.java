@@ -0,0 +1,268 @@
+package com.payflex.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.payflex.config.ShardRouter;
+import com.payflex.dto.PaymentIntentChangeEvent;
+import com.payflex.dto.PaymentIntentResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Wrapped;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.Exceptions;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.ConnectableFlux;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Feed en vivo de cambios de payment intents por merchant (Server-Sent Events).
+ *
+ * Cada instancia mantiene una sola conexión con LISTEN payment_intent_changes por shard (el trigger de
+ * V11 publica cada cambio) y reparte las notificaciones a los clientes conectados del merchant, sin
+ * consultas por cliente. Cada evento lleva como id el cursor del cambio (ver ChangeCursor); al reconectar
+ * con Last-Event-ID se reenvían desde la base los cambios posteriores y luego se sigue en vivo.
+ *
+ * Cada cliente tiene un buffer acotado: si no consume a tiempo, o si se cae el LISTEN (se pueden haber
+ * perdido notificaciones), recibe un evento resync y se cierra su stream para que reconecte desde su
+ * último id. Lo mismo pasa con los clientes de un merchant cuando una escritura masiva (importación,
+ * recálculo de refunds) publica un solo aviso de resync en vez de un cambio por fila (ver V17).
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(value = "payment-intents.live.enabled", havingValue = "true", matchIfMissing = true)
+public class PaymentIntentChangeFeed {
+
+    static final String CHANNEL = "payment_intent_changes";
+
+    // Marca interna para cortar los streams abiertos (se compara por identidad)
+    private static final PaymentIntentChangeEvent RESYNC = new PaymentIntentChangeEvent();
+
+    private final ConnectionFactory connectionFactory;
+    private final ShardRouter shardRouter;
+    private final PaymentIntentService paymentIntentService;
+    private final ObjectMapper objectMapper;
+    private final Map<String, Sinks.Many<PaymentIntentChangeEvent>> merchants = new ConcurrentHashMap<>();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final Counter overflows;
+    private final Disposable.Composite listeners = Disposables.composite();
+
+    @Value("${payment-intents.live.buffer-size:256}")
+    private int bufferSize;
+
+    @Value("${payment-intents.live.heartbeat-ms:15000}")
+    private long heartbeatMs;
+
+    // Cambios reenviados como máximo al reconectar; si hay más, el cliente debe ponerse al día con /changes
+    @Value("${payment-intents.live.max-replay:500}")
+    private int maxReplay;
+
+    @Value("${payment-intents.changes.settle-ms:5000}")
+    private long settleMs;
+
+    public PaymentIntentChangeFeed(ConnectionFactory connectionFactory, ShardRouter shardRouter,
+                                   PaymentIntentService paymentIntentService, ObjectMapper objectMapper,
+                                   MeterRegistry meterRegistry) {
+        this.connectionFactory = connectionFactory;
+        this.shardRouter = shardRouter;
+        this.paymentIntentService = paymentIntentService;
+        this.objectMapper = objectMapper;
+        this.overflows = Counter.builder("payflex.live.buffer_overflows").register(meterRegistry);
+        Gauge.builder("payflex.live.subscribers", subscribers, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("payflex.live.merchants", merchants, Map::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        for (int shard : shardRouter.shards()) {
+            listeners.add(listen(shard).subscribe());
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        listeners.dispose();
+    }
+
+    /**
+     * Stream SSE de los cambios del merchant. lastEventId (header Last-Event-ID o parámetro since) es el id
+     * del último evento recibido; vacío = solo cambios nuevos.
+     */
+    public Flux<ServerSentEvent<PaymentIntentChangeEvent>> stream(String merchantId, String lastEventId) {
+        ChangeCursor resumeFrom;
+        try {
+            resumeFrom = ChangeCursor.parse(lastEventId);
+        } catch (IllegalArgumentException e) {
+            return Flux.error(e);
+        }
+
+        return Flux.defer(() -> {
+            // Se conecta al feed antes de leer los pendientes para no perder lo que llegue mientras tanto;
+            // lo repetido entre ambos el cliente lo aplica por id
+            ConnectableFlux<PaymentIntentChangeEvent> live = join(merchantId)
+                    .onBackpressureBuffer(bufferSize, dropped -> overflows.increment(), BufferOverflowStrategy.ERROR)
+                    .publish();
+            Disposable connection = live.connect();
+
+            Flux<ServerSentEvent<PaymentIntentChangeEvent>> events = Flux.concat(replay(merchantId, resumeFrom), live)
+                    .takeUntil(event -> event == RESYNC)
+                    .map(PaymentIntentChangeFeed::toSse)
+                    .onErrorResume(Exceptions::isOverflow, err -> Mono.just(resyncSse()));
+
+            // Comentarios periódicos para que proxies y balanceadores no corten la conexión inactiva;
+            // terminan junto con los eventos
+            return events.publish(shared -> Flux.merge(shared, Flux.interval(Duration.ofMillis(heartbeatMs))
+                            .map(tick -> ServerSentEvent.<PaymentIntentChangeEvent>builder().comment("heartbeat").build())
+                            .takeUntilOther(shared.then(Mono.just(true)))))
+                    .doFinally(signal -> connection.dispose());
+        });
+    }
+
+    private Flux<PaymentIntentChangeEvent> join(String merchantId) {
+        return Flux.defer(() -> {
+                    Sinks.Many<PaymentIntentChangeEvent> sink = merchants.computeIfAbsent(merchantId,
+                            id -> Sinks.many().multicast().directBestEffort());
+                    subscribers.incrementAndGet();
+                    return sink.asFlux();
+                })
+                .doFinally(signal -> {
+                    subscribers.decrementAndGet();
+                    // Sin clientes conectados el merchant deja de ocupar memoria
+                    merchants.computeIfPresent(merchantId, (id, sink) -> sink.currentSubscriberCount() == 0 ? null : sink);
+                });
+    }
+
+    // Cambios posteriores al último id recibido, desde la base (un margen de settle-ms hacia atrás, como en /changes)
+    private Flux<PaymentIntentChangeEvent> replay(String merchantId, ChangeCursor resumeFrom) {
+        if (resumeFrom == null) {
+            return Flux.empty();
+        }
+        ChangeCursor from = new ChangeCursor(resumeFrom.updatedAt().minus(Duration.ofMillis(settleMs)), "");
+        return paymentIntentService.getChangesSince(merchantId, from, maxReplay)
+                .flatMapMany(page -> Flux.fromIterable(page.getChanges())
+                        .map(PaymentIntentChangeFeed::toEvent)
+                        .concatWith(page.isHasMore() ? Mono.just(RESYNC) : Mono.empty()));
+    }
+
+    private Flux<Void> listen(int shard) {
+        return shardRouter.onShard(shard, Flux.usingWhen(
+                        Mono.from(connectionFactory.create()),
+                        connection -> {
+                            PostgresqlConnection postgres = unwrap(connection);
+                            return postgres.createStatement("LISTEN " + CHANNEL).execute()
+                                    .flatMap(result -> result.getRowsUpdated())
+                                    .doOnComplete(() -> log.info("[LIVE] listening on channel={} shard={}", CHANNEL, shard))
+                                    .thenMany(postgres.getNotifications());
+                        },
+                        PaymentIntentChangeFeed::release,
+                        (connection, err) -> release(connection),
+                        PaymentIntentChangeFeed::release))
+                .doOnNext(notification -> {
+                    String payload = notification.getParameter();
+                    if (payload != null) {
+                        dispatch(payload);
+                    }
+                })
+                // getNotifications no termina mientras la conexión esté viva: si termina, hay que reconectar
+                .concatWith(Mono.error(new IllegalStateException("notification stream ended")))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(30))
+                        .transientErrors(true)
+                        .doBeforeRetry(signal -> {
+                            log.warn("[LIVE] listener lost shard={} msg={}", shard, signal.failure().getMessage());
+                            // Lo que se publicó sin LISTEN activo se perdió: que los clientes se pongan al día
+                            merchants.values().forEach(sink -> emit(sink, RESYNC));
+                        }))
+                .then()
+                .flux();
+    }
+
+    // La conexión vuelve al pool: sin el LISTEN, para que no reciba notificaciones de nadie
+    private static Mono<Void> release(Connection connection) {
+        return unwrap(connection).createStatement("UNLISTEN *").execute()
+                .flatMap(result -> result.getRowsUpdated())
+                .onErrorResume(err -> Mono.empty())
+                .then(Mono.from(connection.close()));
+    }
+
+    private void dispatch(String payload) {
+        JsonNode notification;
+        PaymentIntentChangeEvent event;
+        try {
+            notification = objectMapper.readTree(payload);
+            event = objectMapper.treeToValue(notification, PaymentIntentChangeEvent.class);
+        } catch (Exception e) {
+            log.warn("[LIVE] unreadable notification payload={} msg={}", payload, e.getMessage());
+            return;
+        }
+        Sinks.Many<PaymentIntentChangeEvent> sink = merchants.get(event.getMerchantId());
+        if (sink != null) {
+            // {"resync": true, "merchantId": ...}: aviso de payflex_notify_resync tras una escritura masiva
+            emit(sink, notification.path("resync").asBoolean(false) ? RESYNC : event);
+        }
+    }
+
+    // Con varios shards pueden emitir dos hilos a la vez sobre el mismo merchant
+    private static void emit(Sinks.Many<PaymentIntentChangeEvent> sink, PaymentIntentChangeEvent event) {
+        sink.emitNext(event, Sinks.EmitFailureHandler.busyLooping(Duration.ofMillis(100)));
+    }
+
+    private static PostgresqlConnection unwrap(Connection connection) {
+        Object current = connection;
+        while (!(current instanceof PostgresqlConnection) && current instanceof Wrapped<?> wrapped) {
+            current = wrapped.unwrap();
+        }
+        if (current instanceof PostgresqlConnection postgres) {
+            return postgres;
+        }
+        throw new IllegalStateException("LISTEN requires a PostgreSQL connection, got " + connection.getClass().getName());
+    }
+
+    private static PaymentIntentChangeEvent toEvent(PaymentIntentResponse pi) {
+        return PaymentIntentChangeEvent.builder()
+                .id(pi.getId())
+                .merchantId(pi.getMerchantId())
+                .status(pi.getStatus())
+                .amount(pi.getAmount())
+                .currency(pi.getCurrency())
+                .refundedAmount(pi.getRefundedAmount())
+                .updatedAt(pi.getUpdatedAt())
+                .build();
+    }
+
+    private static ServerSentEvent<PaymentIntentChangeEvent> toSse(PaymentIntentChangeEvent event) {
+        if (event == RESYNC) {
+            return resyncSse();
+        }
+        LocalDateTime updatedAt = event.getUpdatedAt() != null ? event.getUpdatedAt() : LocalDateTime.now();
+        return ServerSentEvent.builder(event)
+                .id(new ChangeCursor(updatedAt, event.getId()).encode())
+                .event("payment_intent")
+                .build();
+    }
+
+    // El cliente debe reconectar con su último id (o ponerse al día con /changes)
+    private static ServerSentEvent<PaymentIntentChangeEvent> resyncSse() {
+        return ServerSentEvent.<PaymentIntentChangeEvent>builder().event("resync").build();
+    }
+}
@@ -0,0 +1,369 @@
+package com.payflex.service;
+
+import com.payflex.config.ShardRouter;
+import com.payflex.dto.ExportFormat;
+import com.payflex.dto.ImportJobResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Wrapped;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Importación masiva de payment intents desde CSV o NDJSON.
+ *
+ * El archivo se guarda primero en disco y se procesa en segundo plano en una sola transacción:
+ * COPY FROM STDIN a una tabla temporal (los bytes del archivo pasan tal cual al servidor), luego un
+ * INSERT ... SELECT que agrega solo los ids nuevos y registra en el ledger, en una sola llamada a
+ * payflex_credit_balance_batch, el crédito de los intents succeeded. Si algo falla no queda nada.
+ * La transacción no publica un cambio por fila en el feed en vivo (payflex.suppress_notify, ver V17):
+ * al final se envía un solo resync por merchant con intents nuevos.
+ *
+ * Columnas del CSV (con encabezado): id, merchant_id, customer_id, amount, currency, status,
+ * description, statement_descriptor, created_at. En NDJSON, un objeto por línea con esos mismos
+ * nombres de campo: cada línea se copia como jsonb a una tabla intermedia y jsonb_populate_record la
+ * convierte en una fila de la tabla temporal; de ahí en adelante el proceso es el mismo.
+ *
+ * Con sharding no está disponible: el archivo mezcla merchants de distintos shards y la importación
+ * depende de una sola transacción.
+ */
+@Slf4j
+@Service
+public class PaymentIntentImportService {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final String SUPPRESS_NOTIFY = "SELECT set_config('payflex.suppress_notify', 'on', true)";
+
+    private static final String CREATE_STAGING = """
+        CREATE TEMP TABLE payment_intents_import (
+            id                   VARCHAR(64),
+            merchant_id          VARCHAR(64),
+            customer_id          VARCHAR(64),
+            amount               NUMERIC(19,2),
+            currency             VARCHAR(3),
+            status               VARCHAR(32),
+            description          TEXT,
+            statement_descriptor VARCHAR(64),
+            created_at           TIMESTAMP
+        ) ON COMMIT DROP
+        """;
+
+    private static final String COPY_STAGING = """
+        COPY payment_intents_import (id, merchant_id, customer_id, amount, currency, status, description, statement_descriptor, created_at)
+        FROM STDIN WITH (FORMAT csv, HEADER true)
+        """;
+
+    // NDJSON: una línea por fila en una sola columna jsonb. FORMAT csv no interpreta barras invertidas
+    // (text sí, y rompería los escapes del JSON); comilla y separador son caracteres de control que no
+    // pueden aparecer sin escapar en un JSON válido
+    private static final String CREATE_RAW_STAGING = """
+        CREATE TEMP TABLE payment_intents_import_raw (doc JSONB) ON COMMIT DROP
+        """;
+
+    private static final String COPY_RAW_STAGING = """
+        COPY payment_intents_import_raw (doc) FROM STDIN WITH (FORMAT csv, QUOTE E'\\x01', DELIMITER E'\\x02')
+        """;
+
+    // Las líneas vacías llegan como NULL; los campos que no son columnas se ignoran
+    private static final String POPULATE_STAGING = """
+        INSERT INTO payment_intents_import
+        SELECT r.*
+        FROM payment_intents_import_raw raw,
+             jsonb_populate_record(NULL::payment_intents_import, raw.doc) r
+        WHERE raw.doc IS NOT NULL
+        """;
+
+    private static final String INVALID_ROWS = """
+        SELECT COUNT(*) FILTER (WHERE id IS NULL OR merchant_id IS NULL OR amount IS NULL OR amount < 0) AS invalid_rows,
+               (SELECT string_agg(DISTINCT s.merchant_id, ', ')
+                FROM payment_intents_import s
+                WHERE s.merchant_id IS NOT NULL
+                  AND NOT EXISTS (SELECT 1 FROM merchants m WHERE m.id = s.merchant_id)) AS unknown_merchants
+        FROM payment_intents_import
+        """;
+
+    private static final String ENSURE_BALANCES = """
+        INSERT INTO merchant_balances (merchant_id, available_balance, pending_balance, currency, updated_at)
+        SELECT DISTINCT merchant_id, 0, 0, 'CLP', LOCALTIMESTAMP FROM payment_intents_import
+        ON CONFLICT (merchant_id) DO NOTHING
+        """;
+
+    // Ids ya existentes (registro payment_intent_ids, incluye particiones archivadas) o repetidos en el
+    // archivo se omiten: reimportar es seguro
+    private static final String MERGE = """
+        WITH inserted AS (
+            INSERT INTO payment_intents (id, merchant_id, customer_id, amount, currency, status, capture_method,
+                                         confirmation_method, description, statement_descriptor, client_secret,
+                                         created_at, updated_at)
+            SELECT DISTINCT ON (s.id)
+                   s.id, s.merchant_id, s.customer_id, s.amount, COALESCE(s.currency, 'CLP'), COALESCE(s.status, 'succeeded'),
+                   'automatic', 'automatic', s.description, s.statement_descriptor,
+                   s.id || '_secret_' || md5(random()::TEXT || s.id),
+                   COALESCE(s.created_at, LOCALTIMESTAMP), LOCALTIMESTAMP
+            FROM payment_intents_import s
+            WHERE NOT EXISTS (SELECT 1 FROM payment_intent_ids p WHERE p.id = s.id)
+            ORDER BY s.id
+            ON CONFLICT DO NOTHING
+            RETURNING id, merchant_id, amount, currency, status
+        ), credited AS (
+            SELECT payflex_credit_balance_batch(
+                       array_agg(merchant_id), array_agg(ROUND(amount)::BIGINT), array_agg(currency::TEXT),
+                       array_agg('payment_intent'::TEXT), array_agg(id::TEXT), LOCALTIMESTAMP) AS credited_rows
+            FROM inserted
+            WHERE status = 'succeeded' AND ROUND(amount) > 0
+        ), notified AS (
+            SELECT payflex_notify_resync(merchant_id)
+            FROM (SELECT DISTINCT merchant_id FROM inserted) m
+        )
+        SELECT (SELECT COUNT(*) FROM inserted) AS inserted_rows,
+               (SELECT COALESCE(credited_rows, 0) FROM credited) AS credited_rows,
+               (SELECT COUNT(*) FROM notified) AS notified_merchants
+        """;
+
+    private final ConnectionFactory connectionFactory;
+    private final ShardRouter shardRouter;
+    private final Map<String, ImportJob> jobs = new ConcurrentHashMap<>();
+
+    @Value("${imports.directory:${java.io.tmpdir}/payflex-imports}")
+    private Path importDirectory;
+
+    @Value("${imports.max-bytes:524288000}")
+    private long maxBytes;
+
+    public PaymentIntentImportService(ConnectionFactory connectionFactory, ShardRouter shardRouter) {
+        this.connectionFactory = connectionFactory;
+        this.shardRouter = shardRouter;
+    }
+
+    /**
+     * Guarda el archivo en disco y lanza la importación en segundo plano. El progreso se consulta con getImport.
+     */
+    public ImportJobResponse startImport(InputStream body, ExportFormat format) throws IOException {
+        if (shardRouter.isSharded()) {
+            throw new IllegalArgumentException("Bulk import is not available with database sharding");
+        }
+        Files.createDirectories(importDirectory);
+        ImportJob job = new ImportJob(UUID.randomUUID().toString().replace("-", ""), format);
+        job.file = importDirectory.resolve(job.importId + "." + format.getExtension());
+
+        try (OutputStream out = Files.newOutputStream(job.file)) {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            long total = 0;
+            for (int read = body.read(buffer); read >= 0; read = body.read(buffer)) {
+                total += read;
+                if (total > maxBytes) {
+                    throw new IllegalArgumentException("Import file too large, max " + maxBytes + " bytes");
+                }
+                out.write(buffer, 0, read);
+            }
+            job.totalBytes = total;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(job.file);
+            throw e;
+        }
+
+        // Los estados de importaciones terminadas se conservan un día para consultarlos
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(1);
+        jobs.values().removeIf(old -> old.completedAt != null && old.completedAt.isBefore(cutoff));
+
+        jobs.put(job.importId, job);
+        runImport(job)
+                .subscribeOn(Schedulers.boundedElastic())
+                .doFinally(sig -> deleteQuietly(job.file))
+                .subscribe(v -> { }, err -> {
+                    job.error = err.getMessage();
+                    job.completedAt = LocalDateTime.now();
+                    job.status = "failed";
+                    log.error("[IMPORT][ERR] importId={} msg={}", job.importId, err.getMessage(), err);
+                });
+
+        log.info("[IMPORT] queued importId={} format={} bytes={}", job.importId, format.getExtension(), job.totalBytes);
+        return toResponse(job);
+    }
+
+    public Optional<ImportJobResponse> getImport(String importId) {
+        return Optional.ofNullable(jobs.get(importId)).map(this::toResponse);
+    }
+
+    private Mono<Void> runImport(ImportJob job) {
+        return Mono.usingWhen(Mono.from(connectionFactory.create()),
+                connection -> {
+                    PostgresqlConnection pg = unwrap(connection);
+                    return Mono.from(connection.beginTransaction())
+                            .then(execute(connection, SUPPRESS_NOTIFY))
+                            .then(execute(connection, CREATE_STAGING))
+                            .then(Mono.defer(() -> {
+                                job.status = "copying";
+                                return copyToStaging(connection, pg, job);
+                            }))
+                            .flatMap(staged -> {
+                                job.stagedRows = staged;
+                                job.status = "merging";
+                                return validateStaging(connection)
+                                        .then(execute(connection, ENSURE_BALANCES))
+                                        .then(merge(connection, job));
+                            })
+                            .then(Mono.from(connection.commitTransaction()))
+                            .then(Mono.fromRunnable(() -> {
+                                job.completedAt = LocalDateTime.now();
+                                job.status = "completed";
+                                log.info("[IMPORT] completed importId={} staged={} inserted={} credited={}",
+                                        job.importId, job.stagedRows, job.insertedRows, job.creditedRows);
+                            }))
+                            .onErrorResume(err -> Mono.from(connection.rollbackTransaction()).then(Mono.error(err)))
+                            .then();
+                },
+                Connection::close);
+    }
+
+    // Devuelve las filas copiadas (líneas, en NDJSON)
+    private Mono<Long> copyToStaging(Connection connection, PostgresqlConnection pg, ImportJob job) {
+        if (job.format == ExportFormat.CSV) {
+            return pg.copyIn(COPY_STAGING, readChunks(job));
+        }
+        return execute(connection, CREATE_RAW_STAGING)
+                .then(pg.copyIn(COPY_RAW_STAGING, readChunks(job)))
+                .flatMap(lines -> execute(connection, POPULATE_STAGING).thenReturn(lines));
+    }
+
+    private Mono<Void> validateStaging(Connection connection) {
+        return Flux.from(connection.createStatement(INVALID_ROWS).execute())
+                .flatMap(result -> result.map((row, metadata) -> {
+                    Long invalid = row.get("invalid_rows", Long.class);
+                    String unknown = row.get("unknown_merchants", String.class);
+                    if (invalid != null && invalid > 0) {
+                        throw new IllegalArgumentException(invalid + " row(s) without id, merchant_id or a valid amount");
+                    }
+                    if (unknown != null) {
+                        throw new IllegalArgumentException("Unknown merchants: " + unknown);
+                    }
+                    return true;
+                }))
+                .then();
+    }
+
+    private Mono<Void> merge(Connection connection, ImportJob job) {
+        return Flux.from(connection.createStatement(MERGE).execute())
+                .flatMap(result -> result.map((row, metadata) -> {
+                    job.insertedRows = row.get("inserted_rows", Long.class);
+                    Integer credited = row.get("credited_rows", Integer.class);
+                    job.creditedRows = credited != null ? credited.longValue() : 0L;
+                    return true;
+                }))
+                .then();
+    }
+
+    // El archivo se envía en bloques de CHUNK_SIZE a medida que el servidor los consume
+    private Flux<ByteBuf> readChunks(ImportJob job) {
+        return Flux.<ByteBuf, InputStream>generate(
+                () -> Files.newInputStream(job.file),
+                (in, sink) -> {
+                    try {
+                        byte[] buffer = new byte[CHUNK_SIZE];
+                        int read = in.read(buffer);
+                        if (read < 0) {
+                            sink.complete();
+                        } else {
+                            job.bytesCopied += read;
+                            sink.next(Unpooled.wrappedBuffer(buffer, 0, read));
+                        }
+                    } catch (IOException e) {
+                        sink.error(e);
+                    }
+                    return in;
+                },
+                in -> {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        log.warn("[IMPORT] could not close file importId={} msg={}", job.importId, e.getMessage());
+                    }
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static Mono<Void> execute(Connection connection, String sql) {
+        return Flux.from(connection.createStatement(sql).execute())
+                .flatMap(Result::getRowsUpdated)
+                .then();
+    }
+
+    // El pool entrega un proxy; COPY solo está en la conexión nativa de r2dbc-postgresql
+    private static PostgresqlConnection unwrap(Connection connection) {
+        Object current = connection;
+        while (!(current instanceof PostgresqlConnection) && current instanceof Wrapped<?> wrapped) {
+            current = wrapped.unwrap();
+        }
+        if (current instanceof PostgresqlConnection pg) {
+            return pg;
+        }
+        throw new IllegalStateException("Bulk import requires a PostgreSQL R2DBC connection, got " + connection.getClass().getName());
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("[IMPORT] could not delete file={} msg={}", file, e.getMessage());
+        }
+    }
+
+    private ImportJobResponse toResponse(ImportJob job) {
+        long copied = job.bytesCopied;
+        Double progress = job.totalBytes > 0 ? Math.round(copied * 10000.0 / job.totalBytes) / 100.0 : null;
+        return ImportJobResponse.builder()
+                .importId(job.importId)
+                .status(job.status)
+                .totalBytes(job.totalBytes)
+                .bytesCopied(copied)
+                .progressPercentage(progress)
+                .stagedRows(job.stagedRows)
+                .insertedRows(job.insertedRows)
+                .skippedRows(job.stagedRows != null && job.insertedRows != null ? job.stagedRows - job.insertedRows : null)
+                .creditedRows(job.creditedRows)
+                .error(job.error)
+                .createdAt(job.createdAt)
+                .completedAt(job.completedAt)
+                .build();
+    }
+
+    private static final class ImportJob {
+        private final String importId;
+        private final ExportFormat format;
+        private final LocalDateTime createdAt = LocalDateTime.now();
+        private Path file;
+        private long totalBytes;
+        private volatile long bytesCopied;
+        private volatile String status = "queued";
+        private volatile Long stagedRows;
+        private volatile Long insertedRows;
+        private volatile Long creditedRows;
+        private volatile String error;
+        private volatile LocalDateTime completedAt;
+
+        private ImportJob(String importId, ExportFormat format) {
+            this.importId = importId;
+            this.format = format;
+        }
+    }
+}
@@ -1,35 +1,106 @@
 package com.payflex.service;
 
+import com.payflex.config.ReadReplicaRouting;
+import com.payflex.config.ShardRouter;
 import com.payflex.dto.CreatePaymentIntentRequest;
+import com.payflex.dto.ListingVersion;
+import com.payflex.dto.PaymentIntentChangesResponse;
 import com.payflex.dto.PaymentIntentResponse;
+import com.payflex.dto.PaymentIntentSearchResponse;
+import com.payflex.dto.RawJson;
 import com.payflex.dto.TransactionListResponse;
 import com.payflex.dto.UpdatePaymentIntentRequest;
+import com.payflex.id.TimeOrderedIds;
 import com.payflex.model.PaymentIntent;
+import com.payflex.money.Currencies;
 import com.payflex.repository.PaymentIntentRepository;
+import com.payflex.repository.PaymentIntentRepositoryCustom;
+import io.r2dbc.spi.R2dbcException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
 
 @Service
 public class PaymentIntentService {
     private static final Logger log = LoggerFactory.getLogger(PaymentIntentService.class);
 
+    private static final String SUCCEEDED = "succeeded";
+
+    // Con menos de 3 caracteres no hay trigramas: la búsqueda no podría usar el índice
+    private static final int MIN_SEARCH_LENGTH = 3;
+    private static final int MAX_SEARCH_LENGTH = 100;
+    private static final String QUERY_CANCELED_SQLSTATE = "57014";
+    private static final String UNIQUE_VIOLATION_SQLSTATE = "23505";
+
+    // Extremos del listado del dashboard cuando no se pide rango (la condición queda, pero sin poda)
+    private static final LocalDateTime LISTING_OPEN_FROM = LocalDateTime.of(1970, 1, 1, 0, 0);
+    private static final LocalDateTime LISTING_OPEN_TO = LocalDateTime.of(9999, 12, 31, 0, 0);
+
     private final PaymentIntentRepository paymentIntentRepository;
+    private final RefundService refundService;
+    private final ShardRouter shardRouter;
+    private final TransactionalOperator transactionalOperator;
+
+    @Value("${payment-intents.changes.max-limit:500}")
+    private int maxChangesLimit;
+
+    // Margen para escrituras en curso (y desfase de relojes entre instancias) al avanzar el cursor de cambios
+    @Value("${payment-intents.changes.settle-ms:5000}")
+    private long changesSettleMs;
+
+    // Límites de la búsqueda por metadata: solo consultas que el índice GIN resuelve en pocas filas
+    @Value("${payment-intents.metadata-search.max-filters:5}")
+    private int maxMetadataFilters;
 
-    public PaymentIntentService(PaymentIntentRepository paymentIntentRepository) {
+    @Value("${payment-intents.metadata-search.max-value-length:200}")
+    private int maxMetadataValueLength;
+
+    @Value("${payment-intents.metadata-search.max-limit:100}")
+    private int maxMetadataLimit;
+
+    @Value("${payment-intents.search.max-limit:100}")
+    private int maxSearchLimit;
+
+    @Value("${payment-intents.multi-get.max-ids:100}")
+    private int maxMultiGetIds;
+
+    // Tope de cada consulta de búsqueda en la base (statement_timeout)
+    @Value("${payment-intents.search.timeout-ms:2000}")
+    private long searchTimeoutMs;
+
+    public PaymentIntentService(PaymentIntentRepository paymentIntentRepository, RefundService refundService,
+                                ShardRouter shardRouter, TransactionalOperator transactionalOperator) {
         this.paymentIntentRepository = paymentIntentRepository;
+        this.refundService = refundService;
+        this.shardRouter = shardRouter;
+        this.transactionalOperator = transactionalOperator;
     }
 
     public Mono<PaymentIntentResponse> createPaymentIntent(CreatePaymentIntentRequest request) {
         log.info("[createPaymentIntent] Creating payment intent: {}", request);
 
+        // El crédito al ledger se arma como Money: una moneda desconocida fallaría recién al confirmar el pago
+        if (request.getCurrency() != null && !Currencies.isSupported(request.getCurrency())) {
+            return Mono.error(new IllegalArgumentException("Unsupported currency: " + request.getCurrency()));
+        }
+
         LocalDateTime now = LocalDateTime.now();
-        String paymentIntentId = request.getId() != null ? request.getId() : "pi_" + UUID.randomUUID();
+        String paymentIntentId = request.getId() != null ? request.getId() : TimeOrderedIds.paymentIntentId();
 
         PaymentIntent paymentIntent = PaymentIntent.builder()
                 .id(paymentIntentId)
@@ -50,7 +121,15 @@ public class PaymentIntentService {
         // Set metadata usando el método helper
         paymentIntent.setMetadataFromString(request.getMetadata());
 
-        return paymentIntentRepository.save(paymentIntent)
+        // Un id repetido (p. ej. un POST reintentado con el id del cliente) choca con payment_intent_ids (V15):
+        // si es del mismo merchant se devuelve el intent existente en vez de crear otro
+        Mono<PaymentIntent> create = paymentIntentRepository.save(paymentIntent)
+                .flatMap(saved -> creditIfSucceeded(saved).thenReturn(saved))
+                .onErrorResume(PaymentIntentService::isDuplicateId, err -> paymentIntentRepository.findById(paymentIntentId)
+                        .filter(existing -> existing.getMerchantId().equals(request.getMerchantId()))
+                        .switchIfEmpty(Mono.error(new IllegalArgumentException("Payment intent id already exists: " + paymentIntentId))));
+
+        return shardRouter.onMerchant(request.getMerchantId(), create)
                 .doOnSuccess(pi -> log.info("[createPaymentIntent] Payment intent created successfully: {}", pi.getId()))
                 .doOnError(error -> log.error("[createPaymentIntent] Error creating payment intent", error))
                 .map(this::toResponse);
@@ -58,70 +137,171 @@ public class PaymentIntentService {
 
     public Mono<PaymentIntentResponse> getPaymentIntent(String id) {
         log.info("[getPaymentIntent] Fetching payment intent: {}", id);
-        return paymentIntentRepository.findById(id)
+        return shardRouter.findOwned(shard -> paymentIntentRepository.findById(id), PaymentIntent::getMerchantId)
                 .map(this::toResponse)
                 .doOnSuccess(pi -> log.info("[getPaymentIntent] Payment intent found: {}", id))
                 .switchIfEmpty(Mono.error(new RuntimeException("Payment intent not found: " + id)));
     }
 
+    /**
+     * Varios payment intents por id en el orden pedido; los que no existen se omiten.
+     * Los ids no dicen en qué shard están: una consulta por shard con todos los ids, y de cada intent
+     * vale la fila del shard de su merchant (ver ShardRouter.scatterOwned).
+     */
+    public Flux<PaymentIntentResponse> getPaymentIntentsByIds(List<String> paymentIntentIds) {
+        log.info("[getPaymentIntentsByIds] Fetching payment intents count={}", paymentIntentIds.size());
+
+        List<String> ids = paymentIntentIds.stream()
+                .filter(id -> id != null && !id.isBlank())
+                .distinct()
+                .toList();
+        if (ids.isEmpty()) {
+            return Flux.error(new IllegalArgumentException("ids is required"));
+        }
+        if (ids.size() > maxMultiGetIds) {
+            return Flux.error(new IllegalArgumentException("Too many ids: " + ids.size() + ", max " + maxMultiGetIds));
+        }
+
+        String[] idArray = ids.toArray(String[]::new);
+        Mono<Map<String, PaymentIntent>> byId = shardRouter.scatterOwned(shard -> paymentIntentRepository.findByIdIn(idArray), PaymentIntent::getMerchantId)
+                .collectMap(PaymentIntent::getId);
+
+        return ReadReplicaRouting.readOnly(byId
+                .flatMapIterable(found -> ids.stream().map(found::get).filter(Objects::nonNull).toList()))
+                .map(this::toResponse);
+    }
+
     public Flux<PaymentIntentResponse> getPaymentIntentsByMerchant(String merchantId) {
         log.info("[getPaymentIntentsByMerchant] Fetching payment intents for merchant: {}", merchantId);
-        return paymentIntentRepository.findByMerchantIdOrderByCreatedAtDesc(merchantId)
+        return ReadReplicaRouting.readOnly(shardRouter.onMerchant(merchantId, paymentIntentRepository.findByMerchantIdOrderByCreatedAtDesc(merchantId)))
                 .map(this::toResponse);
     }
 
     public Flux<PaymentIntentResponse> getPaymentIntentsByMerchantAndStatus(String merchantId, String status) {
         log.info("[getPaymentIntentsByMerchantAndStatus] Fetching payment intents for merchant: {} with status: {}", merchantId, status);
-        return paymentIntentRepository.findByMerchantIdAndStatus(merchantId, status)
+        return ReadReplicaRouting.readOnly(shardRouter.onMerchant(merchantId, paymentIntentRepository.findByMerchantIdAndStatus(merchantId, status)))
                 .map(this::toResponse);
     }
 
-    public Mono<PaymentIntentResponse> updatePaymentIntent(String id, UpdatePaymentIntentRequest request) {
-        log.info("[updatePaymentIntent] Updating payment intent: {} with data: {}", id, request);
+    /**
+     * Intents del merchant que coinciden con los parámetros metadata.* de la consulta (ver MetadataFilter),
+     * opcionalmente con el estado dado, los más recientes primero y hasta limit.
+     */
+    public Flux<PaymentIntentResponse> searchByMetadata(String merchantId, String status, Map<String, List<String>> params, int limit) {
+        if (limit < 1 || limit > maxMetadataLimit) {
+            return Flux.error(new IllegalArgumentException("limit must be between 1 and " + maxMetadataLimit));
+        }
+        MetadataFilter filter;
+        try {
+            filter = MetadataFilter.parse(params, maxMetadataFilters, maxMetadataValueLength);
+        } catch (IllegalArgumentException e) {
+            return Flux.error(e);
+        }
+        log.info("[searchByMetadata] Searching payment intents for merchant: {} with metadata: {}", merchantId, filter.clauses());
+        return ReadReplicaRouting.readOnly(shardRouter.onMerchant(merchantId,
+                        paymentIntentRepository.findByMetadataContaining(merchantId, filter.clauses(), status, limit)))
+                .map(this::toResponse);
+    }
 
-        return paymentIntentRepository.findById(id)
-                .switchIfEmpty(Mono.error(new RuntimeException("Payment intent not found: " + id)))
-                .flatMap(existing -> {
-                    // Marcar como no nueva para forzar UPDATE
-                    existing.setNew(false);
+    /**
+     * Búsqueda de texto del dashboard: intents del merchant cuyo id (también parcial), customer_id,
+     * statement_descriptor o description contienen q. Primero las coincidencias exactas de id o customer_id,
+     * luego las de palabras completas y después las parciales; a igual relevancia, los más recientes.
+     * cursor es el nextCursor de la página anterior (vacío = primera página).
+     *
+     * Cada página corre con statement_timeout = payment-intents.search.timeout-ms; si lo supera se rechaza
+     * en vez de ocupar la conexión.
+     */
+    public Mono<PaymentIntentSearchResponse> search(String merchantId, String q, String cursor, int limit) {
+        String query = q != null ? q.strip() : "";
+        if (query.length() < MIN_SEARCH_LENGTH || query.length() > MAX_SEARCH_LENGTH) {
+            return Mono.error(new IllegalArgumentException(
+                    "q must have between " + MIN_SEARCH_LENGTH + " and " + MAX_SEARCH_LENGTH + " characters"));
+        }
+        if (limit < 1 || limit > maxSearchLimit) {
+            return Mono.error(new IllegalArgumentException("limit must be between 1 and " + maxSearchLimit));
+        }
+        SearchCursor position;
+        try {
+            position = SearchCursor.parse(cursor);
+        } catch (IllegalArgumentException e) {
+            return Mono.error(e);
+        }
+        SearchCursor from = position != null ? position : SearchCursor.START;
 
-                    if (request.getStatus() != null) {
-                        existing.setStatus(request.getStatus());
-                    }
-                    if (request.getCustomerId() != null) {
-                        existing.setCustomerId(request.getCustomerId());
-                    }
-                    if (request.getAmount() != null) {
-                        existing.setAmount(request.getAmount());
-                    }
-                    if (request.getCurrency() != null) {
-                        existing.setCurrency(request.getCurrency());
-                    }
-                    if (request.getPaymentMethodId() != null) {
-                        existing.setPaymentMethodId(request.getPaymentMethodId());
-                    }
-                    if (request.getDescription() != null) {
-                        existing.setDescription(request.getDescription());
-                    }
-                    if (request.getStatementDescriptor() != null) {
-                        existing.setStatementDescriptor(request.getStatementDescriptor());
-                    }
-                    if (request.getMetadata() != null) {
-                        existing.setMetadataFromString(request.getMetadata());
-                    }
-                    if (request.getLastPaymentError() != null) {
-                        existing.setLastPaymentErrorFromString(request.getLastPaymentError());
-                    }
+        Mono<PaymentIntentSearchResponse> page = paymentIntentRepository
+                .search(merchantId, query, from.rank(), from.createdAt(), from.id(), limit + 1, Duration.ofMillis(searchTimeoutMs))
+                .collectList()
+                .map(hits -> toSearchPage(hits, limit))
+                // set_config(..., true) solo dura lo que la transacción
+                .as(transactionalOperator::transactional);
 
-                    existing.setUpdatedAt(LocalDateTime.now());
+        return ReadReplicaRouting.readOnly(shardRouter.onMerchant(merchantId, page))
+                .onErrorMap(PaymentIntentService::isQueryCanceled,
+                        err -> new IllegalArgumentException("Search timed out, try a more specific query"));
+    }
 
-                    return paymentIntentRepository.save(existing);
-                })
+    private PaymentIntentSearchResponse toSearchPage(List<PaymentIntentRepositoryCustom.SearchHit> hits, int limit) {
+        boolean hasMore = hits.size() > limit;
+        List<PaymentIntentRepositoryCustom.SearchHit> page = hasMore ? hits.subList(0, limit) : hits;
+
+        String nextCursor = null;
+        if (hasMore) {
+            PaymentIntentRepositoryCustom.SearchHit last = page.get(page.size() - 1);
+            nextCursor = new SearchCursor(last.rank(), last.paymentIntent().getCreatedAt(), last.paymentIntent().getId()).encode();
+        }
+        return PaymentIntentSearchResponse.builder()
+                .results(page.stream().map(hit -> toResponse(hit.paymentIntent())).toList())
+                .nextCursor(nextCursor)
+                .hasMore(hasMore)
+                .build();
+    }
+
+    private static boolean isDuplicateId(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof R2dbcException r2dbcException
+                    && UNIQUE_VIOLATION_SQLSTATE.equals(r2dbcException.getSqlState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isQueryCanceled(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof R2dbcException r2dbcException
+                    && QUERY_CANCELED_SQLSTATE.equals(r2dbcException.getSqlState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Mono<PaymentIntentResponse> updatePaymentIntent(String id, UpdatePaymentIntentRequest request) {
+        log.info("[updatePaymentIntent] Updating payment intent: {} with data: {}", id, request);
+
+        // Un solo UPDATE ... RETURNING * con los campos enviados; sin lectura previa ni reescritura de la fila
+        Mono<PaymentIntent> update = paymentIntentRepository.partialUpdate(id, request, request.getExpectedStatus())
+                .switchIfEmpty(Mono.defer(() -> updateRejection(id, request.getExpectedStatus())))
+                // El crédito es idempotente por payment intent: repetirlo en un intent ya succeeded no acredita de nuevo
+                .flatMap(saved -> SUCCEEDED.equals(request.getStatus()) ? creditIfSucceeded(saved).thenReturn(saved) : Mono.just(saved));
+
+        // Con sharding el id no indica el shard: se ubica el intent antes de actualizarlo
+        return shardRouter.locate(shard -> paymentIntentRepository.findMerchantIdById(id))
+                .flatMap(shard -> shardRouter.onShard(shard, update))
                 .doOnSuccess(pi -> log.info("[updatePaymentIntent] Payment intent updated successfully: {}", id))
                 .doOnError(error -> log.error("[updatePaymentIntent] Error updating payment intent: {}", id, error))
                 .map(this::toResponse);
     }
 
+    // Sin fila actualizada: el intent no existe o su estado no era el esperado
+    private Mono<PaymentIntent> updateRejection(String id, String expectedStatus) {
+        return paymentIntentRepository.findById(id)
+                .switchIfEmpty(Mono.error(new RuntimeException("Payment intent not found: " + id)))
+                .flatMap(current -> Mono.error(new IllegalArgumentException(String.format(
+                        "Payment intent %s has status %s, expected %s", id, current.getStatus(), expectedStatus))));
+    }
+
     public Mono<Void> cancelPaymentIntent(String id) {
         log.info("[cancelPaymentIntent] Canceling payment intent: {}", id);
         return updatePaymentIntent(id, UpdatePaymentIntentRequest.builder()
@@ -130,9 +310,79 @@ public class PaymentIntentService {
                 .then();
     }
 
+    /**
+     * Payment intents del merchant modificados después de since (cursor opaco de una respuesta anterior;
+     * vacío = desde el principio), hasta limit por llamada.
+     *
+     * updated_at lo asigna la aplicación antes del commit, así que un cambio puede hacerse visible con un
+     * updated_at anterior a otro ya entregado. Por eso el cursor devuelto no avanza más allá de
+     * now - settle-ms: los cambios recientes se vuelven a entregar en la consulta siguiente (el cliente
+     * los aplica por id) y ninguno queda atrás del cursor. Se lee del primario: el atraso de una réplica
+     * no está acotado por settle-ms.
+     */
+    public Mono<PaymentIntentChangesResponse> getChangesSince(String merchantId, String since, int limit) {
+        if (limit < 1 || limit > maxChangesLimit) {
+            return Mono.error(new IllegalArgumentException("limit must be between 1 and " + maxChangesLimit));
+        }
+        ChangeCursor cursor;
+        try {
+            cursor = ChangeCursor.parse(since);
+        } catch (IllegalArgumentException e) {
+            return Mono.error(e);
+        }
+        return getChangesSince(merchantId, cursor, limit);
+    }
+
+    /**
+     * Igual que getChangesSince(String, String, int) con el cursor ya decodificado (null = desde el principio).
+     */
+    public Mono<PaymentIntentChangesResponse> getChangesSince(String merchantId, ChangeCursor cursor, int limit) {
+        Flux<PaymentIntent> query = cursor == null
+                ? paymentIntentRepository.findChangesFromStart(merchantId, limit + 1)
+                : paymentIntentRepository.findChangesAfter(merchantId, cursor.updatedAt(), cursor.id(), limit + 1);
+        LocalDateTime horizon = LocalDateTime.now().minus(Duration.ofMillis(changesSettleMs));
+
+        return shardRouter.onMerchant(merchantId, query)
+                .collectList()
+                .map(rows -> {
+                    boolean hasMore = rows.size() > limit;
+                    List<PaymentIntent> page = hasMore ? rows.subList(0, limit) : rows;
+
+                    ChangeCursor next = cursor;
+                    for (PaymentIntent pi : page) {
+                        if (pi.getUpdatedAt() == null || pi.getUpdatedAt().isAfter(horizon)) {
+                            break;
+                        }
+                        next = new ChangeCursor(pi.getUpdatedAt(), pi.getId());
+                    }
+                    return PaymentIntentChangesResponse.builder()
+                            .changes(page.stream().map(this::toResponse).toList())
+                            .nextCursor(next != null ? next.encode() : null)
+                            // Si el cursor no pudo avanzar (todo dentro del margen) no se invita a repetir ya
+                            .hasMore(hasMore && next != cursor)
+                            .build();
+                });
+    }
+
+    /**
+     * Versión del listado que devuelve getTransactionsForDashboard (cantidad, última modificación), leída
+     * con un agregado en vez de las filas: permite responder 304 sin armar la página.
+     */
+    public Mono<ListingVersion> getTransactionsVersion(String merchantId, String status, LocalDateTime from, LocalDateTime to) {
+        LocalDateTime start = listingFrom(from);
+        LocalDateTime end = listingTo(to);
+        Mono<ListingVersion> query = isStatusFilter(status)
+                ? paymentIntentRepository.findListingVersionByStatus(merchantId, status, start, end)
+                : paymentIntentRepository.findListingVersion(merchantId, start, end);
+        return ReadReplicaRouting.readOnly(shardRouter.onMerchant(merchantId, query));
+    }
+
+    // from/to opcionales: sin rango el listado abarca toda la historia del merchant (no poda particiones)
     public Mono<TransactionListResponse> getTransactionsForDashboard(
             String merchantId,
             String status,
+            LocalDateTime from,
+            LocalDateTime to,
             int page,
             int pageSize) {
 
@@ -141,13 +391,13 @@ public class PaymentIntentService {
 
         Flux<PaymentIntent> query;
 
-        if (status != null && !status.isEmpty() && !status.equalsIgnoreCase("all")) {
-            query = paymentIntentRepository.findByMerchantIdAndStatus(merchantId, status);
+        if (isStatusFilter(status)) {
+            query = paymentIntentRepository.findDashboardTransactionsByStatus(merchantId, status, listingFrom(from), listingTo(to));
         } else {
-            query = paymentIntentRepository.findByMerchantIdOrderByCreatedAtDesc(merchantId);
+            query = paymentIntentRepository.findDashboardTransactions(merchantId, listingFrom(from), listingTo(to));
         }
 
-        return query
+        return ReadReplicaRouting.readOnly(shardRouter.onMerchant(merchantId, query))
                 .collectList()
                 .flatMap(allTransactions -> {
                     long totalCount = allTransactions.size();
@@ -174,6 +424,30 @@ public class PaymentIntentService {
                         response.getTransactions().size(), response.getTotalCount()));
     }
 
+    private static LocalDateTime listingFrom(LocalDateTime from) {
+        return from != null ? from : LISTING_OPEN_FROM;
+    }
+
+    private static LocalDateTime listingTo(LocalDateTime to) {
+        return to != null ? to : LISTING_OPEN_TO;
+    }
+
+    private static boolean isStatusFilter(String status) {
+        return status != null && !status.isEmpty() && !status.equalsIgnoreCase("all");
+    }
+
+    // Un pago succeeded acredita su monto al saldo del merchant (idempotente por payment intent)
+    private Mono<Void> creditIfSucceeded(PaymentIntent paymentIntent) {
+        if (!SUCCEEDED.equals(paymentIntent.getStatus())) {
+            return Mono.empty();
+        }
+        return refundService.incrementMerchantBalance(
+                paymentIntent.getMerchantId(),
+                paymentIntent.getAmount(),
+                paymentIntent.getCurrency(),
+                paymentIntent.getId());
+    }
+
     private String generateClientSecret(String paymentIntentId) {
         return paymentIntentId + "_secret_" + UUID.randomUUID().toString().replace("-", "");
     }
@@ -191,12 +465,40 @@ public class PaymentIntentService {
                 .confirmationMethod(paymentIntent.getConfirmationMethod())
                 .description(paymentIntent.getDescription())
                 .statementDescriptor(paymentIntent.getStatementDescriptor())
-                .metadata(paymentIntent.getMetadataAsString())
+                .metadata(RawJson.of(paymentIntent.getMetadata()))
                 .clientSecret(paymentIntent.getClientSecret())
-                .lastPaymentError(paymentIntent.getLastPaymentErrorAsString())
+                .lastPaymentError(RawJson.of(paymentIntent.getLastPaymentError()))
+                .refundedAmount(paymentIntent.getRefundedAmount() != null ? paymentIntent.getRefundedAmount() : BigDecimal.ZERO)
+                .refundCount(paymentIntent.getRefundCount() != null ? paymentIntent.getRefundCount() : 0)
                 .createdAt(paymentIntent.getCreatedAt())
                 .updatedAt(paymentIntent.getUpdatedAt())
                 .build();
     }
-}
 
+    // Último resultado entregado (relevancia, created_at, id); texto opaco (base64url) para el cliente
+    private record SearchCursor(double rank, LocalDateTime createdAt, String id) {
+
+        // Primera página: antes de cualquier resultado (la relevancia máxima es 2)
+        static final SearchCursor START = new SearchCursor(3, LocalDateTime.of(9999, 12, 31, 0, 0), "");
+
+        String encode() {
+            String raw = rank + "|" + createdAt + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static SearchCursor parse(String cursor) {
+            if (cursor == null || cursor.isBlank()) {
+                return null;
+            }
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|", 3);
+                if (parts.length != 3 || parts[2].isEmpty()) {
+                    throw new IllegalArgumentException("Invalid cursor");
+                }
+                return new SearchCursor(Double.parseDouble(parts[0]), LocalDateTime.parse(parts[1]), parts[2]);
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+        }
+    }
+}
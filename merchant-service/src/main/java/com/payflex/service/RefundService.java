@@ -2,14 +2,17 @@ package com.payflex.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.payflex.config.ShardRouter;
 import com.payflex.dto.CreateRefundRequest;
+import com.payflex.dto.RawJson;
 import com.payflex.dto.RefundResponse;
+import com.payflex.id.TimeOrderedIds;
 import com.payflex.model.MerchantBalance;
-import com.payflex.model.PaymentIntent;
 import com.payflex.model.Refund;
 import com.payflex.repository.MerchantBalanceRepository;
 import com.payflex.repository.PaymentIntentRepository;
 import com.payflex.repository.RefundRepository;
+import io.r2dbc.spi.R2dbcException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -19,30 +22,40 @@ import reactor.core.publisher.Mono;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.Map;
-import java.util.UUID;
 
 @Service
 public class RefundService {
     private static final Logger log = LoggerFactory.getLogger(RefundService.class);
+    private static final String WITHDRAWAL_REJECTED_SQLSTATE = "PF001";
 
     private final RefundRepository refundRepository;
-    private final PaymentIntentRepository paymentIntentRepository;
     private final MerchantBalanceRepository merchantBalanceRepository;
+    private final BalanceLedgerService balanceLedgerService;
+    private final BalanceCreditAggregator balanceCreditAggregator;
+    private final PaymentIntentRepository paymentIntentRepository;
+    private final ShardRouter shardRouter;
     private final ObjectMapper objectMapper;
 
     public RefundService(RefundRepository refundRepository,
-                         PaymentIntentRepository paymentIntentRepository,
                          MerchantBalanceRepository merchantBalanceRepository,
+                         BalanceLedgerService balanceLedgerService,
+                         BalanceCreditAggregator balanceCreditAggregator,
+                         PaymentIntentRepository paymentIntentRepository,
+                         ShardRouter shardRouter,
                          ObjectMapper objectMapper) {
         this.refundRepository = refundRepository;
-        this.paymentIntentRepository = paymentIntentRepository;
         this.merchantBalanceRepository = merchantBalanceRepository;
+        this.balanceLedgerService = balanceLedgerService;
+        this.balanceCreditAggregator = balanceCreditAggregator;
+        this.paymentIntentRepository = paymentIntentRepository;
+        this.shardRouter = shardRouter;
         this.objectMapper = objectMapper;
     }
 
     /**
      * Crear un retiro de dinero (withdrawal) del saldo disponible del merchant
-     * Se debe especificar el payment intent del cual provienen los fondos
+     * Se debe especificar el payment intent del cual provienen los fondos.
+     * Validación, descuento del balance e inserción ocurren en una sola llamada a la BD.
      */
     public Mono<RefundResponse> createRefund(CreateRefundRequest request) {
         log.info("[createRefund] Creating withdrawal from payment intent: {}", request);
@@ -56,61 +69,51 @@ public class RefundService {
             return Mono.error(new IllegalArgumentException("Amount is required and must be greater than zero"));
         }
 
-        // Obtener el payment intent para validaciones
-        return paymentIntentRepository.findById(request.getPaymentIntentId())
-                .switchIfEmpty(Mono.error(new IllegalArgumentException("Payment intent not found: " + request.getPaymentIntentId())))
-                .flatMap(paymentIntent -> validateWithdrawal(request, paymentIntent)
-                        .flatMap(validAmount -> createAndSaveWithdrawal(request, paymentIntent, validAmount))
-                )
+        String refundId = TimeOrderedIds.withdrawalId(); // wd = withdrawal
+
+        // El retiro va al shard del payment intent (el de su merchant)
+        return shardRouter.locate(shard -> paymentIntentRepository.findMerchantIdById(request.getPaymentIntentId()))
+                .flatMap(shard -> shardRouter.onShard(shard, refundRepository.createWithdrawal(
+                        refundId,
+                        request.getPaymentIntentId(),
+                        request.getAmount(),
+                        request.getReason() != null ? request.getReason() : "withdrawal",
+                        toMetadataJson(request.getMetadata()),
+                        LocalDateTime.now())))
+                .onErrorMap(this::translateWithdrawalError)
                 .flatMap(this::mapToResponse)
                 .doOnSuccess(response -> log.info("[createRefund] Withdrawal created successfully"))
                 .doOnError(error -> log.error("[createRefund] Error creating withdrawal", error));
     }
 
     /**
-     * Validar el retiro de dinero
+     * Convertir metadata a JSON string si existe
      */
-    private Mono<BigDecimal> validateWithdrawal(CreateRefundRequest request, PaymentIntent paymentIntent) {
-        // Validar que el payment intent esté en estado succeeded
-        if (!"succeeded".equals(paymentIntent.getStatus())) {
-            return Mono.error(new IllegalArgumentException(
-                    "Cannot withdraw from payment intent with status: " + paymentIntent.getStatus()));
+    private String toMetadataJson(Map<String, Object> metadata) {
+        if (metadata == null || metadata.isEmpty()) {
+            return null;
         }
-
-        BigDecimal withdrawalAmount = request.getAmount();
-
-        // Verificar que el monto no exceda el monto del payment intent
-        if (withdrawalAmount.compareTo(paymentIntent.getAmount()) > 0) {
-            return Mono.error(new IllegalArgumentException(
-                    String.format("Withdrawal amount %s cannot exceed payment intent amount %s",
-                            withdrawalAmount, paymentIntent.getAmount())));
+        try {
+            return objectMapper.writeValueAsString(metadata);
+        } catch (JsonProcessingException e) {
+            log.warn("[toMetadataJson] Error converting metadata to JSON", e);
+            return null;
         }
+    }
 
-        // Calcular cuánto ya se ha retirado de este payment intent
-        return refundRepository.sumRefundedAmountByPaymentIntentId(paymentIntent.getId())
-                .defaultIfEmpty(0.0)
-                .flatMap(totalWithdrawn -> {
-                    BigDecimal totalWithdrawnDecimal = BigDecimal.valueOf(totalWithdrawn);
-                    BigDecimal availableFromPaymentIntent = paymentIntent.getAmount().subtract(totalWithdrawnDecimal);
-
-                    if (withdrawalAmount.compareTo(availableFromPaymentIntent) > 0) {
-                        return Mono.error(new IllegalArgumentException(
-                                String.format("Withdrawal amount %s exceeds available from this payment intent %s (already withdrawn: %s)",
-                                        withdrawalAmount, availableFromPaymentIntent, totalWithdrawnDecimal)));
-                    }
-
-                    // Verificar el saldo disponible del merchant
-                    return merchantBalanceRepository.findByMerchantId(paymentIntent.getMerchantId())
-                            .switchIfEmpty(createInitialBalance(paymentIntent.getMerchantId(), paymentIntent.getCurrency()))
-                            .flatMap(balance -> {
-                                if (withdrawalAmount.compareTo(balance.getAvailableBalance()) > 0) {
-                                    return Mono.error(new IllegalArgumentException(
-                                            String.format("Insufficient balance. Available: %s, Requested: %s",
-                                                    balance.getAvailableBalance(), withdrawalAmount)));
-                                }
-                                return Mono.just(withdrawalAmount);
-                            });
-                });
+    /**
+     * Los rechazos de negocio de las funciones de saldo (payflex_create_withdrawal,
+     * payflex_enable_balance_stripes) llegan como SQLSTATE PF001
+     * con el mensaje listo para el cliente.
+     */
+    private Throwable translateWithdrawalError(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof R2dbcException r2dbcException
+                    && WITHDRAWAL_REJECTED_SQLSTATE.equals(r2dbcException.getSqlState())) {
+                return new IllegalArgumentException(r2dbcException.getMessage());
+            }
+        }
+        return error;
     }
 
     /**
@@ -129,69 +132,13 @@ public class RefundService {
         return merchantBalanceRepository.save(balance);
     }
 
-    /**
-     * Crear y guardar el withdrawal/refund
-     */
-    private Mono<Refund> createAndSaveWithdrawal(CreateRefundRequest request, PaymentIntent paymentIntent, BigDecimal amount) {
-        LocalDateTime now = LocalDateTime.now();
-        String refundId = "wd_" + UUID.randomUUID().toString().replace("-", ""); // wd = withdrawal
-
-        Refund refund = Refund.builder()
-                .id(refundId)
-                .chargeId(null)
-                .paymentIntentId(paymentIntent.getId())
-                .merchantId(paymentIntent.getMerchantId())
-                .amount(amount)
-                .currency(paymentIntent.getCurrency())
-                .status("pending")
-                .reason(request.getReason() != null ? request.getReason() : "withdrawal")
-                .createdAt(now)
-                .updatedAt(now)
-                .isNew(true)
-                .build();
-
-        // Convertir metadata a JSON string si existe
-        if (request.getMetadata() != null && !request.getMetadata().isEmpty()) {
-            try {
-                String metadataJson = objectMapper.writeValueAsString(request.getMetadata());
-                refund.setMetadataFromString(metadataJson);
-            } catch (JsonProcessingException e) {
-                log.warn("[createAndSaveWithdrawal] Error converting metadata to JSON", e);
-            }
-        }
-
-        return refundRepository.save(refund)
-                .doOnNext(savedRefund -> savedRefund.markAsNotNew())
-                .flatMap(savedRefund ->
-                    // Descontar del balance disponible del merchant
-                    merchantBalanceRepository.decrementAvailableBalance(
-                            paymentIntent.getMerchantId(),
-                            amount.doubleValue()
-                    )
-                    .flatMap(rowsUpdated -> {
-                        if (rowsUpdated == 0) {
-                            // Si no se pudo descontar, marcar el refund como failed
-                            savedRefund.setStatus("failed");
-                            savedRefund.setUpdatedAt(LocalDateTime.now());
-                            return refundRepository.save(savedRefund)
-                                    .flatMap(failedRefund -> Mono.error(new IllegalArgumentException(
-                                            "Could not decrement balance. Insufficient funds or balance not found.")));
-                        }
-                        // Actualizar el estado a succeeded
-                        savedRefund.setStatus("succeeded");
-                        savedRefund.setUpdatedAt(LocalDateTime.now());
-                        return refundRepository.save(savedRefund);
-                    })
-                );
-    }
-
     /**
      * Obtener un refund/withdrawal por ID
      */
     public Mono<RefundResponse> getRefund(String refundId) {
         log.info("[getRefund] Fetching withdrawal: {}", refundId);
 
-        return refundRepository.findById(refundId)
+        return shardRouter.findOwned(shard -> refundRepository.findById(refundId), Refund::getMerchantId)
                 .switchIfEmpty(Mono.error(new IllegalArgumentException("Withdrawal not found: " + refundId)))
                 .flatMap(this::mapToResponse);
     }
@@ -202,7 +149,8 @@ public class RefundService {
     public Flux<RefundResponse> getRefundsByPaymentIntent(String paymentIntentId) {
         log.info("[getRefundsByPaymentIntent] Fetching withdrawals for payment intent: {}", paymentIntentId);
 
-        return refundRepository.findByPaymentIntentId(paymentIntentId)
+        return shardRouter.locate(shard -> paymentIntentRepository.findMerchantIdById(paymentIntentId))
+                .flatMapMany(shard -> shardRouter.onShard(shard, refundRepository.findByPaymentIntentId(paymentIntentId)))
                 .flatMap(this::mapToResponse);
     }
 
@@ -212,7 +160,7 @@ public class RefundService {
     public Flux<RefundResponse> getRefundsByMerchant(String merchantId) {
         log.info("[getRefundsByMerchant] Fetching withdrawals for merchant: {}", merchantId);
 
-        return refundRepository.findByMerchantId(merchantId)
+        return shardRouter.onMerchant(merchantId, refundRepository.findByMerchantId(merchantId))
                 .flatMap(this::mapToResponse);
     }
 
@@ -222,7 +170,7 @@ public class RefundService {
     public Flux<RefundResponse> getRefundsByMerchantAndStatus(String merchantId, String status) {
         log.info("[getRefundsByMerchantAndStatus] Fetching withdrawals for merchant: {} with status: {}", merchantId, status);
 
-        return refundRepository.findByMerchantIdAndStatus(merchantId, status)
+        return shardRouter.onMerchant(merchantId, refundRepository.findByMerchantIdAndStatus(merchantId, status))
                 .flatMap(this::mapToResponse);
     }
 
@@ -232,7 +180,7 @@ public class RefundService {
     public Mono<Void> cancelRefund(String refundId) {
         log.info("[cancelRefund] Canceling withdrawal: {}", refundId);
 
-        return refundRepository.findById(refundId)
+        Mono<Refund> cancel = refundRepository.findById(refundId)
                 .switchIfEmpty(Mono.error(new IllegalArgumentException("Withdrawal not found: " + refundId)))
                 .flatMap(refund -> {
                     if (!"pending".equals(refund.getStatus())) {
@@ -241,16 +189,21 @@ public class RefundService {
                     }
 
                     // Devolver el dinero al balance
-                    return merchantBalanceRepository.incrementAvailableBalance(
+                    return balanceLedgerService.credit(
                             refund.getMerchantId(),
-                            refund.getAmount().doubleValue()
+                            BalanceLedgerService.toMoney(refund.getAmount(), refund.getCurrency()),
+                            BalanceLedgerService.SOURCE_WITHDRAWAL_CANCEL,
+                            refund.getId()
                     )
-                    .then(Mono.defer(() -> {
-                        refund.setStatus("canceled");
-                        refund.setUpdatedAt(LocalDateTime.now());
-                        return refundRepository.save(refund);
-                    }));
-                })
+                    // El crédito es idempotente por retiro: si el UPDATE falla, reintentar no acredita dos veces
+                    .then(refundRepository.markCanceled(refund.getId(), refund.getCreatedAt(), LocalDateTime.now()))
+                    .flatMap(updated -> updated > 0
+                            ? Mono.just(refund)
+                            : Mono.<Refund>error(new IllegalArgumentException("Withdrawal is no longer pending: " + refund.getId())));
+                });
+
+        return shardRouter.locate(shard -> refundRepository.findMerchantIdById(refundId))
+                .flatMap(shard -> shardRouter.onShard(shard, cancel))
                 .then();
     }
 
@@ -260,28 +213,40 @@ public class RefundService {
     public Mono<MerchantBalance> getMerchantBalance(String merchantId) {
         log.info("[getMerchantBalance] Fetching balance for merchant: {}", merchantId);
 
-        return merchantBalanceRepository.findByMerchantId(merchantId)
+        return shardRouter.onMerchant(merchantId, merchantBalanceRepository.findByMerchantId(merchantId))
                 .switchIfEmpty(Mono.error(new IllegalArgumentException("Merchant balance not found: " + merchantId)));
     }
 
     /**
-     * Actualizar el balance disponible cuando un payment intent es successful
-     * Este método debería ser llamado desde PaymentIntentService
+     * Cambiar la cantidad de franjas del saldo de un merchant (0 las desactiva)
      */
-    public Mono<Void> incrementMerchantBalance(String merchantId, BigDecimal amount, String currency) {
+    public Mono<MerchantBalance> configureBalanceStripes(String merchantId, int stripes) {
+        log.info("[configureBalanceStripes] Setting {} balance stripes for merchant: {}", stripes, merchantId);
+
+        return shardRouter.onMerchant(merchantId, balanceLedgerService.configureStripes(merchantId, stripes))
+                .onErrorMap(this::translateWithdrawalError)
+                .then(getMerchantBalance(merchantId));
+    }
+
+    /**
+     * Actualizar el balance disponible cuando un payment intent es successful.
+     * Se registra como crédito en el ledger, una sola vez por payment intent
+     * (agrupado con otros créditos si balances.credit-coalescing.enabled).
+     */
+    public Mono<Void> incrementMerchantBalance(String merchantId, BigDecimal amount, String currency, String paymentIntentId) {
         log.info("[incrementMerchantBalance] Incrementing balance for merchant: {} by {}", merchantId, amount);
 
-        return merchantBalanceRepository.findByMerchantId(merchantId)
-                .switchIfEmpty(createInitialBalance(merchantId, currency))
-                .flatMap(balance -> merchantBalanceRepository.incrementAvailableBalance(merchantId, amount.doubleValue()))
-                .then();
+        return shardRouter.onMerchant(merchantId, merchantBalanceRepository.existsByMerchantId(merchantId)
+                .flatMap(exists -> exists ? Mono.<Void>empty() : createInitialBalance(merchantId, currency).then())
+                .then(Mono.defer(() -> balanceCreditAggregator.credit(
+                        merchantId, BalanceLedgerService.toMoney(amount, currency), paymentIntentId))));
     }
 
     /**
      * Mapear Refund a RefundResponse
      */
     private Mono<RefundResponse> mapToResponse(Refund refund) {
-        RefundResponse response = RefundResponse.builder()
+        return Mono.just(RefundResponse.builder()
                 .id(refund.getId())
                 .chargeId(refund.getChargeId())
                 .paymentIntentId(refund.getPaymentIntentId())
@@ -290,23 +255,10 @@ public class RefundService {
                 .currency(refund.getCurrency())
                 .status(refund.getStatus())
                 .reason(refund.getReason())
+                // La columna ya es JSON válido: pasa tal cual, sin parsearla a Map
+                .metadata(RawJson.of(refund.getMetadata()))
                 .createdAt(refund.getCreatedAt())
                 .updatedAt(refund.getUpdatedAt())
-                .build();
-
-        // Convertir metadata de JSON a Map
-        if (refund.getMetadata() != null) {
-            try {
-                String metadataJson = refund.getMetadataAsString();
-                @SuppressWarnings("unchecked")
-                Map<String, Object> metadataMap = objectMapper.readValue(metadataJson, Map.class);
-                response.setMetadata(metadataMap);
-            } catch (JsonProcessingException e) {
-                log.warn("[mapToResponse] Error parsing metadata JSON", e);
-            }
-        }
-
-        return Mono.just(response);
+                .build());
     }
 }
-
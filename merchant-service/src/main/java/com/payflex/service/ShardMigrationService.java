@@ -0,0 +1,295 @@
+package com.payflex.service;
+
+import com.payflex.config.ShardRouter;
+import com.payflex.config.ShardedConnectionFactory;
+import com.payflex.dto.ShardMigrationResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mueve un merchant entre shards en dos pasos:
+ *
+ * 1. copyMerchant: copia todas sus filas al shard destino en una transacción del destino, verifica
+ *    cantidades y saldo del ledger contra el origen y recién entonces lo apunta al destino en el directorio.
+ * 2. cleanupMerchant: borra las filas del shard de origen, una vez vencida la caché del directorio en
+ *    todas las instancias (directory-cache-ttl-ms) y solo si el contenido de cada tabla coincide fila
+ *    por fila con el destino.
+ *
+ * Desde la copia hasta la limpieza el merchant no debe recibir escrituras (pausarlo en el gateway):
+ * una instancia con la caché vieja puede escribir en el origen, y esa fila se perdería al limpiar.
+ * Si cambian las filas del origen durante la copia la verificación falla y la copia se revierte; si
+ * cambian después, la limpieza se rechaza hasta reconciliar los shards. En los dos casos se puede reintentar.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "database.shards", name = "urls")
+public class ShardMigrationService {
+
+    // Tablas con datos de un merchant, padres antes que hijos (el borrado va en orden inverso)
+    private static final List<MerchantTable> TABLES = List.of(
+            new MerchantTable("merchants", "id", "id", true),
+            new MerchantTable("merchant_users", "merchant_id", "user_id", true),
+            new MerchantTable("merchant_addresses", "merchant_id", "id", true),
+            new MerchantTable("merchant_balances", "merchant_id", "id", true),
+            new MerchantTable("merchant_balance_stripes", "merchant_id", "stripe", true),
+            new MerchantTable("merchant_payment_configs", "merchant_id", "id", true),
+            new MerchantTable("customers", "merchant_id", "id", true),
+            new MerchantTable("payment_methods", "merchant_id", "id", true),
+            new MerchantTable("products", "merchant_id", "id", true),
+            new MerchantTable("payment_intents", "merchant_id", "id", true),
+            new MerchantTable("refunds", "merchant_id", "id", true),
+            // El ledger se reinserta con ids nuevos del destino, en el mismo orden
+            new MerchantTable("balance_transactions", "merchant_id", "id", true),
+            // Los snapshots apuntan a ids del ledger de origen: no se copian, el destino suma el ledger completo
+            new MerchantTable("merchant_balance_snapshots", "merchant_id", "last_entry_id", false));
+
+    // Columnas a insertar: todas menos las que numera una secuencia (SERIAL/BIGSERIAL)
+    private static final String INSERTABLE_COLUMNS = """
+        SELECT column_name
+        FROM information_schema.columns
+        WHERE table_schema = current_schema()
+          AND table_name = :table
+          AND COALESCE(column_default, '') NOT LIKE 'nextval(%'
+          AND is_generated = 'NEVER'
+        ORDER BY ordinal_position
+        """;
+
+    private static final int COPY_BATCH_ROWS = 500;
+
+    private final ShardRouter shardRouter;
+    private final List<DatabaseClient> clients = new ArrayList<>();
+    private final List<TransactionalOperator> transactions = new ArrayList<>();
+
+    @Value("${database.shards.directory-cache-ttl-ms:30000}")
+    private long directoryCacheTtlMs;
+
+    // Cada shard con su propio pool y transacción: la copia lee de uno mientras escribe en otro
+    public ShardMigrationService(ShardRouter shardRouter, ShardedConnectionFactory shardedConnectionFactory) {
+        this.shardRouter = shardRouter;
+        for (int shard = 0; shard < shardedConnectionFactory.shardCount(); shard++) {
+            clients.add(DatabaseClient.create(shardedConnectionFactory.shard(shard)));
+            transactions.add(TransactionalOperator.create(new R2dbcTransactionManager(shardedConnectionFactory.shard(shard))));
+        }
+    }
+
+    /**
+     * Copia el merchant a targetShard y lo apunta ahí. Con dryRun solo informa lo que se copiaría.
+     */
+    public Mono<ShardMigrationResponse> copyMerchant(String merchantId, int targetShard, boolean dryRun) {
+        return currentShard(merchantId)
+                .flatMap(sourceShard -> {
+                    shardRouter.requireShard(targetShard);
+                    if (sourceShard == targetShard) {
+                        return Mono.error(new IllegalArgumentException("Merchant " + merchantId + " is already on shard " + targetShard));
+                    }
+                    DatabaseClient source = clients.get(sourceShard);
+
+                    return Mono.zip(countRows(source, merchantId), ledgerBalance(source, merchantId))
+                            .flatMap(expected -> {
+                                Map<String, Long> rows = expected.getT1();
+                                long balance = expected.getT2();
+                                if (rows.get("merchants") == 0) {
+                                    return Mono.error(new IllegalArgumentException("Merchant not found on shard " + sourceShard + ": " + merchantId));
+                                }
+                                ShardMigrationResponse.ShardMigrationResponseBuilder response = ShardMigrationResponse.builder()
+                                        .merchantId(merchantId)
+                                        .sourceShard(sourceShard)
+                                        .targetShard(targetShard)
+                                        .rows(rows)
+                                        .ledgerBalanceMinor(balance);
+                                if (dryRun) {
+                                    return Mono.just(response.status("planned").build());
+                                }
+
+                                log.info("[SHARDS] copying merchantId={} from shard {} to shard {} rows={}", merchantId, sourceShard, targetShard, rows);
+                                return copy(source, targetShard, merchantId, rows, balance)
+                                        .then(shardRouter.moveMerchant(merchantId, targetShard))
+                                        .thenReturn(response.status("copied").build());
+                            });
+                });
+    }
+
+    /**
+     * Borra las filas que el merchant dejó en sourceShard después de moverlo.
+     */
+    public Mono<ShardMigrationResponse> cleanupMerchant(String merchantId, int sourceShard) {
+        return currentShard(merchantId)
+                .flatMap(currentShard -> {
+                    shardRouter.requireShard(sourceShard);
+                    if (currentShard == sourceShard) {
+                        return Mono.error(new IllegalArgumentException(
+                                "Merchant " + merchantId + " is still routed to shard " + sourceShard + ", copy it first"));
+                    }
+                    DatabaseClient source = clients.get(sourceShard);
+
+                    // Contar filas no alcanza: un update en el origen después de la copia no cambia la cantidad
+                    return requireDirectorySettled(merchantId)
+                            .then(Mono.zip(countRows(source, merchantId),
+                                    contentChecksums(source, merchantId),
+                                    contentChecksums(clients.get(currentShard), merchantId)))
+                            .flatMap(state -> {
+                                Map<String, Long> leftover = state.getT1();
+                                Map<String, String> moved = state.getT3();
+                                List<String> differing = state.getT2().entrySet().stream()
+                                        .filter(table -> !table.getValue().equals(moved.get(table.getKey())))
+                                        .map(Map.Entry::getKey)
+                                        .toList();
+                                if (!differing.isEmpty()) {
+                                    return Mono.error(new IllegalArgumentException(String.format(
+                                            "Shards %d and %d differ for %s in %s; it was written after the copy, reconcile before cleanup",
+                                            sourceShard, currentShard, merchantId, differing)));
+                                }
+
+                                log.info("[SHARDS] removing merchantId={} from shard {} rows={}", merchantId, sourceShard, leftover);
+                                return deleteRows(source, merchantId)
+                                        .as(transactions.get(sourceShard)::transactional)
+                                        .thenReturn(ShardMigrationResponse.builder()
+                                                .merchantId(merchantId)
+                                                .sourceShard(sourceShard)
+                                                .targetShard(currentShard)
+                                                .status("cleaned")
+                                                .rows(leftover)
+                                                .build());
+                            });
+                });
+    }
+
+    private Mono<Integer> currentShard(String merchantId) {
+        // Sin caché: la migración decide con lo que dice el directorio ahora
+        return Mono.defer(() -> {
+            shardRouter.evict(merchantId);
+            return shardRouter.shardOf(merchantId);
+        });
+    }
+
+    private Mono<Void> copy(DatabaseClient source, int targetShard, String merchantId, Map<String, Long> expectedRows, long expectedBalance) {
+        DatabaseClient target = clients.get(targetShard);
+
+        return deleteRows(target, merchantId) // restos de un intento anterior
+                .thenMany(Flux.fromIterable(TABLES)
+                        .filter(MerchantTable::copied)
+                        .concatMap(table -> copyTable(source, target, table, merchantId)))
+                .then(Mono.zip(countRows(target, merchantId), ledgerBalance(target, merchantId)))
+                .flatMap(copied -> {
+                    if (!copied.getT1().equals(expectedRows) || copied.getT2() != expectedBalance) {
+                        return Mono.error(new IllegalArgumentException(String.format(
+                                "Copy of %s does not match the source (rows %s vs %s, balance %d vs %d); was it written during the move?",
+                                merchantId, copied.getT1(), expectedRows, copied.getT2(), expectedBalance)));
+                    }
+                    return Mono.<Void>empty();
+                })
+                .as(transactions.get(targetShard)::transactional);
+    }
+
+    // Las filas viajan como JSON (row_to_json / json_populate_recordset): el servidor convierte los tipos
+    private Mono<Long> copyTable(DatabaseClient source, DatabaseClient target, MerchantTable table, String merchantId) {
+        return insertableColumns(target, table)
+                .flatMap(columns -> {
+                    String columnList = String.join(", ", columns);
+                    String insert = "INSERT INTO " + table.name() + " (" + columnList + ") SELECT " + columnList
+                            + " FROM json_populate_recordset(NULL::" + table.name() + ", CAST(:rows AS json))";
+
+                    return source.sql("SELECT CAST(row_to_json(t) AS TEXT) AS row_json FROM " + table.name() + " t"
+                                    + " WHERE t." + table.merchantColumn() + " = :merchantId ORDER BY t." + table.orderColumn())
+                            .bind("merchantId", merchantId)
+                            .map(row -> row.get("row_json", String.class))
+                            .all()
+                            .buffer(COPY_BATCH_ROWS)
+                            .concatMap(batch -> target.sql(insert)
+                                    .bind("rows", "[" + String.join(",", batch) + "]")
+                                    .fetch()
+                                    .rowsUpdated())
+                            .reduce(0L, Long::sum);
+                })
+                .doOnNext(copied -> log.debug("[SHARDS] merchantId={} table={} copied={}", merchantId, table.name(), copied));
+    }
+
+    private Mono<Void> deleteRows(DatabaseClient db, String merchantId) {
+        List<MerchantTable> childrenFirst = new ArrayList<>(TABLES);
+        Collections.reverse(childrenFirst);
+
+        return Flux.fromIterable(childrenFirst)
+                .concatMap(table -> db.sql("DELETE FROM " + table.name() + " WHERE " + table.merchantColumn() + " = :merchantId")
+                        .bind("merchantId", merchantId)
+                        .fetch()
+                        .rowsUpdated())
+                .then();
+    }
+
+    private Mono<Map<String, Long>> countRows(DatabaseClient db, String merchantId) {
+        return Flux.fromIterable(TABLES)
+                .filter(MerchantTable::copied)
+                .concatMap(table -> db.sql("SELECT COUNT(*) AS n FROM " + table.name() + " WHERE " + table.merchantColumn() + " = :merchantId")
+                        .bind("merchantId", merchantId)
+                        .map(row -> row.get("n", Long.class))
+                        .one()
+                        .map(count -> Map.entry(table.name(), count)))
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue, LinkedHashMap::new);
+    }
+
+    /**
+     * Checksum por tabla del contenido de las filas del merchant, sin las columnas de secuencia (la copia
+     * las renumera): el md5 de cada fila, ordenados, así el resultado no depende de esos ids.
+     */
+    private Mono<Map<String, String>> contentChecksums(DatabaseClient db, String merchantId) {
+        return Flux.fromIterable(TABLES)
+                .filter(MerchantTable::copied)
+                .concatMap(table -> insertableColumns(db, table)
+                        .flatMap(columns -> db.sql("SELECT md5(COALESCE(string_agg(f, ',' ORDER BY f), '')) AS checksum"
+                                        + " FROM (SELECT md5(CAST(json_build_array(" + String.join(", ", columns) + ") AS TEXT)) AS f"
+                                        + " FROM " + table.name() + " WHERE " + table.merchantColumn() + " = :merchantId) t")
+                                .bind("merchantId", merchantId)
+                                .map(row -> row.get("checksum", String.class))
+                                .one())
+                        .map(checksum -> Map.entry(table.name(), checksum)))
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue, LinkedHashMap::new);
+    }
+
+    private Mono<List<String>> insertableColumns(DatabaseClient db, MerchantTable table) {
+        return db.sql(INSERTABLE_COLUMNS)
+                .bind("table", table.name())
+                .map(row -> row.get("column_name", String.class))
+                .all()
+                .collectList();
+    }
+
+    private Mono<Long> ledgerBalance(DatabaseClient db, String merchantId) {
+        return db.sql("SELECT payflex_ledger_balance(:merchantId) AS balance")
+                .bind("merchantId", merchantId)
+                .map(row -> row.get("balance", Long.class))
+                .one();
+    }
+
+    // Hasta que vence la caché del directorio, otras instancias pueden seguir leyendo del shard de origen
+    private Mono<Void> requireDirectorySettled(String merchantId) {
+        return clients.get(ShardRouter.DEFAULT_SHARD).sql("SELECT updated_at FROM merchant_shards WHERE merchant_id = :merchantId")
+                .bind("merchantId", merchantId)
+                .map(row -> row.get("updated_at", LocalDateTime.class))
+                .one()
+                .flatMap(movedAt -> {
+                    LocalDateTime settledAt = movedAt.plusNanos(directoryCacheTtlMs * 1_000_000);
+                    if (settledAt.isAfter(LocalDateTime.now())) {
+                        return Mono.error(new IllegalArgumentException(
+                                "Merchant " + merchantId + " was moved at " + movedAt + ", retry cleanup after " + settledAt));
+                    }
+                    return Mono.<Void>empty();
+                });
+    }
+
+    private record MerchantTable(String name, String merchantColumn, String orderColumn, boolean copied) {
+    }
+}
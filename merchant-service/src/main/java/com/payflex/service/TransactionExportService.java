@@ -0,0 +1,330 @@
+package com.payflex.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.payflex.config.ReadReplicaRouting;
+import com.payflex.config.ShardRouter;
+import com.payflex.dto.ExportFormat;
+import com.payflex.dto.ExportJobResponse;
+import com.payflex.model.PaymentIntent;
+import com.payflex.repository.PaymentIntentRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exportación de transacciones (payment intents) de un merchant en CSV o NDJSON.
+ *
+ * Las filas se leen en streaming desde R2DBC y se escriben directo al stream de salida, sin armar el
+ * archivo en memoria. En modo asíncrono se escribe un .gz en exports.directory y se consulta el estado
+ * por exportId; los trabajos viven en memoria de esta instancia y los archivos los limpia ExportCleanupJob.
+ */
+@Slf4j
+@Service
+public class TransactionExportService {
+
+    private static final String[] CSV_HEADER = {"id", "created_at", "updated_at", "status", "amount", "currency",
+            "refunded_amount", "refund_count", "customer_id", "payment_method_id", "description", "statement_descriptor"};
+
+    // Filas pedidas por adelantado al cursor R2DBC mientras se escribe
+    private static final int PREFETCH = 256;
+
+    private final PaymentIntentRepository paymentIntentRepository;
+    private final ObjectMapper objectMapper;
+    private final ShardRouter shardRouter;
+    private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+
+    @Value("${exports.directory:${java.io.tmpdir}/payflex-exports}")
+    private Path exportDirectory;
+
+    @Value("${exports.max-range-days:366}")
+    private long maxRangeDays;
+
+    public TransactionExportService(PaymentIntentRepository paymentIntentRepository, ObjectMapper objectMapper,
+                                    ShardRouter shardRouter) {
+        this.paymentIntentRepository = paymentIntentRepository;
+        this.objectMapper = objectMapper;
+        this.shardRouter = shardRouter;
+    }
+
+    public void validateRange(LocalDateTime from, LocalDateTime to) {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("from and to are required");
+        }
+        if (!from.isBefore(to)) {
+            throw new IllegalArgumentException("from must be before to");
+        }
+        if (Duration.between(from, to).toDays() > maxRangeDays) {
+            throw new IllegalArgumentException("Range too large, max " + maxRangeDays + " days");
+        }
+    }
+
+    /**
+     * Escribe la exportación completa en out (bloqueante: se llama desde el hilo del StreamingResponseBody
+     * o desde boundedElastic). Devuelve la cantidad de filas.
+     */
+    public long writeExport(OutputStream out, String merchantId, LocalDateTime from, LocalDateTime to, ExportFormat format)
+            throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        JsonGenerator json = null;
+        if (format == ExportFormat.NDJSON) {
+            // Sin separador entre valores raíz (el salto de línea lo escribimos nosotros) y sin flush al writer en cada fila
+            json = objectMapper.getFactory().createGenerator(writer)
+                    .setRootValueSeparator(null)
+                    .disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+        }
+
+        if (format == ExportFormat.CSV) {
+            writeCsvRow(writer, CSV_HEADER);
+        }
+
+        long rows = 0;
+        Iterable<PaymentIntent> intents = ReadReplicaRouting.readOnly(
+                shardRouter.onMerchant(merchantId, paymentIntentRepository.findForExport(merchantId, from, to))).toIterable(PREFETCH);
+        for (PaymentIntent pi : intents) {
+            if (json != null) {
+                writeJsonRow(json, pi);
+                json.flush();
+                writer.write('\n');
+            } else {
+                writeCsvRow(writer, new String[]{
+                        pi.getId(), toText(pi.getCreatedAt()), toText(pi.getUpdatedAt()), pi.getStatus(),
+                        toText(pi.getAmount()), pi.getCurrency(), toText(pi.getRefundedAmount()),
+                        pi.getRefundCount() != null ? pi.getRefundCount().toString() : "0",
+                        pi.getCustomerId(), pi.getPaymentMethodId(), pi.getDescription(), pi.getStatementDescriptor()});
+            }
+            rows++;
+        }
+        writer.flush();
+        return rows;
+    }
+
+    /**
+     * Inicia una exportación asíncrona a archivo .gz; el resultado se consulta con getExport.
+     */
+    public ExportJobResponse startExport(String merchantId, LocalDateTime from, LocalDateTime to, ExportFormat format) {
+        validateRange(from, to);
+
+        ExportJob job = new ExportJob(UUID.randomUUID().toString().replace("-", ""), merchantId, format, from, to);
+        jobs.put(job.exportId, job);
+
+        // La ruta queda en el trabajo antes de escribir: si el proceso se corta, la purga la encuentra igual
+        job.file = exportDirectory.resolve(job.exportId + "." + format.getExtension() + ".gz");
+
+        Mono.fromCallable(() -> {
+                    Files.createDirectories(exportDirectory);
+                    try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(job.file), 64 * 1024)) {
+                        job.rows = writeExport(out, merchantId, from, to, format);
+                    } catch (IOException | RuntimeException e) {
+                        deleteFile(job.file);
+                        throw e;
+                    }
+                    return job.file;
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .subscribe(file -> {
+                    job.completedAt = LocalDateTime.now();
+                    job.status = "completed";
+                    log.info("[EXPORT] completed exportId={} merchantId={} rows={}", job.exportId, merchantId, job.rows);
+                }, err -> {
+                    job.error = err.getMessage();
+                    job.completedAt = LocalDateTime.now();
+                    job.status = "failed";
+                    log.error("[EXPORT][ERR] exportId={} merchantId={} msg={}", job.exportId, merchantId, err.getMessage(), err);
+                });
+
+        return toResponse(job);
+    }
+
+    public Optional<ExportJobResponse> getExport(String merchantId, String exportId) {
+        return findJob(merchantId, exportId).map(this::toResponse);
+    }
+
+    /**
+     * Archivo de una exportación terminada, si existe.
+     */
+    public Optional<Path> getExportFile(String merchantId, String exportId) {
+        return findJob(merchantId, exportId)
+                .filter(job -> "completed".equals(job.status))
+                .map(job -> job.file)
+                .filter(Files::exists);
+    }
+
+    /**
+     * Elimina trabajos terminados antes de cutoff junto con sus archivos. Devuelve cuántos se borraron.
+     */
+    public int purgeExportsOlderThan(LocalDateTime cutoff) {
+        int purged = 0;
+        for (ExportJob job : jobs.values()) {
+            if (job.completedAt != null && job.completedAt.isBefore(cutoff)) {
+                jobs.remove(job.exportId);
+                if (job.file != null) {
+                    deleteFile(job.file);
+                }
+                purged++;
+            }
+        }
+        return purged;
+    }
+
+    /**
+     * Borra de exports.directory los archivos sin modificar desde antes de cutoff que no pertenecen a un
+     * trabajo en curso: los que dejó otra instancia, un reinicio o una exportación cortada a mitad de camino.
+     * Devuelve cuántos se borraron.
+     */
+    public int purgeFilesOlderThan(LocalDateTime cutoff) {
+        if (!Files.isDirectory(exportDirectory)) {
+            return 0;
+        }
+        Set<Path> running = jobs.values().stream()
+                .filter(job -> "running".equals(job.status) && job.file != null)
+                .map(job -> job.file)
+                .collect(Collectors.toSet());
+        Instant cutoffInstant = cutoff.atZone(ZoneId.systemDefault()).toInstant();
+
+        int purged = 0;
+        try (Stream<Path> files = Files.list(exportDirectory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (running.contains(file) || !Files.isRegularFile(file)) {
+                    continue;
+                }
+                if (Files.getLastModifiedTime(file).toInstant().isBefore(cutoffInstant) && deleteFile(file)) {
+                    purged++;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("[EXPORT] could not list directory={} msg={}", exportDirectory, e.getMessage());
+        }
+        return purged;
+    }
+
+    private boolean deleteFile(Path file) {
+        try {
+            return Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("[EXPORT] could not delete file={} msg={}", file, e.getMessage());
+            return false;
+        }
+    }
+
+    private Optional<ExportJob> findJob(String merchantId, String exportId) {
+        return Optional.ofNullable(jobs.get(exportId)).filter(job -> job.merchantId.equals(merchantId));
+    }
+
+    private ExportJobResponse toResponse(ExportJob job) {
+        return ExportJobResponse.builder()
+                .exportId(job.exportId)
+                .merchantId(job.merchantId)
+                .format(job.format.getExtension())
+                .status(job.status)
+                .rows(job.rows)
+                .downloadUrl("completed".equals(job.status)
+                        ? "/merchants/" + job.merchantId + "/exports/" + job.exportId + "/download"
+                        : null)
+                .error(job.error)
+                .from(job.from)
+                .to(job.to)
+                .createdAt(job.createdAt)
+                .completedAt(job.completedAt)
+                .build();
+    }
+
+    private void writeJsonRow(JsonGenerator json, PaymentIntent pi) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("id", pi.getId());
+        json.writeStringField("createdAt", toText(pi.getCreatedAt()));
+        json.writeStringField("updatedAt", toText(pi.getUpdatedAt()));
+        json.writeStringField("status", pi.getStatus());
+        writeNumber(json, "amount", pi.getAmount());
+        json.writeStringField("currency", pi.getCurrency());
+        writeNumber(json, "refundedAmount", pi.getRefundedAmount() != null ? pi.getRefundedAmount() : BigDecimal.ZERO);
+        json.writeNumberField("refundCount", pi.getRefundCount() != null ? pi.getRefundCount() : 0);
+        json.writeStringField("customerId", pi.getCustomerId());
+        json.writeStringField("paymentMethodId", pi.getPaymentMethodId());
+        json.writeStringField("description", pi.getDescription());
+        json.writeStringField("statementDescriptor", pi.getStatementDescriptor());
+        json.writeEndObject();
+    }
+
+    private static void writeNumber(JsonGenerator json, String field, BigDecimal value) throws IOException {
+        if (value == null) {
+            json.writeNullField(field);
+        } else {
+            json.writeNumberField(field, value);
+        }
+    }
+
+    // RFC 4180: comillas solo si el valor tiene separador, comillas o saltos de línea
+    private static void writeCsvRow(Writer writer, String[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            String value = values[i];
+            if (value == null) {
+                continue;
+            }
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                writer.write('"');
+                writer.write(value.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(value);
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    private static String toText(Object value) {
+        if (value == null) {
+            return null;
+        }
+        return value instanceof BigDecimal decimal ? decimal.toPlainString() : value.toString();
+    }
+
+    private static final class ExportJob {
+        private final String exportId;
+        private final String merchantId;
+        private final ExportFormat format;
+        private final LocalDateTime from;
+        private final LocalDateTime to;
+        private final LocalDateTime createdAt = LocalDateTime.now();
+        private volatile String status = "running";
+        private volatile Long rows;
+        private volatile Path file;
+        private volatile String error;
+        private volatile LocalDateTime completedAt;
+
+        private ExportJob(String exportId, String merchantId, ExportFormat format, LocalDateTime from, LocalDateTime to) {
+            this.exportId = exportId;
+            this.merchantId = merchantId;
+            this.format = format;
+            this.from = from;
+            this.to = to;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.payflex.web;
+
+import com.payflex.dto.BalanceTransactionPageResponse;
+import com.payflex.service.BalanceTimelineService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+@Slf4j
+@RestController
+@RequestMapping("/merchants")
+@RequiredArgsConstructor
+public class BalanceTransactionController {
+
+    private final BalanceTimelineService balanceTimelineService;
+
+    // Pagos y retiros en una sola línea de tiempo con el saldo después de cada uno.
+    // La página siguiente se pide con cursor=<nextCursor de la respuesta anterior>
+    @GetMapping(value = "/{merchantId}/balance-transactions", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<BalanceTransactionPageResponse> getBalanceTransactions(
+            @PathVariable String merchantId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false, defaultValue = "25") int limit) {
+        log.info("Getting balance transactions for merchant: {} limit: {} paged: {}", merchantId, limit, cursor != null);
+        return balanceTimelineService.getBalanceTransactions(merchantId, cursor, limit);
+    }
+}
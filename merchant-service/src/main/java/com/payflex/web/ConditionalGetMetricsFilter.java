@@ -0,0 +1,165 @@
+package com.payflex.web;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Métricas de los GET con ETag (ver ETags): latencia por resultado y bytes ahorrados por los 304.
+ *
+ * payflex.http.conditional.requests{endpoint, outcome}: outcome es not_modified (304), modified
+ * (If-None-Match que no coincidió) o unconditional (sin If-None-Match).
+ * payflex.http.conditional.bytes_saved{endpoint}: tamaño del último 200 enviado con ese ETag, registrado
+ * en cada 304. Los tamaños se recuerdan en una caché acotada; un 304 sin tamaño conocido no se suma.
+ *
+ * Los endpoints reactivos terminan en un redespacho async: el tiempo se mide desde el primer despacho
+ * y los bytes se suman entre despachos.
+ */
+@Component
+public class ConditionalGetMetricsFilter extends OncePerRequestFilter {
+
+    private static final String START_ATTRIBUTE = ConditionalGetMetricsFilter.class.getName() + ".start";
+    private static final String BYTES_ATTRIBUTE = ConditionalGetMetricsFilter.class.getName() + ".bytes";
+
+    private final MeterRegistry meterRegistry;
+    private final Cache<String, Long> bodySizes;
+
+    public ConditionalGetMetricsFilter(MeterRegistry meterRegistry,
+                                       @Value("${http.conditional.tracked-etags:10000}") long trackedEtags) {
+        this.meterRegistry = meterRegistry;
+        this.bodySizes = Caffeine.newBuilder().maximumSize(trackedEtags).build();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !"GET".equals(request.getMethod());
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (request.getAttribute(START_ATTRIBUTE) == null) {
+            request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        }
+        CountingResponse counting = new CountingResponse(response);
+        try {
+            chain.doFilter(request, counting);
+        } finally {
+            Long previous = (Long) request.getAttribute(BYTES_ATTRIBUTE);
+            long bytes = (previous != null ? previous : 0L) + counting.bytes;
+            request.setAttribute(BYTES_ATTRIBUTE, bytes);
+            if (!isAsyncStarted(request)) {
+                record(request, response, bytes);
+            }
+        }
+    }
+
+    private void record(HttpServletRequest request, HttpServletResponse response, long bytes) {
+        String etag = response.getHeader(HttpHeaders.ETAG);
+        if (etag == null) {
+            return;
+        }
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String endpoint = pattern != null ? pattern.toString() : "unknown";
+        String key = endpoint + " " + etag;
+
+        String outcome;
+        if (response.getStatus() == HttpServletResponse.SC_NOT_MODIFIED) {
+            outcome = "not_modified";
+            Long saved = bodySizes.getIfPresent(key);
+            if (saved != null) {
+                DistributionSummary.builder("payflex.http.conditional.bytes_saved")
+                        .baseUnit("bytes")
+                        .tag("endpoint", endpoint)
+                        .register(meterRegistry)
+                        .record(saved);
+            }
+        } else {
+            outcome = request.getHeader(HttpHeaders.IF_NONE_MATCH) != null ? "modified" : "unconditional";
+            if (response.getStatus() == HttpServletResponse.SC_OK) {
+                bodySizes.put(key, bytes);
+            }
+        }
+
+        long start = (Long) request.getAttribute(START_ATTRIBUTE);
+        Timer.builder("payflex.http.conditional.requests")
+                .tag("endpoint", endpoint)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    // Cuenta los bytes del cuerpo escritos por getOutputStream (lo que usan los conversores JSON)
+    private static final class CountingResponse extends HttpServletResponseWrapper {
+
+        private long bytes;
+        private ServletOutputStream stream;
+
+        private CountingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (stream == null) {
+                ServletOutputStream delegate = super.getOutputStream();
+                stream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        delegate.write(b);
+                        bytes++;
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        delegate.write(b, off, len);
+                        bytes += len;
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        delegate.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        delegate.close();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return delegate.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener listener) {
+                        delegate.setWriteListener(listener);
+                    }
+                };
+            }
+            return stream;
+        }
+    }
+}
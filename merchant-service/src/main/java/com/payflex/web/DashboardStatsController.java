@@ -1,13 +1,20 @@
 package com.payflex.web;
 
 import com.payflex.dto.DashboardStatsResponse;
+import com.payflex.dto.TimeSeriesBucketResponse;
+import com.payflex.dto.TimeSeriesResponse;
 import com.payflex.service.DashboardStatsService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.LocalDateTime;
+
 @Slf4j
 @RestController
 @RequestMapping("/merchants")
@@ -26,5 +33,29 @@ public class DashboardStatsController {
                 .map(ResponseEntity::ok)
                 .defaultIfEmpty(ResponseEntity.notFound().build());
     }
-}
 
+    @GetMapping(value = "/{merchantId}/analytics/timeseries", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<TimeSeriesResponse> getTimeSeries(
+            @PathVariable String merchantId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false, defaultValue = "day") String granularity) {
+
+        log.info("Getting time series for merchant: {}, from: {}, to: {}, granularity: {}", merchantId, from, to, granularity);
+
+        return dashboardStatsService.getMerchantTimeSeries(merchantId, from, to, granularity);
+    }
+
+    // Modo streaming: mismo endpoint con Accept: application/x-ndjson, un bucket por línea
+    @GetMapping(value = "/{merchantId}/analytics/timeseries", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<TimeSeriesBucketResponse> streamTimeSeries(
+            @PathVariable String merchantId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false, defaultValue = "day") String granularity) {
+
+        log.info("Streaming time series for merchant: {}, from: {}, to: {}, granularity: {}", merchantId, from, to, granularity);
+
+        return dashboardStatsService.streamMerchantTimeSeries(merchantId, from, to, granularity);
+    }
+}
@@ -0,0 +1,88 @@
+package com.payflex.web;
+
+import com.payflex.dto.MerchantConfigResponse;
+import com.payflex.dto.MerchantResponse;
+import com.payflex.model.MerchantBalance;
+import org.springframework.http.CacheControl;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+
+/**
+ * ETags fuertes calculados desde los datos que versionan una respuesta (updated_at, saldos), sin
+ * serializar el cuerpo.
+ *
+ * Un ResponseEntity con ETag ya responde 304 solo (Spring compara If-None-Match al escribirlo); los
+ * listados costosos comparan antes con matches() para no armar la página.
+ */
+public final class ETags {
+
+    // Datos del merchant: el navegador puede guardarlos pero debe revalidar siempre (proxies no)
+    public static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
+    // La configuración de pagos no se edita desde este servicio: unos segundos sin revalidar
+    public static final CacheControl CONFIG = CacheControl.maxAge(Duration.ofSeconds(30)).cachePrivate().mustRevalidate();
+
+    private ETags() {
+    }
+
+    /**
+     * El perfil cambia con updated_at; el saldo no toca updated_at del merchant, así que entra aparte.
+     */
+    public static String forMerchant(MerchantResponse merchant) {
+        return of(merchant.getMerchantId(), merchant.getUpdatedAt(), merchant.getStatus(),
+                merchant.getAvailableBalance(), merchant.getPendingBalance(), merchant.getCurrency());
+    }
+
+    // La configuración por defecto (sin fila) no tiene updated_at: queda con un ETag fijo por merchant
+    public static String forConfig(MerchantConfigResponse config) {
+        return of(config.getMerchantId(), config.getUpdatedAt() != null ? config.getUpdatedAt() : "default");
+    }
+
+    public static String forBalance(MerchantBalance balance) {
+        return of(balance.getMerchantId(), balance.getAvailableBalance(), balance.getPendingBalance(),
+                balance.getCurrency(), balance.getUpdatedAt());
+    }
+
+    /**
+     * If-None-Match usa comparación débil (RFC 9110 13.1.2): se ignora el prefijo W/. Acepta listas y "*".
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static String of(Object... parts) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        for (Object part : parts) {
+            // 10.00 y 10 son el mismo saldo
+            String text = part instanceof BigDecimal decimal ? decimal.stripTrailingZeros().toPlainString() : String.valueOf(part);
+            digest.update(text.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return "\"" + HexFormat.of().formatHex(digest.digest(), 0, 16) + "\"";
+    }
+}
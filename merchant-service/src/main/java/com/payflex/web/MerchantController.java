@@ -9,6 +9,8 @@ import com.payflex.service.MerchantService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -33,13 +35,22 @@ public class MerchantController {
     }
 
     @GetMapping("/{merchantId}")
-    public Mono<MerchantResponse> getMerchant(@PathVariable String merchantId) {
+    public Mono<ResponseEntity<MerchantResponse>> getMerchant(@PathVariable String merchantId) {
         log.info("Received request to get merchant: {}", merchantId);
-        return merchantService.getMerchantById(merchantId);
+        return merchantService.getMerchantById(merchantId)
+            .map(merchant -> ResponseEntity.ok().eTag(ETags.forMerchant(merchant)).cacheControl(ETags.REVALIDATE).body(merchant));
     }
 
-    @GetMapping
-    public Flux<MerchantResponse> getAllMerchants() {
+    // Con Accept: application/x-ndjson se emite un merchant por línea a medida que se leen, sin armar la lista.
+    // Con limit se devuelve una página ordenada por merchantId; la siguiente se pide con after=<último merchantId>
+    @GetMapping(produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<MerchantResponse> getAllMerchants(
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit) {
+        if (limit != null) {
+            log.info("Received request to get merchants page after={} limit={}", after, limit);
+            return merchantService.getMerchantsPage(after, limit);
+        }
         log.info("Received request to get all merchants");
         return merchantService.getAllMerchants();
     }
@@ -72,8 +83,9 @@ public class MerchantController {
     }
 
     @GetMapping("/{merchantId}/config")
-    public Mono<MerchantConfigResponse> getMerchantConfig(@PathVariable String merchantId) {
+    public Mono<ResponseEntity<MerchantConfigResponse>> getMerchantConfig(@PathVariable String merchantId) {
         log.info("Received request to get merchant config: {}", merchantId);
-        return merchantService.getMerchantConfig(merchantId);
+        return merchantService.getMerchantConfig(merchantId)
+            .map(config -> ResponseEntity.ok().eTag(ETags.forConfig(config)).cacheControl(ETags.CONFIG).body(config));
     }
 }
@@ -2,21 +2,30 @@ package com.payflex.web;
 
 import com.payflex.dto.CreatePaymentIntentRequest;
 import com.payflex.dto.CreateRefundRequest;
+import com.payflex.dto.PaymentIntentChangesResponse;
 import com.payflex.dto.PaymentIntentResponse;
+import com.payflex.dto.PaymentIntentSearchResponse;
 import com.payflex.dto.RefundResponse;
 import com.payflex.dto.TransactionListResponse;
 import com.payflex.dto.UpdatePaymentIntentRequest;
+import com.payflex.service.MetadataFilter;
 import com.payflex.service.PaymentIntentService;
 import com.payflex.service.RefundService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.LocalDateTime;
+import java.util.List;
+
 @RestController
 @RequestMapping("/api/payment-intents")
 public class PaymentIntentController {
@@ -43,13 +52,27 @@ public class PaymentIntentController {
         return paymentIntentService.getPaymentIntent(id);
     }
 
-    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    // Multi-get: GET /api/payment-intents/batch?ids=pi_a,pi_b (JSON o NDJSON según Accept)
+    @GetMapping(value = "/batch", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<PaymentIntentResponse> getPaymentIntentsByIds(@RequestParam List<String> ids) {
+        log.info("[getPaymentIntentsByIds] Fetching payment intents count={}", ids.size());
+        return paymentIntentService.getPaymentIntentsByIds(ids);
+    }
+
+    // Con parámetros metadata.<clave>=<valor> (p. ej. metadata.orderId=123) busca por metadata, hasta limit
+    // resultados; ver MetadataFilter para las consultas admitidas.
+    // Con Accept: application/x-ndjson se emite un intent por línea a medida que se leen, sin armar la lista.
+    @GetMapping(produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
     public Flux<PaymentIntentResponse> getPaymentIntents(
             @RequestParam(required = false) String merchantId,
-            @RequestParam(required = false) String status) {
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false, defaultValue = "100") int limit,
+            @RequestParam MultiValueMap<String, String> params) {
         log.info("[getPaymentIntents] Fetching payment intents - merchantId: {}, status: {}", merchantId, status);
 
-        if (merchantId != null && status != null) {
+        if (merchantId != null && MetadataFilter.requested(params)) {
+            return paymentIntentService.searchByMetadata(merchantId, status, params, limit);
+        } else if (merchantId != null && status != null) {
             return paymentIntentService.getPaymentIntentsByMerchantAndStatus(merchantId, status);
         } else if (merchantId != null) {
             return paymentIntentService.getPaymentIntentsByMerchant(merchantId);
@@ -72,18 +95,57 @@ public class PaymentIntentController {
         return paymentIntentService.cancelPaymentIntent(id);
     }
 
-    // Endpoint específico para obtener transacciones paginadas para el dashboard del frontend
+    // Endpoint específico para obtener transacciones paginadas para el dashboard del frontend.
+    // El ETag sale de la versión del listado (un agregado), así un refresh sin cambios responde 304 sin
+    // leer las transacciones. Si algo cambia entre la versión y la página, el ETag queda viejo y el
+    // siguiente refresh descarga de nuevo: nunca se sirve una página desactualizada.
+    // from/to (opcionales) acotan created_at y limitan la consulta a las particiones del período.
     @GetMapping(value = "/merchant/{merchantId}/transactions", produces = MediaType.APPLICATION_JSON_VALUE)
-    public Mono<TransactionListResponse> getTransactionsForDashboard(
+    public Mono<ResponseEntity<TransactionListResponse>> getTransactionsForDashboard(
             @PathVariable String merchantId,
             @RequestParam(required = false, defaultValue = "all") String status,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
             @RequestParam(required = false, defaultValue = "0") int page,
-            @RequestParam(required = false, defaultValue = "10") int pageSize) {
+            @RequestParam(required = false, defaultValue = "10") int pageSize,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+
+        log.info("[getTransactionsForDashboard] Fetching transactions for merchant: {}, status: {}, from: {}, to: {}, page: {}, pageSize: {}",
+                merchantId, status, from, to, page, pageSize);
+
+        return paymentIntentService.getTransactionsVersion(merchantId, status, from, to)
+                .flatMap(version -> {
+                    String etag = ETags.of(merchantId, status, from, to, page, pageSize,
+                            version.getRowCount(), version.getLastUpdatedAt());
+                    if (ETags.matches(ifNoneMatch, etag)) {
+                        return Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                                .eTag(etag).cacheControl(ETags.REVALIDATE).<TransactionListResponse>build());
+                    }
+                    return paymentIntentService.getTransactionsForDashboard(merchantId, status, from, to, page, pageSize)
+                            .map(body -> ResponseEntity.ok().eTag(etag).cacheControl(ETags.REVALIDATE).body(body));
+                });
+    }
 
-        log.info("[getTransactionsForDashboard] Fetching transactions for merchant: {}, status: {}, page: {}, pageSize: {}",
-                merchantId, status, page, pageSize);
+    // Delta-sync: solo los intents modificados después de since; la respuesta trae el cursor para la
+    // siguiente consulta. Sin since devuelve desde el principio, de a limit.
+    @GetMapping(value = "/merchant/{merchantId}/changes", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<PaymentIntentChangesResponse> getChanges(
+            @PathVariable String merchantId,
+            @RequestParam(required = false) String since,
+            @RequestParam(required = false, defaultValue = "100") int limit) {
+        log.debug("[getChanges] merchant: {}, since: {}, limit: {}", merchantId, since, limit);
+        return paymentIntentService.getChangesSince(merchantId, since, limit);
+    }
 
-        return paymentIntentService.getTransactionsForDashboard(merchantId, status, page, pageSize);
+    // Buscador del dashboard: por id (también parcial), customer_id, statement_descriptor o description
+    @GetMapping(value = "/merchant/{merchantId}/search", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<PaymentIntentSearchResponse> search(
+            @PathVariable String merchantId,
+            @RequestParam(required = false) String q,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false, defaultValue = "25") int limit) {
+        log.info("[search] merchant: {}, q: {}, limit: {}", merchantId, q, limit);
+        return paymentIntentService.search(merchantId, q, cursor, limit);
     }
 
     // Endpoint para crear un retiro de dinero desde un payment intent
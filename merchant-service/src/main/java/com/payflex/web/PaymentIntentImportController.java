@@ -0,0 +1,47 @@
+package com.payflex.web;
+
+import com.payflex.dto.ExportFormat;
+import com.payflex.dto.ImportJobResponse;
+import com.payflex.service.PaymentIntentImportService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+@RestController
+@RequestMapping("/api/payment-intents/imports")
+public class PaymentIntentImportController {
+    private static final Logger log = LoggerFactory.getLogger(PaymentIntentImportController.class);
+
+    private final PaymentIntentImportService paymentIntentImportService;
+
+    public PaymentIntentImportController(PaymentIntentImportService paymentIntentImportService) {
+        this.paymentIntentImportService = paymentIntentImportService;
+    }
+
+    // Cuerpo: CSV crudo con encabezado; responde 202 con el importId para seguir el progreso
+    @PostMapping(consumes = "text/csv", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ImportJobResponse> startImport(InputStream body) throws IOException {
+        log.info("[startImport] Receiving payment intents import format=csv");
+        return ResponseEntity.accepted().body(paymentIntentImportService.startImport(body, ExportFormat.CSV));
+    }
+
+    // Cuerpo: un objeto JSON por línea, con los mismos campos que las columnas del CSV
+    @PostMapping(consumes = MediaType.APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ImportJobResponse> startNdjsonImport(InputStream body) throws IOException {
+        log.info("[startImport] Receiving payment intents import format=ndjson");
+        return ResponseEntity.accepted().body(paymentIntentImportService.startImport(body, ExportFormat.NDJSON));
+    }
+
+    @GetMapping(value = "/{importId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ImportJobResponse> getImport(@PathVariable String importId) {
+        log.info("[getImport] Fetching import: {}", importId);
+        return paymentIntentImportService.getImport(importId)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+}
@@ -0,0 +1,79 @@
+package com.payflex.web;
+
+import com.payflex.dto.PaymentIntentChangeEvent;
+import com.payflex.service.PaymentIntentChangeFeed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
+
+import java.io.IOException;
+
+@RestController
+@RequestMapping("/api/payment-intents")
+@ConditionalOnProperty(value = "payment-intents.live.enabled", havingValue = "true", matchIfMissing = true)
+public class PaymentIntentStreamController {
+    private static final Logger log = LoggerFactory.getLogger(PaymentIntentStreamController.class);
+
+    private final PaymentIntentChangeFeed changeFeed;
+
+    // Solo este endpoint queda abierto tanto tiempo; el resto usa el timeout async por defecto.
+    // Al vencer, el cliente reconecta con Last-Event-ID y no pierde cambios.
+    @Value("${payment-intents.live.stream-timeout-ms:1800000}")
+    private long streamTimeoutMs;
+
+    public PaymentIntentStreamController(PaymentIntentChangeFeed changeFeed) {
+        this.changeFeed = changeFeed;
+    }
+
+    // Cambios en vivo de los payment intents del merchant (SSE). EventSource reconecta solo enviando
+    // Last-Event-ID; since permite reanudar desde un cursor obtenido de /changes.
+    @GetMapping(value = "/merchant/{merchantId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChanges(
+            @PathVariable String merchantId,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+            @RequestParam(required = false) String since) {
+        String resumeFrom = lastEventId != null && !lastEventId.isBlank() ? lastEventId : since;
+        log.info("[streamChanges] merchant: {}, resuming: {}", merchantId, resumeFrom != null);
+
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        Disposable subscription = changeFeed.stream(merchantId, resumeFrom)
+                .subscribe(event -> send(emitter, event), emitter::completeWithError, emitter::complete);
+        emitter.onTimeout(subscription::dispose);
+        emitter.onCompletion(subscription::dispose);
+        emitter.onError(err -> subscription.dispose());
+        return emitter;
+    }
+
+    private static void send(SseEmitter emitter, ServerSentEvent<PaymentIntentChangeEvent> event) {
+        SseEmitter.SseEventBuilder builder = SseEmitter.event();
+        if (event.id() != null) {
+            builder.id(event.id());
+        }
+        if (event.event() != null) {
+            builder.name(event.event());
+        }
+        if (event.comment() != null) {
+            builder.comment(event.comment());
+        }
+        if (event.data() != null) {
+            builder.data(event.data(), MediaType.APPLICATION_JSON);
+        }
+        try {
+            emitter.send(builder);
+        } catch (IOException e) {
+            // El cliente se desconectó: onError/onCompletion cancelan la suscripción al feed
+            emitter.completeWithError(e);
+        }
+    }
+}
@@ -3,11 +3,13 @@ package com.payflex.web;
 
 import com.payflex.dto.CreateRefundRequest;
 import com.payflex.dto.RefundResponse;
+import com.payflex.model.MerchantBalance;
 import com.payflex.service.RefundService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -55,6 +57,21 @@ public class RefundController {
         }
     }
 
+    // Saldo disponible del merchant (calculado desde el ledger); lo consume auth-ms-java
+    @GetMapping(value = "/merchant/{merchantId}/balance", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<MerchantBalance>> getMerchantBalance(@PathVariable String merchantId) {
+        log.info("[getMerchantBalance] Fetching balance for merchant: {}", merchantId);
+        return refundService.getMerchantBalance(merchantId)
+                .map(balance -> ResponseEntity.ok().eTag(ETags.forBalance(balance)).cacheControl(ETags.REVALIDATE).body(balance));
+    }
+
+    // Franjas de saldo para merchants con alta concurrencia de créditos; count=0 las desactiva
+    @PutMapping(value = "/merchant/{merchantId}/balance/stripes", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<MerchantBalance> configureBalanceStripes(@PathVariable String merchantId, @RequestParam int count) {
+        log.info("[configureBalanceStripes] merchant: {} stripes: {}", merchantId, count);
+        return refundService.configureBalanceStripes(merchantId, count);
+    }
+
     @PostMapping(value = "/{id}/cancel", produces = MediaType.APPLICATION_JSON_VALUE)
     public Mono<Void> cancelRefund(@PathVariable String id) {
         log.info("[cancelRefund] Canceling refund: {}", id);
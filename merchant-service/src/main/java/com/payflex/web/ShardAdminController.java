@@ -0,0 +1,53 @@
+package com.payflex.web;
+
+import com.payflex.config.ShardRouter;
+import com.payflex.dto.ShardMigrationResponse;
+import com.payflex.service.ShardMigrationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+/**
+ * Operación de shards: consultar dónde vive un merchant y moverlo (copy + cleanup, ver ShardMigrationService).
+ */
+@RestController
+@RequestMapping("/internal/shards")
+@ConditionalOnProperty(prefix = "database.shards", name = "urls")
+public class ShardAdminController {
+    private static final Logger log = LoggerFactory.getLogger(ShardAdminController.class);
+
+    private final ShardRouter shardRouter;
+    private final ShardMigrationService shardMigrationService;
+
+    public ShardAdminController(ShardRouter shardRouter, ShardMigrationService shardMigrationService) {
+        this.shardRouter = shardRouter;
+        this.shardMigrationService = shardMigrationService;
+    }
+
+    @GetMapping(value = "/merchants/{merchantId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<Map<String, Object>> getMerchantShard(@PathVariable String merchantId) {
+        return shardRouter.shardOf(merchantId)
+                .map(shard -> Map.<String, Object>of("merchantId", merchantId, "shard", shard, "shardCount", shardRouter.shardCount()));
+    }
+
+    // Paso 1: copia al shard destino y actualiza el directorio; dryRun=true solo muestra lo que se copiaría
+    @PostMapping(value = "/merchants/{merchantId}/move", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ShardMigrationResponse> moveMerchant(@PathVariable String merchantId,
+                                                     @RequestParam int targetShard,
+                                                     @RequestParam(defaultValue = "false") boolean dryRun) {
+        log.info("[moveMerchant] merchant: {} targetShard: {} dryRun: {}", merchantId, targetShard, dryRun);
+        return shardMigrationService.copyMerchant(merchantId, targetShard, dryRun);
+    }
+
+    // Paso 2: borra las filas que quedaron en el shard de origen
+    @PostMapping(value = "/merchants/{merchantId}/cleanup", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ShardMigrationResponse> cleanupMerchant(@PathVariable String merchantId, @RequestParam int sourceShard) {
+        log.info("[cleanupMerchant] merchant: {} sourceShard: {}", merchantId, sourceShard);
+        return shardMigrationService.cleanupMerchant(merchantId, sourceShard);
+    }
+}
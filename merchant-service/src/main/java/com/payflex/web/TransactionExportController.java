@@ -0,0 +1,98 @@
+package com.payflex.web;
+
+import com.payflex.dto.ExportFormat;
+import com.payflex.dto.ExportJobResponse;
+import com.payflex.service.TransactionExportService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+@Slf4j
+@RestController
+@RequestMapping("/merchants")
+@RequiredArgsConstructor
+public class TransactionExportController {
+
+    private final TransactionExportService transactionExportService;
+
+    /**
+     * Exportación de transacciones en [from, to). Por defecto se escribe en streaming en la misma respuesta
+     * (comprimida con gzip si el cliente envía Accept-Encoding: gzip); con async=true se genera un archivo
+     * y se responde 202 con el exportId para consultar el estado y descargarlo.
+     */
+    @GetMapping("/{merchantId}/exports/transactions")
+    public ResponseEntity<?> exportTransactions(
+            @PathVariable String merchantId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false, defaultValue = "csv") String format,
+            @RequestParam(required = false, defaultValue = "false") boolean async,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+
+        log.info("Exporting transactions for merchant: {}, from: {}, to: {}, format: {}, async: {}", merchantId, from, to, format, async);
+        ExportFormat exportFormat = ExportFormat.from(format);
+
+        if (async) {
+            ExportJobResponse job = transactionExportService.startExport(merchantId, from, to, exportFormat);
+            return ResponseEntity.accepted().body(job);
+        }
+
+        transactionExportService.validateRange(from, to);
+        boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase(Locale.ROOT).contains("gzip");
+        String filename = "transactions_" + merchantId + "." + exportFormat.getExtension();
+
+        StreamingResponseBody body = out -> {
+            OutputStream target = gzip ? new GZIPOutputStream(out, 64 * 1024) : out;
+            long rows = transactionExportService.writeExport(target, merchantId, from, to, exportFormat);
+            if (target instanceof GZIPOutputStream gzipStream) {
+                gzipStream.finish();
+            }
+            log.info("Exported {} transactions for merchant: {}", rows, merchantId);
+        };
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString())
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(body);
+    }
+
+    @GetMapping(value = "/{merchantId}/exports/{exportId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ExportJobResponse> getExport(@PathVariable String merchantId, @PathVariable String exportId) {
+        return transactionExportService.getExport(merchantId, exportId)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    @GetMapping("/{merchantId}/exports/{exportId}/download")
+    public ResponseEntity<Resource> downloadExport(@PathVariable String merchantId, @PathVariable String exportId) {
+        return transactionExportService.getExportFile(merchantId, exportId)
+                .map(this::fileResponse)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    private ResponseEntity<Resource> fileResponse(Path file) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/gzip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(file.getFileName().toString()).build().toString())
+                .body(new FileSystemResource(file));
+    }
+}
@@ -0,0 +1,7 @@
+-- Índice para el delta-sync de transacciones (PaymentIntentRepository.findChanges*):
+-- intents de un merchant con (updated_at, id) posterior a un cursor, en ese orden.
+-- payment_intents está particionada por created_at, así que el índice no se puede crear CONCURRENTLY
+-- desde el padre (igual que en V3); las particiones nuevas lo heredan.
+
+CREATE INDEX IF NOT EXISTS idx_payment_intents_merchant_updated
+    ON payment_intents (merchant_id, updated_at, id);
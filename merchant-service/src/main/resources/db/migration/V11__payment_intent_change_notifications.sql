@@ -0,0 +1,35 @@
+-- Notificaciones de cambios de payment intents para el feed en vivo (PaymentIntentChangeFeed).
+--
+-- Un trigger cubre todas las rutas de escritura (API, funciones de refunds, importación masiva):
+-- cada alta o cambio de estado/monto/updated_at publica un JSON compacto en el canal
+-- payment_intent_changes. NOTIFY se entrega al hacer commit y solo a las conexiones con LISTEN activo;
+-- sin oyentes el costo es despreciable. Los updates que no cambian nada visible no notifican.
+
+CREATE OR REPLACE FUNCTION payflex_notify_payment_intent_change() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    IF TG_OP = 'UPDATE'
+       AND NEW.status IS NOT DISTINCT FROM OLD.status
+       AND NEW.amount IS NOT DISTINCT FROM OLD.amount
+       AND NEW.refunded_amount IS NOT DISTINCT FROM OLD.refunded_amount
+       AND NEW.updated_at IS NOT DISTINCT FROM OLD.updated_at THEN
+        RETURN NULL;
+    END IF;
+
+    PERFORM pg_notify('payment_intent_changes', json_build_object(
+        'id', NEW.id,
+        'merchantId', NEW.merchant_id,
+        'status', NEW.status,
+        'amount', NEW.amount,
+        'currency', NEW.currency,
+        'refundedAmount', NEW.refunded_amount,
+        'updatedAt', NEW.updated_at)::text);
+    RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS trg_payment_intents_notify_change ON payment_intents;
+
+CREATE TRIGGER trg_payment_intents_notify_change
+    AFTER INSERT OR UPDATE ON payment_intents
+    FOR EACH ROW EXECUTE FUNCTION payflex_notify_payment_intent_change();
@@ -0,0 +1,12 @@
+-- Índices para la línea de tiempo de saldo (BalanceTimelineService): pagos y retiros succeeded de un
+-- merchant en orden (created_at DESC, id DESC), paginados por keyset. Cada página es un index scan
+-- acotado por LIMIT en cada tabla. Parciales: solo los succeeded mueven el saldo.
+-- Tablas particionadas: sin CONCURRENTLY (ver V3 y V10).
+
+CREATE INDEX IF NOT EXISTS idx_payment_intents_merchant_succeeded_timeline
+    ON payment_intents (merchant_id, created_at DESC, id DESC) INCLUDE (amount, currency)
+    WHERE status = 'succeeded';
+
+CREATE INDEX IF NOT EXISTS idx_refunds_merchant_succeeded_timeline
+    ON refunds (merchant_id, created_at DESC, id DESC) INCLUDE (amount, currency)
+    WHERE status = 'succeeded';
@@ -0,0 +1,19 @@
+-- Búsqueda de payment intents por metadata (GET /api/payment-intents?merchantId=...&metadata.orderId=123).
+--
+-- metadata pasa de JSON a JSONB para poder indexarla: la consulta es una contención
+-- (metadata @> '{"orderId":"123"}'), que resuelve el índice GIN con jsonb_path_ops (un hash por cada
+-- camino clave/valor, más chico y más rápido que jsonb_ops para @>, pero sin soporte para ? ni ?|).
+-- El índice no incluye merchant_id: los identificadores que se buscan (orderId, cartId, ...) son casi
+-- únicos, así que el filtro por merchant queda sobre unas pocas filas.
+--
+-- JSONB no conserva espacios, orden de claves ni claves duplicadas (gana la última); la aplicación
+-- devuelve la metadata como string JSON, así que el contrato no cambia.
+--
+-- ALTER COLUMN TYPE reescribe todas las particiones con la tabla bloqueada: en bases con datos, correr
+-- en una ventana de mantenimiento. Tablas particionadas: sin CONCURRENTLY (ver V3).
+
+ALTER TABLE payment_intents
+    ALTER COLUMN metadata TYPE JSONB USING metadata::jsonb;
+
+CREATE INDEX IF NOT EXISTS idx_payment_intents_metadata
+    ON payment_intents USING GIN (metadata jsonb_path_ops);
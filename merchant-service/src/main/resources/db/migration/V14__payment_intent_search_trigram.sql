@@ -0,0 +1,30 @@
+-- Búsqueda de transacciones del dashboard (GET /api/payment-intents/merchant/{id}/search?q=...).
+--
+-- El texto buscable de cada intent es id, customer_id, statement_descriptor y description en una sola
+-- expresión (payflex_payment_intent_search_text), indexada con trigramas (pg_trgm): un ILIKE '%texto%'
+-- sobre ella usa el índice, también para ids parciales. merchant_id va como primera columna del mismo
+-- índice GIN (btree_gin) para que la búsqueda quede acotada al merchant dentro del índice y no recorra
+-- coincidencias de otros merchants.
+--
+-- pg_trgm y btree_gin vienen con PostgreSQL (contrib) y son extensiones "trusted" desde la versión 13.
+-- Tablas particionadas: sin CONCURRENTLY (ver V3).
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE EXTENSION IF NOT EXISTS btree_gin;
+
+-- Inmutable: la consulta debe usar exactamente esta función para que el planner elija el índice
+CREATE OR REPLACE FUNCTION payflex_payment_intent_search_text(
+    p_id                   TEXT,
+    p_customer_id          TEXT,
+    p_statement_descriptor TEXT,
+    p_description          TEXT)
+RETURNS TEXT
+LANGUAGE sql IMMUTABLE PARALLEL SAFE AS $$
+    SELECT COALESCE(p_id, '') || ' ' || COALESCE(p_customer_id, '') || ' '
+           || COALESCE(p_statement_descriptor, '') || ' ' || COALESCE(p_description, '')
+$$;
+
+CREATE INDEX IF NOT EXISTS idx_payment_intents_search_trgm
+    ON payment_intents USING GIN (
+        merchant_id,
+        payflex_payment_intent_search_text(id, customer_id, statement_descriptor, description) gin_trgm_ops);
@@ -0,0 +1,210 @@
+-- Unicidad de ids en payment_intents y refunds.
+--
+-- Desde V3 la PK de ambas tablas es (id, created_at) (exigencia del particionado), así que la base ya no
+-- impedía dos filas con el mismo id: p. ej. un POST reintentado con el id que envía el cliente. Los
+-- registros payment_intent_ids y refund_ids (tablas normales, no particionadas) tienen id como PK y un
+-- trigger BEFORE INSERT agrega ahí cada fila: un id repetido falla con unique_violation sobre
+-- payment_intent_ids_pkey / refund_ids_pkey en cualquier camino de escritura (API, importación,
+-- migración entre shards). Al borrar la fila se libera el id; desacoplar una partición (archive) no lo
+-- libera, así que tampoco se reutilizan ids archivados.
+--
+-- El registro guarda created_at: las búsquedas por id lo leen primero (PK, una página) y filtran la
+-- tabla particionada por (id, created_at), de modo que el planner descarta en ejecución todas las
+-- particiones menos una. La FK refunds -> payment_intents que V3 tuvo que quitar vuelve, ahora hacia el
+-- registro.
+--
+-- Con sharding cada shard tiene su registro: la unicidad es por shard (los ids generados por la
+-- aplicación son UUIDv7 y no chocan entre shards).
+--
+-- Requiere PostgreSQL 13+ (triggers BEFORE ROW en tablas particionadas).
+
+CREATE TABLE IF NOT EXISTS payment_intent_ids (
+    id         VARCHAR(64) PRIMARY KEY,
+    created_at TIMESTAMP   NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS refund_ids (
+    id         VARCHAR(64) PRIMARY KEY,
+    created_at TIMESTAMP   NOT NULL
+);
+
+-- Ids existentes, incluidas las particiones ya archivadas. Si hubiera ids repetidos queda registrada
+-- la fila más antigua, que es la que devuelven las búsquedas por id.
+DO $$
+DECLARE
+    v_table TEXT;
+BEGIN
+    INSERT INTO payment_intent_ids (id, created_at)
+    SELECT DISTINCT ON (id) id, created_at FROM payment_intents ORDER BY id, created_at
+    ON CONFLICT (id) DO NOTHING;
+
+    INSERT INTO refund_ids (id, created_at)
+    SELECT DISTINCT ON (id) id, created_at FROM refunds ORDER BY id, created_at
+    ON CONFLICT (id) DO NOTHING;
+
+    FOR v_table IN
+        SELECT c.relname
+        FROM pg_class c
+        JOIN pg_namespace n ON n.oid = c.relnamespace
+        WHERE n.nspname = 'archive'
+          AND c.relkind = 'r'
+          AND c.relname ~ '^(payment_intents|refunds)_p[0-9]{6}$'
+        ORDER BY c.relname
+    LOOP
+        EXECUTE format('INSERT INTO %I (id, created_at) SELECT DISTINCT ON (id) id, created_at FROM archive.%I '
+                       || 'ORDER BY id, created_at ON CONFLICT (id) DO NOTHING',
+                       CASE WHEN v_table LIKE 'payment_intents%' THEN 'payment_intent_ids' ELSE 'refund_ids' END,
+                       v_table);
+    END LOOP;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION payflex_register_payment_intent_id() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    INSERT INTO payment_intent_ids (id, created_at) VALUES (NEW.id, NEW.created_at);
+    RETURN NEW;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION payflex_release_payment_intent_id() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    DELETE FROM payment_intent_ids WHERE id = OLD.id AND created_at = OLD.created_at;
+    RETURN NULL;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION payflex_register_refund_id() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    INSERT INTO refund_ids (id, created_at) VALUES (NEW.id, NEW.created_at);
+    RETURN NEW;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION payflex_release_refund_id() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    DELETE FROM refund_ids WHERE id = OLD.id AND created_at = OLD.created_at;
+    RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS trg_payment_intents_register_id ON payment_intents;
+CREATE TRIGGER trg_payment_intents_register_id
+    BEFORE INSERT ON payment_intents
+    FOR EACH ROW EXECUTE FUNCTION payflex_register_payment_intent_id();
+
+DROP TRIGGER IF EXISTS trg_payment_intents_release_id ON payment_intents;
+CREATE TRIGGER trg_payment_intents_release_id
+    AFTER DELETE ON payment_intents
+    FOR EACH ROW EXECUTE FUNCTION payflex_release_payment_intent_id();
+
+DROP TRIGGER IF EXISTS trg_refunds_register_id ON refunds;
+CREATE TRIGGER trg_refunds_register_id
+    BEFORE INSERT ON refunds
+    FOR EACH ROW EXECUTE FUNCTION payflex_register_refund_id();
+
+DROP TRIGGER IF EXISTS trg_refunds_release_id ON refunds;
+CREATE TRIGGER trg_refunds_release_id
+    AFTER DELETE ON refunds
+    FOR EACH ROW EXECUTE FUNCTION payflex_release_refund_id();
+
+-- Un retiro no puede apuntar a un intent inexistente; el intent no se puede borrar mientras tenga retiros
+ALTER TABLE refunds
+    ADD CONSTRAINT fk_refunds_payment_intent
+    FOREIGN KEY (payment_intent_id) REFERENCES payment_intent_ids (id);
+
+-- Retiro: igual que V7, con el intent ubicado por (id, created_at) a través del registro
+CREATE OR REPLACE FUNCTION payflex_create_withdrawal(
+    p_id                TEXT,
+    p_payment_intent_id TEXT,
+    p_amount            NUMERIC,
+    p_reason            TEXT,
+    p_metadata          JSON,
+    p_created_at        TIMESTAMP)
+RETURNS SETOF refunds
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_intent       payment_intents%ROWTYPE;
+    v_withdrawn    NUMERIC;
+    v_available    NUMERIC;
+    v_amount_minor BIGINT := ROUND(p_amount)::BIGINT;
+    v_balance      BIGINT;
+    v_stripes      SMALLINT;
+BEGIN
+    IF v_amount_minor <= 0 THEN
+        RAISE EXCEPTION 'Amount is required and must be greater than zero' USING ERRCODE = 'PF001';
+    END IF;
+
+    SELECT * INTO v_intent FROM payment_intents
+    WHERE id = p_payment_intent_id
+      AND created_at = (SELECT created_at FROM payment_intent_ids WHERE id = p_payment_intent_id)
+    FOR UPDATE;
+    IF NOT FOUND THEN
+        RAISE EXCEPTION 'Payment intent not found: %', p_payment_intent_id USING ERRCODE = 'PF001';
+    END IF;
+
+    IF v_intent.status IS DISTINCT FROM 'succeeded' THEN
+        RAISE EXCEPTION 'Cannot withdraw from payment intent with status: %', v_intent.status USING ERRCODE = 'PF001';
+    END IF;
+
+    IF p_amount > v_intent.amount THEN
+        RAISE EXCEPTION 'Withdrawal amount % cannot exceed payment intent amount %', p_amount, v_intent.amount
+            USING ERRCODE = 'PF001';
+    END IF;
+
+    v_withdrawn := v_intent.refunded_amount;
+    v_available := v_intent.amount - v_withdrawn;
+    IF p_amount > v_available THEN
+        RAISE EXCEPTION 'Withdrawal amount % exceeds available from this payment intent % (already withdrawn: %)',
+            p_amount, v_available, v_withdrawn USING ERRCODE = 'PF001';
+    END IF;
+
+    v_stripes := payflex_balance_stripe_count(v_intent.merchant_id);
+    IF v_stripes > 0 THEN
+        PERFORM pg_advisory_xact_lock_shared(payflex_balance_lock_key(v_intent.merchant_id));
+    ELSE
+        PERFORM pg_advisory_xact_lock(payflex_balance_lock_key(v_intent.merchant_id));
+    END IF;
+    -- Releer: las franjas pueden haberse activado o desactivado mientras se esperaba el lock
+    v_stripes := payflex_balance_stripe_count(v_intent.merchant_id);
+
+    IF v_stripes > 0 THEN
+        IF NOT payflex_debit_balance_stripes(v_intent.merchant_id, v_stripes, p_id, v_amount_minor) THEN
+            RAISE EXCEPTION 'Insufficient balance. Available: %, Requested: %',
+                payflex_available_balance(v_intent.merchant_id), p_amount USING ERRCODE = 'PF001';
+        END IF;
+    ELSE
+        -- Lock exclusivo: espera créditos en vuelo y serializa débitos del mismo merchant
+        -- (si ya se tiene es un no-op; si se tenía el compartido, lo amplía)
+        PERFORM pg_advisory_xact_lock(payflex_balance_lock_key(v_intent.merchant_id));
+
+        v_balance := payflex_ledger_balance(v_intent.merchant_id);
+        IF v_amount_minor > v_balance THEN
+            RAISE EXCEPTION 'Insufficient balance. Available: %, Requested: %', v_balance, p_amount
+                USING ERRCODE = 'PF001';
+        END IF;
+    END IF;
+
+    INSERT INTO balance_transactions (merchant_id, entry_type, amount_minor, currency, source_type, source_id, created_at)
+    VALUES (v_intent.merchant_id, 'debit', -v_amount_minor, v_intent.currency, 'withdrawal', p_id, p_created_at);
+
+    UPDATE payment_intents
+    SET refunded_amount = refunded_amount + p_amount,
+        refund_count = refund_count + 1,
+        updated_at = p_created_at
+    WHERE id = v_intent.id
+      AND created_at = v_intent.created_at;
+
+    RETURN QUERY
+    WITH inserted AS (
+        INSERT INTO refunds (id, charge_id, payment_intent_id, merchant_id, amount, currency, status, reason, metadata, created_at, updated_at)
+        VALUES (p_id, NULL, p_payment_intent_id, v_intent.merchant_id, p_amount, v_intent.currency, 'succeeded',
+                COALESCE(p_reason, 'withdrawal'), p_metadata, p_created_at, p_created_at)
+        RETURNING *
+    )
+    SELECT * FROM inserted;
+END;
+$$;
@@ -0,0 +1,64 @@
+-- El recálculo de refunded_amount / refund_count (RefundTotalsIntegrityJob) pasa a hacerse por lotes.
+--
+-- La versión de V5 bloqueaba con FOR UPDATE cada intent candidato del período completo (30 días por
+-- defecto) dentro de una sola llamada: todos esos locks quedaban tomados hasta el commit de la sentencia
+-- y payflex_create_withdrawal esperaba por ellos. Ahora cada llamada procesa a lo sumo p_limit
+-- candidatos posteriores a (p_after_created_at, p_after_id) en orden de (created_at, id) y el job
+-- encadena llamadas; cada una es su propia transacción, así que los locks duran lo que dura un lote.
+
+DROP FUNCTION IF EXISTS payflex_recompute_refund_totals(TIMESTAMP);
+
+-- Recorrido por keyset de los candidatos; tabla particionada: sin CONCURRENTLY (ver V3)
+CREATE INDEX IF NOT EXISTS idx_payment_intents_created_id
+    ON payment_intents (created_at, id);
+
+-- Devuelve cada candidato procesado (para continuar desde el último) e indica si se corrigió
+CREATE OR REPLACE FUNCTION payflex_recompute_refund_totals(
+    p_since            TIMESTAMP,
+    p_after_created_at TIMESTAMP,
+    p_after_id         TEXT,
+    p_limit            INTEGER)
+RETURNS TABLE (payment_intent_id TEXT, intent_created_at TIMESTAMP, corrected BOOLEAN)
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_intent RECORD;
+    v_total  NUMERIC;
+    v_count  INTEGER;
+BEGIN
+    FOR v_intent IN
+        SELECT pi.id, pi.created_at
+        FROM payment_intents pi
+        WHERE pi.created_at >= p_since
+          AND (pi.created_at, pi.id) > (p_after_created_at, p_after_id)
+          AND (pi.refund_count > 0
+               OR EXISTS (SELECT 1 FROM refunds r
+                          WHERE r.payment_intent_id = pi.id
+                            AND r.status = 'succeeded'
+                            AND r.created_at >= pi.created_at))
+        ORDER BY pi.created_at, pi.id
+        LIMIT p_limit
+    LOOP
+        PERFORM 1 FROM payment_intents pi
+        WHERE pi.id = v_intent.id AND pi.created_at = v_intent.created_at
+        FOR UPDATE;
+
+        SELECT COALESCE(SUM(r.amount), 0), COUNT(*) INTO v_total, v_count
+        FROM refunds r
+        WHERE r.payment_intent_id = v_intent.id
+          AND r.status = 'succeeded'
+          AND r.created_at >= v_intent.created_at;
+
+        UPDATE payment_intents pi
+        SET refunded_amount = v_total,
+            refund_count = v_count
+        WHERE pi.id = v_intent.id
+          AND pi.created_at = v_intent.created_at
+          AND (pi.refunded_amount <> v_total OR pi.refund_count <> v_count);
+
+        payment_intent_id := v_intent.id;
+        intent_created_at := v_intent.created_at;
+        corrected := FOUND;
+        RETURN NEXT;
+    END LOOP;
+END;
+$$;
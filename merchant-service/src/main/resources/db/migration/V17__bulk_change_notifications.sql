@@ -0,0 +1,106 @@
+-- Las escrituras masivas dejan de publicar una notificación por fila en payment_intent_changes.
+--
+-- El trigger de V11 notifica cada alta o cambio visible. En la importación masiva (miles de filas en
+-- una transacción) o en el recálculo de refunded_amount eso llena la cola de NOTIFY del servidor y los
+-- buffers de cada cliente del feed, que igual terminan en resync. Ahora una transacción puede
+-- desactivarlo con SET LOCAL payflex.suppress_notify = 'on' (o set_config(..., true)) y, al terminar,
+-- publicar un solo aviso de resync por merchant afectado con payflex_notify_resync: el feed lo reenvía
+-- a los clientes de ese merchant, que se ponen al día desde su último id.
+
+CREATE OR REPLACE FUNCTION payflex_notify_payment_intent_change() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    IF current_setting('payflex.suppress_notify', true) = 'on' THEN
+        RETURN NULL;
+    END IF;
+
+    IF TG_OP = 'UPDATE'
+       AND NEW.status IS NOT DISTINCT FROM OLD.status
+       AND NEW.amount IS NOT DISTINCT FROM OLD.amount
+       AND NEW.refunded_amount IS NOT DISTINCT FROM OLD.refunded_amount
+       AND NEW.updated_at IS NOT DISTINCT FROM OLD.updated_at THEN
+        RETURN NULL;
+    END IF;
+
+    PERFORM pg_notify('payment_intent_changes', json_build_object(
+        'id', NEW.id,
+        'merchantId', NEW.merchant_id,
+        'status', NEW.status,
+        'amount', NEW.amount,
+        'currency', NEW.currency,
+        'refundedAmount', NEW.refunded_amount,
+        'updatedAt', NEW.updated_at)::text);
+    RETURN NULL;
+END;
+$$;
+
+-- Aviso de resync para los clientes del feed de un merchant (se entrega al hacer commit, como el resto)
+CREATE OR REPLACE FUNCTION payflex_notify_resync(p_merchant_id TEXT)
+RETURNS VOID
+LANGUAGE sql AS $$
+    SELECT pg_notify('payment_intent_changes', json_build_object(
+        'resync', TRUE,
+        'merchantId', p_merchant_id)::text);
+$$;
+
+-- Recálculo por lotes de V16 sin notificaciones por fila: un resync por merchant corregido
+CREATE OR REPLACE FUNCTION payflex_recompute_refund_totals(
+    p_since            TIMESTAMP,
+    p_after_created_at TIMESTAMP,
+    p_after_id         TEXT,
+    p_limit            INTEGER)
+RETURNS TABLE (payment_intent_id TEXT, intent_created_at TIMESTAMP, corrected BOOLEAN)
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_intent    RECORD;
+    v_total     NUMERIC;
+    v_count     INTEGER;
+    v_merchants TEXT[] := '{}';
+    v_suppress  TEXT := current_setting('payflex.suppress_notify', true);
+BEGIN
+    PERFORM set_config('payflex.suppress_notify', 'on', true);
+
+    FOR v_intent IN
+        SELECT pi.id, pi.created_at, pi.merchant_id
+        FROM payment_intents pi
+        WHERE pi.created_at >= p_since
+          AND (pi.created_at, pi.id) > (p_after_created_at, p_after_id)
+          AND (pi.refund_count > 0
+               OR EXISTS (SELECT 1 FROM refunds r
+                          WHERE r.payment_intent_id = pi.id
+                            AND r.status = 'succeeded'
+                            AND r.created_at >= pi.created_at))
+        ORDER BY pi.created_at, pi.id
+        LIMIT p_limit
+    LOOP
+        PERFORM 1 FROM payment_intents pi
+        WHERE pi.id = v_intent.id AND pi.created_at = v_intent.created_at
+        FOR UPDATE;
+
+        SELECT COALESCE(SUM(r.amount), 0), COUNT(*) INTO v_total, v_count
+        FROM refunds r
+        WHERE r.payment_intent_id = v_intent.id
+          AND r.status = 'succeeded'
+          AND r.created_at >= v_intent.created_at;
+
+        UPDATE payment_intents pi
+        SET refunded_amount = v_total,
+            refund_count = v_count
+        WHERE pi.id = v_intent.id
+          AND pi.created_at = v_intent.created_at
+          AND (pi.refunded_amount <> v_total OR pi.refund_count <> v_count);
+
+        payment_intent_id := v_intent.id;
+        intent_created_at := v_intent.created_at;
+        corrected := FOUND;
+        IF corrected AND NOT v_intent.merchant_id = ANY(v_merchants) THEN
+            v_merchants := v_merchants || v_intent.merchant_id::TEXT;
+        END IF;
+        RETURN NEXT;
+    END LOOP;
+
+    -- Se restaura el valor anterior por si la llamada es parte de una transacción más larga
+    PERFORM set_config('payflex.suppress_notify', COALESCE(v_suppress, ''), true);
+    PERFORM payflex_notify_resync(m) FROM unnest(v_merchants) AS m;
+END;
+$$;
@@ -0,0 +1,69 @@
+-- payflex_create_monthly_partitions (V3) fallaba si la partición DEFAULT ya tenía filas del mes a crear:
+-- PostgreSQL rechaza CREATE TABLE ... PARTITION OF ... FOR VALUES mientras haya filas en DEFAULT que le
+-- corresponderían a la nueva partición (pasa si se insertó con fechas fuera de las particiones
+-- existentes, p. ej. una importación con created_at futuro, o si el job estuvo detenido).
+--
+-- Ahora, si DEFAULT tiene filas del mes, todo en la misma transacción:
+--   1. se desacopla DEFAULT;
+--   2. se crea el mes como tabla suelta con la estructura del padre y se le copian esas filas;
+--   3. se borran de DEFAULT con sus triggers desactivados (el registro de ids de V15 no debe soltarlas:
+--      las filas siguen existiendo, solo cambian de partición);
+--   4. se acopla el mes como partición (crea sus índices y clona los triggers del padre) y se
+--      vuelve a acoplar DEFAULT.
+-- Copiar a una tabla suelta, y no insertar por el padre, evita que los triggers de fila vuelvan a
+-- registrar los ids o notifiquen el feed por filas que no cambiaron.
+-- Sin filas en DEFAULT el camino es el de siempre: CREATE TABLE ... PARTITION OF.
+
+CREATE OR REPLACE FUNCTION payflex_create_monthly_partitions(p_parent TEXT, p_from DATE, p_to DATE)
+RETURNS INTEGER
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_month   DATE := date_trunc('month', p_from)::date;
+    v_next    DATE;
+    v_name    TEXT;
+    v_default TEXT := p_parent || '_default';
+    v_columns TEXT;
+    v_pending BOOLEAN;
+    v_created INTEGER := 0;
+BEGIN
+    PERFORM pg_advisory_xact_lock(hashtext('payflex_partitions'));
+
+    SELECT string_agg(quote_ident(attname), ', ' ORDER BY attnum) INTO v_columns
+    FROM pg_attribute
+    WHERE attrelid = p_parent::regclass AND attnum > 0 AND NOT attisdropped;
+
+    WHILE v_month <= p_to LOOP
+        v_name := format('%s_p%s', p_parent, to_char(v_month, 'YYYYMM'));
+        v_next := (v_month + INTERVAL '1 month')::date;
+        IF to_regclass(v_name) IS NULL THEN
+            v_pending := FALSE;
+            IF to_regclass(v_default) IS NOT NULL THEN
+                EXECUTE format('SELECT EXISTS (SELECT 1 FROM %I WHERE created_at >= %L AND created_at < %L)',
+                               v_default, v_month, v_next)
+                    INTO v_pending;
+            END IF;
+
+            IF v_pending THEN
+                EXECUTE format('ALTER TABLE %I DETACH PARTITION %I', p_parent, v_default);
+                EXECUTE format('CREATE TABLE %I (LIKE %I INCLUDING DEFAULTS INCLUDING CONSTRAINTS)', v_name, p_parent);
+                EXECUTE format('INSERT INTO %I (%s) SELECT %s FROM %I WHERE created_at >= %L AND created_at < %L',
+                               v_name, v_columns, v_columns, v_default, v_month, v_next);
+                EXECUTE format('ALTER TABLE %I DISABLE TRIGGER USER', v_default);
+                EXECUTE format('DELETE FROM %I WHERE created_at >= %L AND created_at < %L', v_default, v_month, v_next);
+                EXECUTE format('ALTER TABLE %I ENABLE TRIGGER USER', v_default);
+                EXECUTE format('ALTER TABLE %I ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+                               p_parent, v_name, v_month, v_next);
+                EXECUTE format('ALTER TABLE %I ATTACH PARTITION %I DEFAULT', p_parent, v_default);
+                RAISE NOTICE 'moved rows of % from % into new partition %', v_month, v_default, v_name;
+            ELSE
+                EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                               v_name, p_parent, v_month, v_next);
+            END IF;
+            v_created := v_created + 1;
+        END IF;
+        v_month := v_next;
+    END LOOP;
+
+    RETURN v_created;
+END;
+$$;
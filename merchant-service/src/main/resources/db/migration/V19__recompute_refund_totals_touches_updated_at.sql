@@ -0,0 +1,68 @@
+-- El recálculo de totales de refunds marca updated_at en las filas que corrige.
+--
+-- Hasta V17 la corrección cambiaba refunded_amount/refund_count sin tocar updated_at: el delta-sync
+-- (cursor por updated_at) no veía el cambio y la versión del listado del dashboard necesitaba sumar
+-- refunded_amount para invalidar el ETag. Con updated_at = LOCALTIMESTAMP la fila corregida aparece
+-- como cualquier otra modificación y MAX(updated_at) alcanza como versión.
+
+CREATE OR REPLACE FUNCTION payflex_recompute_refund_totals(
+    p_since            TIMESTAMP,
+    p_after_created_at TIMESTAMP,
+    p_after_id         TEXT,
+    p_limit            INTEGER)
+RETURNS TABLE (payment_intent_id TEXT, intent_created_at TIMESTAMP, corrected BOOLEAN)
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_intent    RECORD;
+    v_total     NUMERIC;
+    v_count     INTEGER;
+    v_merchants TEXT[] := '{}';
+    v_suppress  TEXT := current_setting('payflex.suppress_notify', true);
+BEGIN
+    PERFORM set_config('payflex.suppress_notify', 'on', true);
+
+    FOR v_intent IN
+        SELECT pi.id, pi.created_at, pi.merchant_id
+        FROM payment_intents pi
+        WHERE pi.created_at >= p_since
+          AND (pi.created_at, pi.id) > (p_after_created_at, p_after_id)
+          AND (pi.refund_count > 0
+               OR EXISTS (SELECT 1 FROM refunds r
+                          WHERE r.payment_intent_id = pi.id
+                            AND r.status = 'succeeded'
+                            AND r.created_at >= pi.created_at))
+        ORDER BY pi.created_at, pi.id
+        LIMIT p_limit
+    LOOP
+        PERFORM 1 FROM payment_intents pi
+        WHERE pi.id = v_intent.id AND pi.created_at = v_intent.created_at
+        FOR UPDATE;
+
+        SELECT COALESCE(SUM(r.amount), 0), COUNT(*) INTO v_total, v_count
+        FROM refunds r
+        WHERE r.payment_intent_id = v_intent.id
+          AND r.status = 'succeeded'
+          AND r.created_at >= v_intent.created_at;
+
+        UPDATE payment_intents pi
+        SET refunded_amount = v_total,
+            refund_count = v_count,
+            updated_at = LOCALTIMESTAMP
+        WHERE pi.id = v_intent.id
+          AND pi.created_at = v_intent.created_at
+          AND (pi.refunded_amount <> v_total OR pi.refund_count <> v_count);
+
+        payment_intent_id := v_intent.id;
+        intent_created_at := v_intent.created_at;
+        corrected := FOUND;
+        IF corrected AND NOT v_intent.merchant_id = ANY(v_merchants) THEN
+            v_merchants := v_merchants || v_intent.merchant_id::TEXT;
+        END IF;
+        RETURN NEXT;
+    END LOOP;
+
+    -- Se restaura el valor anterior por si la llamada es parte de una transacción más larga
+    PERFORM set_config('payflex.suppress_notify', COALESCE(v_suppress, ''), true);
+    PERFORM payflex_notify_resync(m) FROM unnest(v_merchants) AS m;
+END;
+$$;
@@ -0,0 +1,146 @@
+-- Esquema base de merchant-service.
+-- En bases existentes (creadas a mano antes de Flyway) esta versión queda cubierta por
+-- baseline-on-migrate (baseline = 1), por eso todo usa IF NOT EXISTS.
+
+CREATE TABLE IF NOT EXISTS merchants (
+    id                   VARCHAR(64)  PRIMARY KEY,
+    business_name        VARCHAR(255) NOT NULL,
+    legal_name           VARCHAR(255),
+    tax_id               VARCHAR(64),
+    email                VARCHAR(255),
+    phone                VARCHAR(32),
+    website              VARCHAR(255),
+    status               VARCHAR(32)  NOT NULL DEFAULT 'active', -- active, inactive, suspended, pending
+    onboarding_completed BOOLEAN      NOT NULL DEFAULT FALSE,
+    created_at           TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at           TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS merchant_users (
+    user_id        VARCHAR(64)  PRIMARY KEY, -- ID del usuario de PocketBase
+    merchant_id    VARCHAR(64)  NOT NULL REFERENCES merchants (id),
+    email          VARCHAR(255) NOT NULL,
+    password_hash  VARCHAR(255),
+    name           VARCHAR(255),
+    phone          VARCHAR(32),
+    role           VARCHAR(32)  NOT NULL DEFAULT 'MERCHANT_ADMIN',
+    status         VARCHAR(32)  NOT NULL DEFAULT 'active',
+    email_verified BOOLEAN      NOT NULL DEFAULT FALSE,
+    last_login_at  TIMESTAMP,
+    created_at     TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at     TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS merchant_addresses (
+    id             SERIAL       PRIMARY KEY,
+    merchant_id    VARCHAR(64)  NOT NULL REFERENCES merchants (id),
+    address_type   VARCHAR(16)  NOT NULL, -- billing | shipping | legal
+    street_address VARCHAR(255),
+    city           VARCHAR(128),
+    state          VARCHAR(128),
+    postal_code    VARCHAR(32),
+    country        VARCHAR(2)   NOT NULL DEFAULT 'CL',
+    is_primary     BOOLEAN      NOT NULL DEFAULT FALSE,
+    created_at     TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at     TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS merchant_balances (
+    id                SERIAL        PRIMARY KEY,
+    merchant_id       VARCHAR(64)   NOT NULL UNIQUE REFERENCES merchants (id),
+    available_balance NUMERIC(19,2) NOT NULL DEFAULT 0,
+    pending_balance   NUMERIC(19,2) NOT NULL DEFAULT 0,
+    currency          VARCHAR(3)    NOT NULL DEFAULT 'CLP',
+    updated_at        TIMESTAMP     NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS merchant_payment_configs (
+    id                      BIGSERIAL    PRIMARY KEY,
+    merchant_id             VARCHAR(64)  NOT NULL UNIQUE REFERENCES merchants (id),
+    api_key_hash            VARCHAR(255),
+    webhook_url             VARCHAR(512),
+    webhook_secret          VARCHAR(255),
+    default_currency        VARCHAR(3)   NOT NULL DEFAULT 'CLP',
+    payment_methods_enabled TEXT,        -- JSON como texto
+    auto_capture            BOOLEAN      NOT NULL DEFAULT TRUE,
+    statement_descriptor    VARCHAR(64),
+    created_at              TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at              TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS customers (
+    id          VARCHAR(64)  PRIMARY KEY,
+    merchant_id VARCHAR(64)  NOT NULL REFERENCES merchants (id),
+    email       VARCHAR(255),
+    name        VARCHAR(255),
+    phone       VARCHAR(32),
+    metadata    TEXT,        -- JSON como texto
+    created_at  TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at  TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS payment_methods (
+    id               VARCHAR(64)  PRIMARY KEY,
+    customer_id      VARCHAR(64)  REFERENCES customers (id),
+    merchant_id      VARCHAR(64)  NOT NULL REFERENCES merchants (id),
+    type             VARCHAR(16)  NOT NULL, -- card, transfer, wallet
+    card_brand       VARCHAR(32),
+    card_last4       VARCHAR(4),
+    card_exp_month   INTEGER,
+    card_exp_year    INTEGER,
+    card_fingerprint VARCHAR(128),
+    is_default       BOOLEAN      NOT NULL DEFAULT FALSE,
+    metadata         TEXT,        -- JSON como texto
+    created_at       TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at       TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS products (
+    id             VARCHAR(64)   PRIMARY KEY,
+    merchant_id    VARCHAR(64)   NOT NULL REFERENCES merchants (id),
+    name           VARCHAR(255)  NOT NULL,
+    description    TEXT,
+    price          NUMERIC(19,2) NOT NULL DEFAULT 0,
+    currency       VARCHAR(3)    NOT NULL DEFAULT 'CLP',
+    sku            VARCHAR(64),
+    stock_quantity INTEGER,
+    status         VARCHAR(32)   NOT NULL DEFAULT 'active', -- active, inactive, archived
+    images         TEXT,         -- JSON como texto
+    metadata       TEXT,         -- JSON como texto
+    created_at     TIMESTAMP     NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at     TIMESTAMP     NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Los montos se guardan en la unidad mínima de la moneda (centavos, o unidades en monedas sin decimales)
+CREATE TABLE IF NOT EXISTS payment_intents (
+    id                   VARCHAR(64)   PRIMARY KEY,
+    merchant_id          VARCHAR(64)   NOT NULL REFERENCES merchants (id),
+    customer_id          VARCHAR(64),
+    amount               NUMERIC(19,2) NOT NULL,
+    currency             VARCHAR(3)    NOT NULL DEFAULT 'CLP',
+    status               VARCHAR(32)   NOT NULL,
+    payment_method_id    VARCHAR(64),
+    capture_method       VARCHAR(16),
+    confirmation_method  VARCHAR(16),
+    description          TEXT,
+    statement_descriptor VARCHAR(64),
+    metadata             JSON,
+    client_secret        VARCHAR(255),
+    last_payment_error   JSON,
+    created_at           TIMESTAMP     NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at           TIMESTAMP     NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS refunds (
+    id                VARCHAR(64)   PRIMARY KEY,
+    charge_id         VARCHAR(64),
+    payment_intent_id VARCHAR(64)   REFERENCES payment_intents (id),
+    merchant_id       VARCHAR(64)   NOT NULL REFERENCES merchants (id),
+    amount            NUMERIC(19,2) NOT NULL,
+    currency          VARCHAR(3)    NOT NULL DEFAULT 'CLP',
+    status            VARCHAR(32)   NOT NULL, -- pending, succeeded, failed, canceled
+    reason            VARCHAR(32),
+    metadata          JSON,
+    created_at        TIMESTAMP     NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at        TIMESTAMP     NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
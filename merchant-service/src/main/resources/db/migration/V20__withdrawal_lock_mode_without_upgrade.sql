@@ -0,0 +1,112 @@
+-- payflex_create_withdrawal decide el modo del advisory lock una sola vez, sin ampliarlo.
+--
+-- En V15 el retiro tomaba el lock compartido si el merchant tenía franjas y, si al releer ya no las
+-- tenía, pedía el exclusivo sin soltar el compartido. Dos retiros en esa situación se esperan entre sí
+-- (cada uno tiene el compartido que bloquea el exclusivo del otro) y Postgres aborta uno con 40P01.
+--
+-- Ahora el lock se toma dentro de un subbloque: si la relectura muestra que el modo no alcanza (lock
+-- compartido pero sin franjas) el subbloque aborta, el rollback del subbloque libera ese lock y se
+-- vuelve a empezar leyendo de nuevo las franjas. Con el exclusivo cualquier camino es válido.
+-- Activar y desactivar franjas toma el exclusivo (V7), así que con el lock tomado la relectura es estable.
+
+CREATE OR REPLACE FUNCTION payflex_create_withdrawal(
+    p_id                TEXT,
+    p_payment_intent_id TEXT,
+    p_amount            NUMERIC,
+    p_reason            TEXT,
+    p_metadata          JSON,
+    p_created_at        TIMESTAMP)
+RETURNS SETOF refunds
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_intent       payment_intents%ROWTYPE;
+    v_withdrawn    NUMERIC;
+    v_available    NUMERIC;
+    v_amount_minor BIGINT := ROUND(p_amount)::BIGINT;
+    v_balance      BIGINT;
+    v_stripes      SMALLINT;
+    v_locked       BOOLEAN := FALSE;
+BEGIN
+    IF v_amount_minor <= 0 THEN
+        RAISE EXCEPTION 'Amount is required and must be greater than zero' USING ERRCODE = 'PF001';
+    END IF;
+
+    SELECT * INTO v_intent FROM payment_intents
+    WHERE id = p_payment_intent_id
+      AND created_at = (SELECT created_at FROM payment_intent_ids WHERE id = p_payment_intent_id)
+    FOR UPDATE;
+    IF NOT FOUND THEN
+        RAISE EXCEPTION 'Payment intent not found: %', p_payment_intent_id USING ERRCODE = 'PF001';
+    END IF;
+
+    IF v_intent.status IS DISTINCT FROM 'succeeded' THEN
+        RAISE EXCEPTION 'Cannot withdraw from payment intent with status: %', v_intent.status USING ERRCODE = 'PF001';
+    END IF;
+
+    IF p_amount > v_intent.amount THEN
+        RAISE EXCEPTION 'Withdrawal amount % cannot exceed payment intent amount %', p_amount, v_intent.amount
+            USING ERRCODE = 'PF001';
+    END IF;
+
+    v_withdrawn := v_intent.refunded_amount;
+    v_available := v_intent.amount - v_withdrawn;
+    IF p_amount > v_available THEN
+        RAISE EXCEPTION 'Withdrawal amount % exceeds available from this payment intent % (already withdrawn: %)',
+            p_amount, v_available, v_withdrawn USING ERRCODE = 'PF001';
+    END IF;
+
+    WHILE NOT v_locked LOOP
+        v_stripes := payflex_balance_stripe_count(v_intent.merchant_id);
+        BEGIN
+            IF v_stripes > 0 THEN
+                PERFORM pg_advisory_xact_lock_shared(payflex_balance_lock_key(v_intent.merchant_id));
+                -- Releer: las franjas pueden haberse desactivado mientras se esperaba el lock
+                IF payflex_balance_stripe_count(v_intent.merchant_id) = 0 THEN
+                    RAISE EXCEPTION 'balance stripes disabled while waiting for the lock' USING ERRCODE = 'PF002';
+                END IF;
+            ELSE
+                -- Lock exclusivo: espera créditos en vuelo y serializa débitos del mismo merchant
+                PERFORM pg_advisory_xact_lock(payflex_balance_lock_key(v_intent.merchant_id));
+                -- Si mientras tanto se activaron franjas, el exclusivo también alcanza para debitarlas
+                v_stripes := payflex_balance_stripe_count(v_intent.merchant_id);
+            END IF;
+            v_locked := TRUE;
+        EXCEPTION WHEN SQLSTATE 'PF002' THEN
+            -- El rollback del subbloque ya soltó el lock compartido: se reintenta con el modo nuevo
+            NULL;
+        END;
+    END LOOP;
+
+    IF v_stripes > 0 THEN
+        IF NOT payflex_debit_balance_stripes(v_intent.merchant_id, v_stripes, p_id, v_amount_minor) THEN
+            RAISE EXCEPTION 'Insufficient balance. Available: %, Requested: %',
+                payflex_available_balance(v_intent.merchant_id), p_amount USING ERRCODE = 'PF001';
+        END IF;
+    ELSE
+        v_balance := payflex_ledger_balance(v_intent.merchant_id);
+        IF v_amount_minor > v_balance THEN
+            RAISE EXCEPTION 'Insufficient balance. Available: %, Requested: %', v_balance, p_amount
+                USING ERRCODE = 'PF001';
+        END IF;
+    END IF;
+
+    INSERT INTO balance_transactions (merchant_id, entry_type, amount_minor, currency, source_type, source_id, created_at)
+    VALUES (v_intent.merchant_id, 'debit', -v_amount_minor, v_intent.currency, 'withdrawal', p_id, p_created_at);
+
+    UPDATE payment_intents
+    SET refunded_amount = refunded_amount + p_amount,
+        refund_count = refund_count + 1,
+        updated_at = p_created_at
+    WHERE id = v_intent.id
+      AND created_at = v_intent.created_at;
+
+    RETURN QUERY
+    WITH inserted AS (
+        INSERT INTO refunds (id, charge_id, payment_intent_id, merchant_id, amount, currency, status, reason, metadata, created_at, updated_at)
+        VALUES (p_id, NULL, p_payment_intent_id, v_intent.merchant_id, p_amount, v_intent.currency, 'succeeded',
+                COALESCE(p_reason, 'withdrawal'), p_metadata, p_created_at, p_created_at)
+        RETURNING *
+    )
+    SELECT * FROM inserted;
+END;
+$$;
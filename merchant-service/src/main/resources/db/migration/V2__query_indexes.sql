@@ -0,0 +1,31 @@
+-- Índices diseñados para las consultas de los repositorios.
+-- Se crean dentro de la transacción de Flyway: son tablas chicas (merchants, usuarios, catálogo).
+-- En una base existente muy grande se pueden crear antes a mano con CREATE INDEX CONCURRENTLY y los
+-- mismos nombres; IF NOT EXISTS deja entonces la migración sin trabajo.
+
+-- payment_intents y refunds: sus índices se crean en V3, sobre las tablas particionadas que las
+-- reemplazan (crearlos aquí sobre las tablas que V3 descarta sería trabajo perdido).
+
+-- MerchantRepository
+CREATE INDEX IF NOT EXISTS idx_merchants_email ON merchants (email);
+CREATE INDEX IF NOT EXISTS idx_merchants_status ON merchants (status);
+
+-- MerchantUserRepository
+CREATE INDEX IF NOT EXISTS idx_merchant_users_merchant_status ON merchant_users (merchant_id, status);
+CREATE INDEX IF NOT EXISTS idx_merchant_users_role ON merchant_users (role);
+
+-- MerchantAddressRepository
+CREATE INDEX IF NOT EXISTS idx_merchant_addresses_merchant_type ON merchant_addresses (merchant_id, address_type);
+
+-- CustomerRepository
+CREATE INDEX IF NOT EXISTS idx_customers_merchant_created ON customers (merchant_id, created_at DESC);
+CREATE INDEX IF NOT EXISTS idx_customers_merchant_email ON customers (merchant_id, email);
+
+-- PaymentMethodRepository
+CREATE INDEX IF NOT EXISTS idx_payment_methods_customer_default ON payment_methods (customer_id, is_default);
+CREATE INDEX IF NOT EXISTS idx_payment_methods_merchant_type ON payment_methods (merchant_id, type);
+
+-- ProductRepository
+CREATE INDEX IF NOT EXISTS idx_products_merchant_created ON products (merchant_id, created_at DESC);
+CREATE INDEX IF NOT EXISTS idx_products_merchant_status ON products (merchant_id, status);
+CREATE INDEX IF NOT EXISTS idx_products_merchant_sku ON products (merchant_id, sku);
@@ -0,0 +1,154 @@
+-- Particionado mensual por created_at de payment_intents y refunds.
+--
+-- En un tabla particionada la PK debe incluir la columna de partición, por lo que pasa a ser
+-- (id, created_at). Por la misma razón refunds ya no puede tener FK hacia payment_intents(id).
+--
+-- Migración de datos existentes: las tablas actuales se renombran a *_legacy, se crean las
+-- particiones que cubren desde el mes más antiguo hasta tres meses adelante, se copian las filas
+-- y se eliminan las tablas legacy. Todo corre en la transacción de Flyway.
+
+CREATE SCHEMA IF NOT EXISTS archive;
+
+-- Crea (si faltan) las particiones mensuales <parent>_pYYYYMM entre p_from y p_to (inclusive).
+CREATE OR REPLACE FUNCTION payflex_create_monthly_partitions(p_parent TEXT, p_from DATE, p_to DATE)
+RETURNS INTEGER
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_month   DATE := date_trunc('month', p_from)::date;
+    v_name    TEXT;
+    v_created INTEGER := 0;
+BEGIN
+    PERFORM pg_advisory_xact_lock(hashtext('payflex_partitions'));
+
+    WHILE v_month <= p_to LOOP
+        v_name := format('%s_p%s', p_parent, to_char(v_month, 'YYYYMM'));
+        IF to_regclass(v_name) IS NULL THEN
+            EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                           v_name, p_parent, v_month, (v_month + INTERVAL '1 month')::date);
+            v_created := v_created + 1;
+        END IF;
+        v_month := (v_month + INTERVAL '1 month')::date;
+    END LOOP;
+
+    RETURN v_created;
+END;
+$$;
+
+-- Desacopla las particiones mensuales anteriores al mes de p_before y las mueve al esquema archive.
+CREATE OR REPLACE FUNCTION payflex_archive_monthly_partitions(p_parent TEXT, p_before DATE)
+RETURNS INTEGER
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_name     TEXT;
+    v_archived INTEGER := 0;
+BEGIN
+    PERFORM pg_advisory_xact_lock(hashtext('payflex_partitions'));
+
+    FOR v_name IN
+        SELECT c.relname
+        FROM pg_inherits i
+        JOIN pg_class c ON c.oid = i.inhrelid
+        JOIN pg_class p ON p.oid = i.inhparent
+        WHERE p.relname = p_parent
+          AND c.relname ~ ('^' || p_parent || '_p[0-9]{6}$')
+          AND to_date(right(c.relname, 6), 'YYYYMM') < date_trunc('month', p_before)
+        ORDER BY c.relname
+    LOOP
+        EXECUTE format('ALTER TABLE %I DETACH PARTITION %I', p_parent, v_name);
+        EXECUTE format('ALTER TABLE %I SET SCHEMA archive', v_name);
+        v_archived := v_archived + 1;
+    END LOOP;
+
+    RETURN v_archived;
+END;
+$$;
+
+-- ==================== refunds (primero, para soltar la FK hacia payment_intents) ====================
+
+ALTER TABLE refunds RENAME TO refunds_legacy;
+
+CREATE TABLE refunds (
+    id                VARCHAR(64)   NOT NULL,
+    charge_id         VARCHAR(64),
+    payment_intent_id VARCHAR(64),
+    merchant_id       VARCHAR(64)   NOT NULL REFERENCES merchants (id),
+    amount            NUMERIC(19,2) NOT NULL,
+    currency          VARCHAR(3)    NOT NULL DEFAULT 'CLP',
+    status            VARCHAR(32)   NOT NULL, -- pending, succeeded, failed, canceled
+    reason            VARCHAR(32),
+    metadata          JSON,
+    created_at        TIMESTAMP     NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at        TIMESTAMP     NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id, created_at)
+) PARTITION BY RANGE (created_at);
+
+CREATE TABLE refunds_default PARTITION OF refunds DEFAULT;
+
+SELECT payflex_create_monthly_partitions(
+    'refunds',
+    COALESCE((SELECT MIN(created_at) FROM refunds_legacy), CURRENT_TIMESTAMP)::date,
+    (CURRENT_DATE + INTERVAL '3 months')::date);
+
+INSERT INTO refunds (id, charge_id, payment_intent_id, merchant_id, amount, currency, status, reason, metadata, created_at, updated_at)
+SELECT id, charge_id, payment_intent_id, merchant_id, amount, currency, status, reason, metadata, created_at, updated_at
+FROM refunds_legacy;
+
+DROP TABLE refunds_legacy;
+
+-- ==================== payment_intents ====================
+
+ALTER TABLE payment_intents RENAME TO payment_intents_legacy;
+
+CREATE TABLE payment_intents (
+    id                   VARCHAR(64)   NOT NULL,
+    merchant_id          VARCHAR(64)   NOT NULL REFERENCES merchants (id),
+    customer_id          VARCHAR(64),
+    amount               NUMERIC(19,2) NOT NULL,
+    currency             VARCHAR(3)    NOT NULL DEFAULT 'CLP',
+    status               VARCHAR(32)   NOT NULL,
+    payment_method_id    VARCHAR(64),
+    capture_method       VARCHAR(16),
+    confirmation_method  VARCHAR(16),
+    description          TEXT,
+    statement_descriptor VARCHAR(64),
+    metadata             JSON,
+    client_secret        VARCHAR(255),
+    last_payment_error   JSON,
+    created_at           TIMESTAMP     NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at           TIMESTAMP     NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id, created_at)
+) PARTITION BY RANGE (created_at);
+
+CREATE TABLE payment_intents_default PARTITION OF payment_intents DEFAULT;
+
+SELECT payflex_create_monthly_partitions(
+    'payment_intents',
+    COALESCE((SELECT MIN(created_at) FROM payment_intents_legacy), CURRENT_TIMESTAMP)::date,
+    (CURRENT_DATE + INTERVAL '3 months')::date);
+
+INSERT INTO payment_intents (id, merchant_id, customer_id, amount, currency, status, payment_method_id, capture_method,
+                             confirmation_method, description, statement_descriptor, metadata, client_secret,
+                             last_payment_error, created_at, updated_at)
+SELECT id, merchant_id, customer_id, amount, currency, status, payment_method_id, capture_method,
+       confirmation_method, description, statement_descriptor, metadata, client_secret,
+       last_payment_error, created_at, updated_at
+FROM payment_intents_legacy;
+
+DROP TABLE payment_intents_legacy;
+
+-- ==================== índices (se propagan a cada partición) ====================
+-- Índices para las consultas de PaymentIntentRepository y RefundRepository (la búsqueda por id usa la PK);
+-- en tablas particionadas no se admite CONCURRENTLY.
+-- (merchant_id, created_at DESC, id): findByMerchantId y paginación por keyset.
+-- (merchant_id, status, created_at DESC) INCLUDE (amount, currency): agregados del dashboard con index-only scan.
+-- Parcial sobre refunds succeeded: sumRefundedAmountByPaymentIntentId.
+
+CREATE INDEX idx_payment_intents_merchant_created ON payment_intents (merchant_id, created_at DESC, id);
+CREATE INDEX idx_payment_intents_merchant_status_created ON payment_intents (merchant_id, status, created_at DESC) INCLUDE (amount, currency);
+CREATE INDEX idx_payment_intents_customer ON payment_intents (customer_id) WHERE customer_id IS NOT NULL;
+
+CREATE INDEX idx_refunds_payment_intent ON refunds (payment_intent_id, created_at);
+CREATE INDEX idx_refunds_payment_intent_succeeded ON refunds (payment_intent_id) INCLUDE (amount) WHERE status = 'succeeded';
+CREATE INDEX idx_refunds_charge ON refunds (charge_id) INCLUDE (amount, status) WHERE charge_id IS NOT NULL;
+CREATE INDEX idx_refunds_merchant_status_created ON refunds (merchant_id, status, created_at DESC) INCLUDE (amount);
+CREATE INDEX idx_refunds_merchant_created ON refunds (merchant_id, created_at DESC, id);
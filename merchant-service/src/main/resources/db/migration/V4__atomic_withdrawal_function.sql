@@ -0,0 +1,76 @@
+-- Retiro (withdrawal) en una sola llamada a la base de datos.
+--
+-- Valida el payment intent (estado, monto, lo ya retirado), descuenta el saldo disponible del
+-- merchant e inserta el retiro ya en estado succeeded, todo dentro de la misma sentencia
+-- SELECT * FROM payflex_create_withdrawal(...).
+--
+-- El FOR UPDATE sobre el payment intent serializa retiros concurrentes del mismo intent: cada
+-- sentencia de la función toma un snapshot nuevo, así que la suma de retiros ya ve los retiros
+-- confirmados por quien tenía el lock. El UPDATE condicional del balance evita sobregirar el saldo.
+--
+-- Los rechazos de negocio usan SQLSTATE PF001 y el mensaje se devuelve tal cual al cliente.
+
+CREATE OR REPLACE FUNCTION payflex_create_withdrawal(
+    p_id                TEXT,
+    p_payment_intent_id TEXT,
+    p_amount            NUMERIC,
+    p_reason            TEXT,
+    p_metadata          JSON,
+    p_created_at        TIMESTAMP)
+RETURNS SETOF refunds
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_intent    payment_intents%ROWTYPE;
+    v_withdrawn NUMERIC;
+    v_available NUMERIC;
+    v_balance   NUMERIC;
+BEGIN
+    SELECT * INTO v_intent FROM payment_intents WHERE id = p_payment_intent_id FOR UPDATE;
+    IF NOT FOUND THEN
+        RAISE EXCEPTION 'Payment intent not found: %', p_payment_intent_id USING ERRCODE = 'PF001';
+    END IF;
+
+    IF v_intent.status IS DISTINCT FROM 'succeeded' THEN
+        RAISE EXCEPTION 'Cannot withdraw from payment intent with status: %', v_intent.status USING ERRCODE = 'PF001';
+    END IF;
+
+    IF p_amount > v_intent.amount THEN
+        RAISE EXCEPTION 'Withdrawal amount % cannot exceed payment intent amount %', p_amount, v_intent.amount
+            USING ERRCODE = 'PF001';
+    END IF;
+
+    -- created_at >= el del intent permite descartar particiones anteriores de refunds
+    SELECT COALESCE(SUM(amount), 0) INTO v_withdrawn
+    FROM refunds
+    WHERE payment_intent_id = p_payment_intent_id
+      AND status = 'succeeded'
+      AND created_at >= v_intent.created_at;
+
+    v_available := v_intent.amount - v_withdrawn;
+    IF p_amount > v_available THEN
+        RAISE EXCEPTION 'Withdrawal amount % exceeds available from this payment intent % (already withdrawn: %)',
+            p_amount, v_available, v_withdrawn USING ERRCODE = 'PF001';
+    END IF;
+
+    UPDATE merchant_balances
+    SET available_balance = available_balance - p_amount,
+        updated_at = p_created_at
+    WHERE merchant_id = v_intent.merchant_id
+      AND available_balance >= p_amount;
+
+    IF NOT FOUND THEN
+        SELECT available_balance INTO v_balance FROM merchant_balances WHERE merchant_id = v_intent.merchant_id;
+        RAISE EXCEPTION 'Insufficient balance. Available: %, Requested: %', COALESCE(v_balance, 0), p_amount
+            USING ERRCODE = 'PF001';
+    END IF;
+
+    RETURN QUERY
+    WITH inserted AS (
+        INSERT INTO refunds (id, charge_id, payment_intent_id, merchant_id, amount, currency, status, reason, metadata, created_at, updated_at)
+        VALUES (p_id, NULL, p_payment_intent_id, v_intent.merchant_id, p_amount, v_intent.currency, 'succeeded',
+                COALESCE(p_reason, 'withdrawal'), p_metadata, p_created_at, p_created_at)
+        RETURNING *
+    )
+    SELECT * FROM inserted;
+END;
+$$;
@@ -0,0 +1,133 @@
+-- Total retirado desnormalizado en payment_intents.
+--
+-- refunded_amount / refund_count acumulan los retiros succeeded de cada intent. Los mantiene
+-- payflex_create_withdrawal dentro de la misma operación que inserta el retiro (con el intent
+-- bloqueado FOR UPDATE), así la validación ya no necesita sumar refunds.
+-- payflex_recompute_refund_totals los recalcula desde refunds para el job de integridad.
+
+ALTER TABLE payment_intents
+    ADD COLUMN IF NOT EXISTS refunded_amount NUMERIC(19,2) NOT NULL DEFAULT 0,
+    ADD COLUMN IF NOT EXISTS refund_count    INTEGER       NOT NULL DEFAULT 0;
+
+UPDATE payment_intents pi
+SET refunded_amount = t.total,
+    refund_count = t.cnt
+FROM (
+    SELECT payment_intent_id, SUM(amount) AS total, COUNT(*) AS cnt
+    FROM refunds
+    WHERE status = 'succeeded' AND payment_intent_id IS NOT NULL
+    GROUP BY payment_intent_id
+) t
+WHERE pi.id = t.payment_intent_id;
+
+-- Misma función que V4, validando contra refunded_amount en lugar de sumar refunds.
+CREATE OR REPLACE FUNCTION payflex_create_withdrawal(
+    p_id                TEXT,
+    p_payment_intent_id TEXT,
+    p_amount            NUMERIC,
+    p_reason            TEXT,
+    p_metadata          JSON,
+    p_created_at        TIMESTAMP)
+RETURNS SETOF refunds
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_intent    payment_intents%ROWTYPE;
+    v_withdrawn NUMERIC;
+    v_available NUMERIC;
+    v_balance   NUMERIC;
+BEGIN
+    SELECT * INTO v_intent FROM payment_intents WHERE id = p_payment_intent_id FOR UPDATE;
+    IF NOT FOUND THEN
+        RAISE EXCEPTION 'Payment intent not found: %', p_payment_intent_id USING ERRCODE = 'PF001';
+    END IF;
+
+    IF v_intent.status IS DISTINCT FROM 'succeeded' THEN
+        RAISE EXCEPTION 'Cannot withdraw from payment intent with status: %', v_intent.status USING ERRCODE = 'PF001';
+    END IF;
+
+    IF p_amount > v_intent.amount THEN
+        RAISE EXCEPTION 'Withdrawal amount % cannot exceed payment intent amount %', p_amount, v_intent.amount
+            USING ERRCODE = 'PF001';
+    END IF;
+
+    v_withdrawn := v_intent.refunded_amount;
+    v_available := v_intent.amount - v_withdrawn;
+    IF p_amount > v_available THEN
+        RAISE EXCEPTION 'Withdrawal amount % exceeds available from this payment intent % (already withdrawn: %)',
+            p_amount, v_available, v_withdrawn USING ERRCODE = 'PF001';
+    END IF;
+
+    UPDATE merchant_balances
+    SET available_balance = available_balance - p_amount,
+        updated_at = p_created_at
+    WHERE merchant_id = v_intent.merchant_id
+      AND available_balance >= p_amount;
+
+    IF NOT FOUND THEN
+        SELECT available_balance INTO v_balance FROM merchant_balances WHERE merchant_id = v_intent.merchant_id;
+        RAISE EXCEPTION 'Insufficient balance. Available: %, Requested: %', COALESCE(v_balance, 0), p_amount
+            USING ERRCODE = 'PF001';
+    END IF;
+
+    UPDATE payment_intents
+    SET refunded_amount = refunded_amount + p_amount,
+        refund_count = refund_count + 1,
+        updated_at = p_created_at
+    WHERE id = v_intent.id
+      AND created_at = v_intent.created_at;
+
+    RETURN QUERY
+    WITH inserted AS (
+        INSERT INTO refunds (id, charge_id, payment_intent_id, merchant_id, amount, currency, status, reason, metadata, created_at, updated_at)
+        VALUES (p_id, NULL, p_payment_intent_id, v_intent.merchant_id, p_amount, v_intent.currency, 'succeeded',
+                COALESCE(p_reason, 'withdrawal'), p_metadata, p_created_at, p_created_at)
+        RETURNING *
+    )
+    SELECT * FROM inserted;
+END;
+$$;
+
+-- Recalcula refunded_amount / refund_count de los intents creados desde p_since que tengan
+-- retiros o un total distinto de cero. Cada intent se bloquea antes de sumar, de modo que un
+-- retiro concurrente no deja el total desactualizado. Devuelve los ids corregidos.
+CREATE OR REPLACE FUNCTION payflex_recompute_refund_totals(p_since TIMESTAMP)
+RETURNS SETOF TEXT
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_intent RECORD;
+    v_total  NUMERIC;
+    v_count  INTEGER;
+BEGIN
+    FOR v_intent IN
+        SELECT pi.id, pi.created_at
+        FROM payment_intents pi
+        WHERE pi.created_at >= p_since
+          AND (pi.refund_count > 0
+               OR EXISTS (SELECT 1 FROM refunds r
+                          WHERE r.payment_intent_id = pi.id
+                            AND r.status = 'succeeded'
+                            AND r.created_at >= pi.created_at))
+    LOOP
+        PERFORM 1 FROM payment_intents
+        WHERE id = v_intent.id AND created_at = v_intent.created_at
+        FOR UPDATE;
+
+        SELECT COALESCE(SUM(amount), 0), COUNT(*) INTO v_total, v_count
+        FROM refunds
+        WHERE payment_intent_id = v_intent.id
+          AND status = 'succeeded'
+          AND created_at >= v_intent.created_at;
+
+        UPDATE payment_intents
+        SET refunded_amount = v_total,
+            refund_count = v_count
+        WHERE id = v_intent.id
+          AND created_at = v_intent.created_at
+          AND (refunded_amount <> v_total OR refund_count <> v_count);
+
+        IF FOUND THEN
+            RETURN NEXT v_intent.id;
+        END IF;
+    END LOOP;
+END;
+$$;
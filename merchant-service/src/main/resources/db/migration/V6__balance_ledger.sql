@@ -0,0 +1,207 @@
+-- Ledger de saldo append-only con snapshots por merchant.
+--
+-- Cada movimiento de saldo es una fila en balance_transactions (montos en unidad mínima, con
+-- signo: créditos positivos, débitos negativos). El saldo vigente es el último snapshot del
+-- merchant más la suma de los movimientos posteriores (payflex_available_balance).
+-- merchant_balances.available_balance deja de actualizarse: queda como saldo de apertura
+-- histórico, y las lecturas usan el ledger.
+--
+-- Bloqueo por merchant (advisory lock sobre hashtext('payflex_balance:' || merchant_id)):
+--   * créditos toman el lock compartido, así que no compiten entre sí;
+--   * débitos y snapshots toman el lock exclusivo, por lo que ven todos los créditos confirmados
+--     y ningún crédito queda en vuelo con un id menor al último incluido en un snapshot.
+
+CREATE TABLE IF NOT EXISTS balance_transactions (
+    id           BIGSERIAL   PRIMARY KEY,
+    merchant_id  VARCHAR(64) NOT NULL REFERENCES merchants (id),
+    entry_type   VARCHAR(16) NOT NULL, -- credit | debit
+    amount_minor BIGINT      NOT NULL,
+    currency     VARCHAR(3)  NOT NULL,
+    source_type  VARCHAR(32) NOT NULL, -- opening | payment_intent | withdrawal | withdrawal_cancel
+    source_id    VARCHAR(64),
+    created_at   TIMESTAMP   NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT chk_balance_transactions_sign CHECK (
+        (entry_type = 'credit' AND amount_minor > 0) OR (entry_type = 'debit' AND amount_minor < 0))
+);
+
+-- Suma de movimientos posteriores al snapshot con index-only scan
+CREATE INDEX IF NOT EXISTS idx_balance_transactions_merchant_id
+    ON balance_transactions (merchant_id, id) INCLUDE (amount_minor);
+
+-- Un mismo origen (p. ej. un payment intent) no puede acreditarse o debitarse dos veces
+CREATE UNIQUE INDEX IF NOT EXISTS ux_balance_transactions_source
+    ON balance_transactions (source_type, source_id, entry_type) WHERE source_id IS NOT NULL;
+
+CREATE TABLE IF NOT EXISTS merchant_balance_snapshots (
+    merchant_id     VARCHAR(64) NOT NULL REFERENCES merchants (id),
+    last_entry_id   BIGINT      NOT NULL,
+    available_minor BIGINT      NOT NULL,
+    created_at      TIMESTAMP   NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (merchant_id, last_entry_id)
+);
+
+-- Saldo de apertura: lo que cada merchant tenía en merchant_balances al migrar
+INSERT INTO balance_transactions (merchant_id, entry_type, amount_minor, currency, source_type, source_id, created_at)
+SELECT merchant_id,
+       CASE WHEN available_balance > 0 THEN 'credit' ELSE 'debit' END,
+       ROUND(available_balance)::BIGINT,
+       currency,
+       'opening',
+       NULL,
+       CURRENT_TIMESTAMP
+FROM merchant_balances
+WHERE ROUND(available_balance) <> 0;
+
+CREATE OR REPLACE FUNCTION payflex_balance_lock_key(p_merchant_id TEXT)
+RETURNS BIGINT
+LANGUAGE sql IMMUTABLE AS $$
+    SELECT hashtext('payflex_balance:' || p_merchant_id)::BIGINT;
+$$;
+
+-- Saldo vigente = último snapshot + movimientos posteriores
+CREATE OR REPLACE FUNCTION payflex_available_balance(p_merchant_id TEXT)
+RETURNS BIGINT
+LANGUAGE sql STABLE AS $$
+    SELECT COALESCE(s.available_minor, 0)
+           + COALESCE((SELECT SUM(t.amount_minor)
+                       FROM balance_transactions t
+                       WHERE t.merchant_id = p_merchant_id
+                         AND t.id > COALESCE(s.last_entry_id, 0)), 0)::BIGINT
+    FROM (SELECT 1) AS one
+    LEFT JOIN LATERAL (
+        SELECT available_minor, last_entry_id
+        FROM merchant_balance_snapshots
+        WHERE merchant_id = p_merchant_id
+        ORDER BY last_entry_id DESC
+        LIMIT 1
+    ) s ON TRUE;
+$$;
+
+-- Crédito idempotente por origen. Devuelve el id del movimiento o NULL si ya existía.
+CREATE OR REPLACE FUNCTION payflex_credit_balance(
+    p_merchant_id  TEXT,
+    p_amount_minor BIGINT,
+    p_currency     TEXT,
+    p_source_type  TEXT,
+    p_source_id    TEXT,
+    p_created_at   TIMESTAMP)
+RETURNS BIGINT
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_id BIGINT;
+BEGIN
+    PERFORM pg_advisory_xact_lock_shared(payflex_balance_lock_key(p_merchant_id));
+
+    INSERT INTO balance_transactions (merchant_id, entry_type, amount_minor, currency, source_type, source_id, created_at)
+    VALUES (p_merchant_id, 'credit', p_amount_minor, p_currency, p_source_type, p_source_id, p_created_at)
+    ON CONFLICT (source_type, source_id, entry_type) WHERE source_id IS NOT NULL DO NOTHING
+    RETURNING id INTO v_id;
+
+    RETURN v_id;
+END;
+$$;
+
+-- Snapshot del saldo de un merchant si tiene al menos p_min_entries movimientos desde el último.
+-- Devuelve el saldo registrado o NULL si no hacía falta.
+CREATE OR REPLACE FUNCTION payflex_take_balance_snapshot(p_merchant_id TEXT, p_min_entries INTEGER)
+RETURNS BIGINT
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_last_snapshot BIGINT;
+    v_last_entry    BIGINT;
+    v_pending       INTEGER;
+    v_balance       BIGINT;
+BEGIN
+    PERFORM pg_advisory_xact_lock(payflex_balance_lock_key(p_merchant_id));
+
+    SELECT COALESCE(MAX(last_entry_id), 0) INTO v_last_snapshot
+    FROM merchant_balance_snapshots WHERE merchant_id = p_merchant_id;
+
+    SELECT MAX(id), COUNT(*) INTO v_last_entry, v_pending
+    FROM balance_transactions WHERE merchant_id = p_merchant_id AND id > v_last_snapshot;
+
+    IF v_pending < GREATEST(p_min_entries, 1) THEN
+        RETURN NULL;
+    END IF;
+
+    v_balance := payflex_available_balance(p_merchant_id);
+
+    INSERT INTO merchant_balance_snapshots (merchant_id, last_entry_id, available_minor, created_at)
+    VALUES (p_merchant_id, v_last_entry, v_balance, CURRENT_TIMESTAMP);
+
+    RETURN v_balance;
+END;
+$$;
+
+-- Retiro: igual que V5, pero el saldo se valida contra el ledger y se registra un débito
+-- en lugar de actualizar merchant_balances.
+CREATE OR REPLACE FUNCTION payflex_create_withdrawal(
+    p_id                TEXT,
+    p_payment_intent_id TEXT,
+    p_amount            NUMERIC,
+    p_reason            TEXT,
+    p_metadata          JSON,
+    p_created_at        TIMESTAMP)
+RETURNS SETOF refunds
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_intent       payment_intents%ROWTYPE;
+    v_withdrawn    NUMERIC;
+    v_available    NUMERIC;
+    v_amount_minor BIGINT := ROUND(p_amount)::BIGINT;
+    v_balance      BIGINT;
+BEGIN
+    IF v_amount_minor <= 0 THEN
+        RAISE EXCEPTION 'Amount is required and must be greater than zero' USING ERRCODE = 'PF001';
+    END IF;
+
+    SELECT * INTO v_intent FROM payment_intents WHERE id = p_payment_intent_id FOR UPDATE;
+    IF NOT FOUND THEN
+        RAISE EXCEPTION 'Payment intent not found: %', p_payment_intent_id USING ERRCODE = 'PF001';
+    END IF;
+
+    IF v_intent.status IS DISTINCT FROM 'succeeded' THEN
+        RAISE EXCEPTION 'Cannot withdraw from payment intent with status: %', v_intent.status USING ERRCODE = 'PF001';
+    END IF;
+
+    IF p_amount > v_intent.amount THEN
+        RAISE EXCEPTION 'Withdrawal amount % cannot exceed payment intent amount %', p_amount, v_intent.amount
+            USING ERRCODE = 'PF001';
+    END IF;
+
+    v_withdrawn := v_intent.refunded_amount;
+    v_available := v_intent.amount - v_withdrawn;
+    IF p_amount > v_available THEN
+        RAISE EXCEPTION 'Withdrawal amount % exceeds available from this payment intent % (already withdrawn: %)',
+            p_amount, v_available, v_withdrawn USING ERRCODE = 'PF001';
+    END IF;
+
+    -- Lock exclusivo: espera créditos en vuelo y serializa débitos del mismo merchant
+    PERFORM pg_advisory_xact_lock(payflex_balance_lock_key(v_intent.merchant_id));
+
+    v_balance := payflex_available_balance(v_intent.merchant_id);
+    IF v_amount_minor > v_balance THEN
+        RAISE EXCEPTION 'Insufficient balance. Available: %, Requested: %', v_balance, p_amount
+            USING ERRCODE = 'PF001';
+    END IF;
+
+    INSERT INTO balance_transactions (merchant_id, entry_type, amount_minor, currency, source_type, source_id, created_at)
+    VALUES (v_intent.merchant_id, 'debit', -v_amount_minor, v_intent.currency, 'withdrawal', p_id, p_created_at);
+
+    UPDATE payment_intents
+    SET refunded_amount = refunded_amount + p_amount,
+        refund_count = refund_count + 1,
+        updated_at = p_created_at
+    WHERE id = v_intent.id
+      AND created_at = v_intent.created_at;
+
+    RETURN QUERY
+    WITH inserted AS (
+        INSERT INTO refunds (id, charge_id, payment_intent_id, merchant_id, amount, currency, status, reason, metadata, created_at, updated_at)
+        VALUES (p_id, NULL, p_payment_intent_id, v_intent.merchant_id, p_amount, v_intent.currency, 'succeeded',
+                COALESCE(p_reason, 'withdrawal'), p_metadata, p_created_at, p_created_at)
+        RETURNING *
+    )
+    SELECT * FROM inserted;
+END;
+$$;
@@ -0,0 +1,303 @@
+-- Contadores de saldo particionados en franjas (stripes) para merchants de alto volumen.
+--
+-- Con balance_stripes = 0 (valor por defecto) el merchant usa solo el ledger de V6. Con N > 0 se
+-- mantienen además N filas en merchant_balance_stripes cuya suma es el saldo vigente:
+--   * un crédito suma en la franja elegida por hash del origen, así N escritores concurrentes
+--     reparten sus row locks entre N filas;
+--   * un débito intenta primero su franja; si no alcanza, bloquea todas las franjas en orden
+--     (sin deadlocks) y toma prestado de las demás;
+--   * leer el saldo es sumar N filas.
+-- El ledger se sigue escribiendo en ambos modos y sigue siendo la fuente de verdad; activar o
+-- desactivar franjas toma el advisory lock exclusivo del merchant y recalcula desde el ledger.
+-- En modo franjas créditos y débitos toman el advisory lock compartido (la consistencia del
+-- saldo la dan los row locks de las franjas).
+
+ALTER TABLE merchant_balances
+    ADD COLUMN IF NOT EXISTS balance_stripes SMALLINT NOT NULL DEFAULT 0;
+
+CREATE TABLE IF NOT EXISTS merchant_balance_stripes (
+    merchant_id     VARCHAR(64) NOT NULL REFERENCES merchants (id),
+    stripe          SMALLINT    NOT NULL,
+    available_minor BIGINT      NOT NULL DEFAULT 0,
+    PRIMARY KEY (merchant_id, stripe),
+    CONSTRAINT chk_merchant_balance_stripes_non_negative CHECK (available_minor >= 0)
+);
+
+CREATE OR REPLACE FUNCTION payflex_balance_stripe_count(p_merchant_id TEXT)
+RETURNS SMALLINT
+LANGUAGE sql STABLE AS $$
+    SELECT COALESCE((SELECT balance_stripes FROM merchant_balances WHERE merchant_id = p_merchant_id), 0)::SMALLINT;
+$$;
+
+-- Saldo según el ledger (último snapshot + movimientos posteriores); es la definición de V6
+CREATE OR REPLACE FUNCTION payflex_ledger_balance(p_merchant_id TEXT)
+RETURNS BIGINT
+LANGUAGE sql STABLE AS $$
+    SELECT COALESCE(s.available_minor, 0)
+           + COALESCE((SELECT SUM(t.amount_minor)
+                       FROM balance_transactions t
+                       WHERE t.merchant_id = p_merchant_id
+                         AND t.id > COALESCE(s.last_entry_id, 0)), 0)::BIGINT
+    FROM (SELECT 1) AS one
+    LEFT JOIN LATERAL (
+        SELECT available_minor, last_entry_id
+        FROM merchant_balance_snapshots
+        WHERE merchant_id = p_merchant_id
+        ORDER BY last_entry_id DESC
+        LIMIT 1
+    ) s ON TRUE;
+$$;
+
+-- Saldo vigente: suma de franjas si el merchant las tiene activas, si no el ledger
+CREATE OR REPLACE FUNCTION payflex_available_balance(p_merchant_id TEXT)
+RETURNS BIGINT
+LANGUAGE sql STABLE AS $$
+    SELECT CASE
+               WHEN payflex_balance_stripe_count(p_merchant_id) > 0 THEN
+                   (SELECT COALESCE(SUM(available_minor), 0)::BIGINT
+                    FROM merchant_balance_stripes WHERE merchant_id = p_merchant_id)
+               ELSE payflex_ledger_balance(p_merchant_id)
+           END;
+$$;
+
+CREATE OR REPLACE FUNCTION payflex_take_balance_snapshot(p_merchant_id TEXT, p_min_entries INTEGER)
+RETURNS BIGINT
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_last_snapshot BIGINT;
+    v_last_entry    BIGINT;
+    v_pending       INTEGER;
+    v_balance       BIGINT;
+BEGIN
+    PERFORM pg_advisory_xact_lock(payflex_balance_lock_key(p_merchant_id));
+
+    SELECT COALESCE(MAX(last_entry_id), 0) INTO v_last_snapshot
+    FROM merchant_balance_snapshots WHERE merchant_id = p_merchant_id;
+
+    SELECT MAX(id), COUNT(*) INTO v_last_entry, v_pending
+    FROM balance_transactions WHERE merchant_id = p_merchant_id AND id > v_last_snapshot;
+
+    IF v_pending < GREATEST(p_min_entries, 1) THEN
+        RETURN NULL;
+    END IF;
+
+    v_balance := payflex_ledger_balance(p_merchant_id);
+
+    INSERT INTO merchant_balance_snapshots (merchant_id, last_entry_id, available_minor, created_at)
+    VALUES (p_merchant_id, v_last_entry, v_balance, CURRENT_TIMESTAMP);
+
+    RETURN v_balance;
+END;
+$$;
+
+-- Activa N franjas (1..64) para un merchant, cargando el saldo del ledger en la franja 0
+CREATE OR REPLACE FUNCTION payflex_enable_balance_stripes(p_merchant_id TEXT, p_stripes INTEGER)
+RETURNS BIGINT
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_balance BIGINT;
+BEGIN
+    IF p_stripes < 1 OR p_stripes > 64 THEN
+        RAISE EXCEPTION 'Balance stripes must be between 1 and 64, got %', p_stripes USING ERRCODE = 'PF001';
+    END IF;
+
+    PERFORM pg_advisory_xact_lock(payflex_balance_lock_key(p_merchant_id));
+
+    UPDATE merchant_balances SET balance_stripes = p_stripes WHERE merchant_id = p_merchant_id;
+    IF NOT FOUND THEN
+        RAISE EXCEPTION 'Merchant balance not found: %', p_merchant_id USING ERRCODE = 'PF001';
+    END IF;
+
+    v_balance := payflex_ledger_balance(p_merchant_id);
+    IF v_balance < 0 THEN
+        RAISE EXCEPTION 'Cannot stripe a negative balance: %', v_balance USING ERRCODE = 'PF001';
+    END IF;
+
+    DELETE FROM merchant_balance_stripes WHERE merchant_id = p_merchant_id;
+    INSERT INTO merchant_balance_stripes (merchant_id, stripe, available_minor)
+    SELECT p_merchant_id, s, CASE WHEN s = 0 THEN v_balance ELSE 0 END
+    FROM generate_series(0, p_stripes - 1) AS s;
+
+    RETURN v_balance;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION payflex_disable_balance_stripes(p_merchant_id TEXT)
+RETURNS BIGINT
+LANGUAGE plpgsql AS $$
+BEGIN
+    PERFORM pg_advisory_xact_lock(payflex_balance_lock_key(p_merchant_id));
+
+    UPDATE merchant_balances SET balance_stripes = 0 WHERE merchant_id = p_merchant_id;
+    DELETE FROM merchant_balance_stripes WHERE merchant_id = p_merchant_id;
+
+    RETURN payflex_ledger_balance(p_merchant_id);
+END;
+$$;
+
+-- Descuenta p_amount_minor de las franjas del merchant; devuelve FALSE si no hay saldo suficiente
+CREATE OR REPLACE FUNCTION payflex_debit_balance_stripes(p_merchant_id TEXT, p_stripes INTEGER, p_key TEXT, p_amount_minor BIGINT)
+RETURNS BOOLEAN
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_home      INTEGER := abs(hashtext(p_key) % p_stripes);
+    v_total     BIGINT;
+    v_remaining BIGINT := p_amount_minor;
+    v_take      BIGINT;
+    v_stripe    RECORD;
+BEGIN
+    -- Camino rápido: la franja propia alcanza
+    UPDATE merchant_balance_stripes
+    SET available_minor = available_minor - p_amount_minor
+    WHERE merchant_id = p_merchant_id AND stripe = v_home AND available_minor >= p_amount_minor;
+    IF FOUND THEN
+        RETURN TRUE;
+    END IF;
+
+    -- Préstamo entre franjas: bloquear todas en orden de stripe
+    SELECT SUM(available_minor) INTO v_total
+    FROM (SELECT available_minor FROM merchant_balance_stripes
+          WHERE merchant_id = p_merchant_id ORDER BY stripe FOR UPDATE) locked;
+
+    IF COALESCE(v_total, 0) < p_amount_minor THEN
+        RETURN FALSE;
+    END IF;
+
+    FOR v_stripe IN
+        SELECT stripe, available_minor FROM merchant_balance_stripes
+        WHERE merchant_id = p_merchant_id AND available_minor > 0
+        ORDER BY (stripe = v_home) DESC, available_minor DESC
+    LOOP
+        v_take := LEAST(v_stripe.available_minor, v_remaining);
+        UPDATE merchant_balance_stripes
+        SET available_minor = available_minor - v_take
+        WHERE merchant_id = p_merchant_id AND stripe = v_stripe.stripe;
+        v_remaining := v_remaining - v_take;
+        EXIT WHEN v_remaining = 0;
+    END LOOP;
+
+    RETURN TRUE;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION payflex_credit_balance(
+    p_merchant_id  TEXT,
+    p_amount_minor BIGINT,
+    p_currency     TEXT,
+    p_source_type  TEXT,
+    p_source_id    TEXT,
+    p_created_at   TIMESTAMP)
+RETURNS BIGINT
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_id      BIGINT;
+    v_stripes SMALLINT;
+BEGIN
+    PERFORM pg_advisory_xact_lock_shared(payflex_balance_lock_key(p_merchant_id));
+
+    INSERT INTO balance_transactions (merchant_id, entry_type, amount_minor, currency, source_type, source_id, created_at)
+    VALUES (p_merchant_id, 'credit', p_amount_minor, p_currency, p_source_type, p_source_id, p_created_at)
+    ON CONFLICT (source_type, source_id, entry_type) WHERE source_id IS NOT NULL DO NOTHING
+    RETURNING id INTO v_id;
+
+    v_stripes := payflex_balance_stripe_count(p_merchant_id);
+    IF v_id IS NOT NULL AND v_stripes > 0 THEN
+        UPDATE merchant_balance_stripes
+        SET available_minor = available_minor + p_amount_minor
+        WHERE merchant_id = p_merchant_id
+          AND stripe = abs(hashtext(COALESCE(p_source_id, v_id::TEXT)) % v_stripes);
+    END IF;
+
+    RETURN v_id;
+END;
+$$;
+
+-- Retiro: igual que V6; en modo franjas el saldo se descuenta de las franjas bajo el lock compartido
+CREATE OR REPLACE FUNCTION payflex_create_withdrawal(
+    p_id                TEXT,
+    p_payment_intent_id TEXT,
+    p_amount            NUMERIC,
+    p_reason            TEXT,
+    p_metadata          JSON,
+    p_created_at        TIMESTAMP)
+RETURNS SETOF refunds
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_intent       payment_intents%ROWTYPE;
+    v_withdrawn    NUMERIC;
+    v_available    NUMERIC;
+    v_amount_minor BIGINT := ROUND(p_amount)::BIGINT;
+    v_balance      BIGINT;
+    v_stripes      SMALLINT;
+BEGIN
+    IF v_amount_minor <= 0 THEN
+        RAISE EXCEPTION 'Amount is required and must be greater than zero' USING ERRCODE = 'PF001';
+    END IF;
+
+    SELECT * INTO v_intent FROM payment_intents WHERE id = p_payment_intent_id FOR UPDATE;
+    IF NOT FOUND THEN
+        RAISE EXCEPTION 'Payment intent not found: %', p_payment_intent_id USING ERRCODE = 'PF001';
+    END IF;
+
+    IF v_intent.status IS DISTINCT FROM 'succeeded' THEN
+        RAISE EXCEPTION 'Cannot withdraw from payment intent with status: %', v_intent.status USING ERRCODE = 'PF001';
+    END IF;
+
+    IF p_amount > v_intent.amount THEN
+        RAISE EXCEPTION 'Withdrawal amount % cannot exceed payment intent amount %', p_amount, v_intent.amount
+            USING ERRCODE = 'PF001';
+    END IF;
+
+    v_withdrawn := v_intent.refunded_amount;
+    v_available := v_intent.amount - v_withdrawn;
+    IF p_amount > v_available THEN
+        RAISE EXCEPTION 'Withdrawal amount % exceeds available from this payment intent % (already withdrawn: %)',
+            p_amount, v_available, v_withdrawn USING ERRCODE = 'PF001';
+    END IF;
+
+    v_stripes := payflex_balance_stripe_count(v_intent.merchant_id);
+    IF v_stripes > 0 THEN
+        PERFORM pg_advisory_xact_lock_shared(payflex_balance_lock_key(v_intent.merchant_id));
+    ELSE
+        PERFORM pg_advisory_xact_lock(payflex_balance_lock_key(v_intent.merchant_id));
+    END IF;
+    -- Releer: las franjas pueden haberse activado o desactivado mientras se esperaba el lock
+    v_stripes := payflex_balance_stripe_count(v_intent.merchant_id);
+
+    IF v_stripes > 0 THEN
+        IF NOT payflex_debit_balance_stripes(v_intent.merchant_id, v_stripes, p_id, v_amount_minor) THEN
+            RAISE EXCEPTION 'Insufficient balance. Available: %, Requested: %',
+                payflex_available_balance(v_intent.merchant_id), p_amount USING ERRCODE = 'PF001';
+        END IF;
+    ELSE
+        -- Lock exclusivo: espera créditos en vuelo y serializa débitos del mismo merchant
+        -- (si ya se tiene es un no-op; si se tenía el compartido, lo amplía)
+        PERFORM pg_advisory_xact_lock(payflex_balance_lock_key(v_intent.merchant_id));
+
+        v_balance := payflex_ledger_balance(v_intent.merchant_id);
+        IF v_amount_minor > v_balance THEN
+            RAISE EXCEPTION 'Insufficient balance. Available: %, Requested: %', v_balance, p_amount
+                USING ERRCODE = 'PF001';
+        END IF;
+    END IF;
+
+    INSERT INTO balance_transactions (merchant_id, entry_type, amount_minor, currency, source_type, source_id, created_at)
+    VALUES (v_intent.merchant_id, 'debit', -v_amount_minor, v_intent.currency, 'withdrawal', p_id, p_created_at);
+
+    UPDATE payment_intents
+    SET refunded_amount = refunded_amount + p_amount,
+        refund_count = refund_count + 1,
+        updated_at = p_created_at
+    WHERE id = v_intent.id
+      AND created_at = v_intent.created_at;
+
+    RETURN QUERY
+    WITH inserted AS (
+        INSERT INTO refunds (id, charge_id, payment_intent_id, merchant_id, amount, currency, status, reason, metadata, created_at, updated_at)
+        VALUES (p_id, NULL, p_payment_intent_id, v_intent.merchant_id, p_amount, v_intent.currency, 'succeeded',
+                COALESCE(p_reason, 'withdrawal'), p_metadata, p_created_at, p_created_at)
+        RETURNING *
+    )
+    SELECT * FROM inserted;
+END;
+$$;
@@ -0,0 +1,62 @@
+-- Créditos de saldo en lote: un solo round-trip para muchos créditos (de uno o varios merchants).
+--
+-- Lo usa el agregador de créditos del servicio, que acumula en memoria los créditos de payment
+-- intents y los vuelca periódicamente. Mantiene las mismas garantías que payflex_credit_balance:
+-- cada movimiento sigue siendo una fila del ledger, idempotente por (source_type, source_id), y se
+-- toma el advisory lock compartido de cada merchant (en orden, para no interbloquear con otro lote).
+-- Para merchants con franjas, los montos se suman por franja y se aplica un UPDATE por franja.
+
+CREATE OR REPLACE FUNCTION payflex_credit_balance_batch(
+    p_merchant_ids  TEXT[],
+    p_amounts_minor BIGINT[],
+    p_currencies    TEXT[],
+    p_source_types  TEXT[],
+    p_source_ids    TEXT[],
+    p_created_at    TIMESTAMP)
+RETURNS INTEGER
+LANGUAGE plpgsql AS $$
+DECLARE
+    v_merchant_id TEXT;
+    v_count       INTEGER;
+    v_merchants   TEXT[];
+    v_amounts     BIGINT[];
+    v_keys        TEXT[];
+    v_stripe      RECORD;
+BEGIN
+    FOR v_merchant_id IN SELECT DISTINCT m FROM unnest(p_merchant_ids) AS m ORDER BY 1 LOOP
+        PERFORM pg_advisory_xact_lock_shared(payflex_balance_lock_key(v_merchant_id));
+    END LOOP;
+
+    WITH inserted AS (
+        INSERT INTO balance_transactions (merchant_id, entry_type, amount_minor, currency, source_type, source_id, created_at)
+        SELECT i.merchant_id, 'credit', i.amount_minor, i.currency, i.source_type, i.source_id, p_created_at
+        FROM unnest(p_merchant_ids, p_amounts_minor, p_currencies, p_source_types, p_source_ids)
+                 AS i(merchant_id, amount_minor, currency, source_type, source_id)
+        WHERE i.amount_minor > 0
+        ON CONFLICT (source_type, source_id, entry_type) WHERE source_id IS NOT NULL DO NOTHING
+        RETURNING id, merchant_id, amount_minor, source_id
+    )
+    SELECT COUNT(*),
+           array_agg(merchant_id),
+           array_agg(amount_minor),
+           array_agg(COALESCE(source_id, id::TEXT))
+    INTO v_count, v_merchants, v_amounts, v_keys
+    FROM inserted;
+
+    IF v_count > 0 THEN
+        FOR v_stripe IN
+            SELECT d.merchant_id, abs(hashtext(d.stripe_key) % b.balance_stripes) AS stripe, SUM(d.amount_minor) AS total
+            FROM unnest(v_merchants, v_amounts, v_keys) AS d(merchant_id, amount_minor, stripe_key)
+            JOIN merchant_balances b ON b.merchant_id = d.merchant_id AND b.balance_stripes > 0
+            GROUP BY 1, 2
+            ORDER BY 1, 2
+        LOOP
+            UPDATE merchant_balance_stripes
+            SET available_minor = available_minor + v_stripe.total
+            WHERE merchant_id = v_stripe.merchant_id AND stripe = v_stripe.stripe;
+        END LOOP;
+    END IF;
+
+    RETURN v_count;
+END;
+$$;
@@ -0,0 +1,11 @@
+-- Directorio de shards por merchant (ver ShardRouter).
+--
+-- Con database.shards.urls configurado, la tabla del shard 0 indica en qué shard viven los datos
+-- de cada merchant; los merchants sin fila viven en el shard 0. En los demás shards queda vacía.
+-- No referencia a merchants: la fila del merchant puede estar en otra base.
+
+CREATE TABLE IF NOT EXISTS merchant_shards (
+    merchant_id VARCHAR(64) PRIMARY KEY,
+    shard       INTEGER     NOT NULL CHECK (shard >= 0),
+    updated_at  TIMESTAMP   NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
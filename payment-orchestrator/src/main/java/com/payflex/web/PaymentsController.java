@@ -6,6 +6,7 @@ import com.payflex.dto.PaymentIntentResponse;
 import com.payflex.dto.UpdatePaymentIntentRequest;
 import com.payflex.event.producer.PaymentEventProducer;
 import com.payflex.security.MerchantAccess;
+import com.payflex.utils.TimeOrderedIds;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.MediaType;
@@ -15,7 +16,6 @@ import reactor.core.publisher.Mono;
 
 import java.math.BigDecimal;
 import java.util.Map;
-import java.util.UUID;
 
 @RestController
 @RequestMapping("/payments")
@@ -64,7 +64,7 @@ public class PaymentsController {
     }
 
     String currency = currencyObj == null || currencyObj.toString().isBlank() ? "CLP" : currencyObj.toString();
-    String paymentIntentId = "pi_" + UUID.randomUUID();
+    String paymentIntentId = TimeOrderedIds.paymentIntentId();
 
     // Crear el payment intent en la base de datos a través del merchant-service
     return Mono.fromCallable(() -> {